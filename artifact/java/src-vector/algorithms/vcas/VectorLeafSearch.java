@@ -0,0 +1,42 @@
+package algorithms.vcas;
+
+/*
+LeafSearch using the incubating Vector API: compares a whole vector of keys
+against the search key at once. Since the keys are sorted, the first vector
+that is not entirely below the search key contains the answer, and its
+number of set lanes is the offset within that vector.
+
+This file is compiled separately (see ../compile) because it needs JDK 16+
+and --add-modules jdk.incubator.vector; LeafSearch loads it reflectively.
+*/
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+public final class VectorLeafSearch extends LeafSearch {
+  private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+  public VectorLeafSearch() {
+    // fail here, inside LeafSearch.vector(), if the module is not available
+    LongVector.zero(SPECIES);
+  }
+
+  public int lowerBound(final long[] keys, final long key) {
+    if(keys.length > LINEAR_MAX) return binaryLowerBound(keys, key);
+    LongVector k = LongVector.broadcast(SPECIES, key);
+    int i = 0;
+    int bound = SPECIES.loopBound(keys.length);
+    for(; i < bound; i += SPECIES.length()) {
+      VectorMask<Long> lt = LongVector.fromArray(SPECIES, keys, i).compare(VectorOperators.LT, k);
+      if(!lt.allTrue()) return i + lt.trueCount();
+    }
+    while(i < keys.length && keys[i] < key) i++;
+    return i;
+  }
+
+  public String getName() {
+    return "vector";
+  }
+}
@@ -21,6 +21,7 @@ package adapters;
 
 import main.support.Random;
 import main.support.Element;
+import algorithms.vcas.WriteAheadLog;
 import org.deuce.transform.Exclude;
 import java.util.function.Predicate;
 
@@ -66,6 +67,19 @@ public abstract class AbstractAdapter<K> {
         throw new UnsupportedOperationException("not overloaded");
     }
 
+    // fills buffer instead of allocating the result; @return the number of successors stored
+    public int successors(K key, Element<K,K>[] buffer) {
+        Element<K,K>[] result = successors(key, buffer.length);
+        System.arraycopy(result, 0, buffer, 0, result.length);
+        return result.length;
+    }
+
+    // routes add and remove through a write-ahead log in dir (Main's -wal switch)
+    public void logUpdates(java.nio.file.Path dir, WriteAheadLog.Sync sync) throws java.io.IOException {
+        throw new UnsupportedOperationException("not overloaded");
+    }
+    public void closeLog() throws java.io.IOException {}
+
     public Object[] multiSearch(K[] keys) {
         throw new UnsupportedOperationException("not overloaded");
     }
@@ -74,6 +88,18 @@ public abstract class AbstractAdapter<K> {
         throw new UnsupportedOperationException("not overloaded");
     }    
 
+    // stores the pair found in result instead of allocating it; @return whether there is one
+    public boolean findIf(K lo, K hi, Predicate<Element<K,K>> p, Element<K,K> result) {
+        Element<K,K> e = findIf(lo, hi, p);
+        if(e == null) return false;
+        result.set(e.key, e.value);
+        return true;
+    }
+
+    public long takeSnapshot() {
+        throw new UnsupportedOperationException("not overloaded");
+    }
+
     public boolean supportsKeysum() {
         return false;
     }
@@ -0,0 +1,78 @@
+package adapters;
+
+import main.support.SetInterface;
+import main.support.KSTNode;
+import main.support.OperationListener;
+import main.support.Random;
+
+import java.util.concurrent.ConcurrentNavigableMap;
+
+/*
+Runs any ConcurrentNavigableMap through the benchmarks, so that e.g. the
+VcasNavigableMap facades and ConcurrentSkipListMap can be compared through
+the same interface. Range queries iterate over a subMap.
+*/
+public class NavigableMapAdapter<K extends Comparable<? super K>> extends AbstractAdapter<K> implements SetInterface<K> {
+    final ConcurrentNavigableMap<K,K> map;
+
+    public NavigableMapAdapter(ConcurrentNavigableMap<K,K> map) {
+        this.map = map;
+    }
+
+    public boolean contains(K key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public boolean add(K key, Random rng, final int[] metrics) {
+        return map.putIfAbsent(key, key) == null;
+    }
+
+    public boolean add(K key, Random rng) {
+        return add(key, rng, null);
+    }
+
+    @Override
+    public boolean remove(K key, Random rng, final int[] metrics) {
+        return map.remove(key) != null;
+    }
+
+    public boolean remove(K key, Random rng) {
+        return remove(key, rng, null);
+    }
+
+    @Override
+    public Object rangeQuery(K lo, K hi, int rangeSize, Random rng) {
+        return map.subMap(lo, true, hi, true).keySet().toArray();
+    }
+
+    public void addListener(OperationListener l) {}
+
+    public int size() {
+        return map.size();
+    }
+
+    public KSTNode<K> getRoot() {
+        return null;
+    }
+
+    public boolean supportsKeysum() {
+        return true;
+    }
+
+    public long getKeysum() {
+        long sum = 0;
+        for(K key : map.keySet())
+            sum += (Integer) key;
+        return sum;
+    }
+
+    public int getSumOfDepths() {
+        return 0;
+    }
+
+    public int sequentialSize() {
+        return map.size();
+    }
+
+}
@@ -2,13 +2,19 @@
 package adapters;
 
 import algorithms.vcas.VcasBatchBSTMapGC;
+import algorithms.vcas.Checkpoint;
+import algorithms.vcas.DurableMap;
+import algorithms.vcas.WriteAheadLog;
 import main.support.SetInterface;
 import main.support.KSTNode;
 import main.support.OperationListener;
 import main.support.Random;
+import main.support.Element;
+import java.util.function.Predicate;
 
 public class VcasBatchBSTGCAdapter<K extends Comparable<? super K>> extends AbstractAdapter<K> implements SetInterface<K> {
     VcasBatchBSTMapGC<K,K> tree;
+    DurableMap<K,K> durable; // null unless logUpdates() was called
 
     public VcasBatchBSTGCAdapter(int k) {
         tree = new VcasBatchBSTMapGC<K,K>(k);
@@ -18,12 +24,25 @@ public class VcasBatchBSTGCAdapter<K extends Comparable<? super K>> extends Abst
         tree = new VcasBatchBSTMapGC<K,K>();
     }
 
+    // keys must be Integers, as in Main
+    @Override
+    public void logUpdates(java.nio.file.Path dir, WriteAheadLog.Sync sync) throws java.io.IOException {
+        durable = tree.withLog(new WriteAheadLog<K,K>(dir, (Checkpoint.Codec) Checkpoint.INTEGER, (Checkpoint.Codec) Checkpoint.INTEGER, sync));
+    }
+
+    @Override
+    public void closeLog() throws java.io.IOException {
+        if (durable != null) durable.close();
+        durable = null;
+    }
+
     public boolean contains(K key) {
         return tree.containsKey(key);
     }
 
     @Override
     public boolean add(K key, Random rng, final int[] metrics) {
+        if (durable != null) return durable.putIfAbsent(key, key) == null;
         return tree.putIfAbsent(key, key) == null;
 //        return tree.put(key, key) == null;
     }
@@ -39,6 +58,7 @@ public class VcasBatchBSTGCAdapter<K extends Comparable<? super K>> extends Abst
 
     @Override
     public boolean remove(K key, Random rng, final int[] metrics) {
+        if (durable != null) return durable.remove(key) != null;
         return tree.remove(key) != null;
     }
 
@@ -52,15 +72,47 @@ public class VcasBatchBSTGCAdapter<K extends Comparable<? super K>> extends Abst
         return tree.rangeScan(lo, hi);
     }
 
+    // the tree sums values; every key is stored as its own value, so this is
+    // also the sum of the keys in [lo, hi]
     @Override
     public long rangeSum(K lo, K hi, int rangeSize, Random rng) {
         return tree.rangeSum(lo, hi);
     }
 
+    @Override
+    public Element<K,K>[] successors(K key, int numSuccessors) {
+        return tree.successors(key, numSuccessors);
+    }
+
+    @Override
+    public int successors(K key, Element<K,K>[] buffer) {
+        return tree.successors(key, buffer);
+    }
+
+    @Override
+    public Element<K,K> findIf(K lo, K hi, Predicate<Element<K,K>> p) {
+        return tree.findIf(lo, hi, p);
+    }
+
+    @Override
+    public boolean findIf(K lo, K hi, Predicate<Element<K,K>> p, Element<K,K> result) {
+        return tree.findIf(lo, hi, p, result);
+    }
+
+    @Override
+    public Object[] multiSearch(K[] keys) {
+        return tree.multiSearch(keys);
+    }
+
+    @Override
+    public long takeSnapshot() {
+        return VcasBatchBSTMapGC.camera.snapshot();
+    }
+
     public void addListener(OperationListener l) {}
 
     public int size() {
-        return sequentialSize();
+        return tree.size();
     }
 
     public KSTNode<K> getRoot() {
@@ -84,7 +136,7 @@ public class VcasBatchBSTGCAdapter<K extends Comparable<? super K>> extends Abst
     }
 
     public int sequentialSize() {
-        return tree.size();
+        return tree.sequentialSize();
     }
 
 }
@@ -8,9 +8,13 @@ import main.support.Random;
 import main.support.Element;
 import java.util.function.Predicate;
 import algorithms.vcas.VcasBatchChromaticMapGC;
+import algorithms.vcas.Checkpoint;
+import algorithms.vcas.DurableMap;
+import algorithms.vcas.WriteAheadLog;
 
 public class VcasBatchChromaticGCAdapter<K extends Comparable<? super K>> extends AbstractAdapter<K> implements SetInterface<K> {
     public VcasBatchChromaticMapGC<K,K> tree;
+    DurableMap<K,K> durable; // null unless logUpdates() was called
 
     // public VcasBatchChromaticAdapter() {
     //     tree = new VcasBatchChromaticMap();
@@ -32,11 +36,24 @@ public class VcasBatchChromaticGCAdapter<K extends Comparable<? super K>> extend
         tree = new VcasBatchChromaticMapGC(batchingDegree, allowedViolations);
     }
 
+    // keys must be Integers, as in Main
+    @Override
+    public void logUpdates(java.nio.file.Path dir, WriteAheadLog.Sync sync) throws java.io.IOException {
+        durable = tree.withLog(new WriteAheadLog<K,K>(dir, (Checkpoint.Codec) Checkpoint.INTEGER, (Checkpoint.Codec) Checkpoint.INTEGER, sync));
+    }
+
+    @Override
+    public void closeLog() throws java.io.IOException {
+        if (durable != null) durable.close();
+        durable = null;
+    }
+
     public boolean contains(K key) {
         return tree.containsKey(key);
     }
     
     public boolean add(K key, Random rng) {
+        if (durable != null) return durable.putIfAbsent(key, key) == null;
         return tree.putIfAbsent(key, key) == null;
         //return tree.put(key, key) == null;
     }
@@ -46,9 +63,15 @@ public class VcasBatchChromaticGCAdapter<K extends Comparable<? super K>> extend
     }
 
     public boolean remove(K key, Random rng) {
+        if (durable != null) return durable.remove(key) != null;
         return tree.remove(key) != null;
     }
 
+    @Override
+    public long takeSnapshot() {
+        return VcasBatchChromaticMapGC.camera.snapshot();
+    }
+
     public void addListener(OperationListener l) {
 
     }
@@ -63,11 +86,21 @@ public class VcasBatchChromaticGCAdapter<K extends Comparable<? super K>> extend
         return tree.successors(key, numSuccessors);
     }
 
+    @Override
+    public int successors(K key, Element<K,K>[] buffer) {
+        return tree.successors(key, buffer);
+    }
+
     @Override
     public Element<K,K> findIf(K lo, K hi, Predicate<Element<K,K>> p) {
         return tree.findIf(lo, hi, p);
     }
 
+    @Override
+    public boolean findIf(K lo, K hi, Predicate<Element<K,K>> p, Element<K,K> result) {
+        return tree.findIf(lo, hi, p, result);
+    }
+
     @Override
     public Object[] multiSearch(K[] keys) {
         return tree.multiSearch(keys);
@@ -79,7 +112,7 @@ public class VcasBatchChromaticGCAdapter<K extends Comparable<? super K>> extend
     // }
 
     public int size() {
-        return sequentialSize();
+        return tree.size();
     }
 
     public KSTNode<K> getRoot() {
@@ -95,7 +128,7 @@ public class VcasBatchChromaticGCAdapter<K extends Comparable<? super K>> extend
     }
 
     public int sequentialSize() {
-        return tree.size();
+        return tree.sequentialSize();
     }
     
     public boolean supportsKeysum() {
@@ -0,0 +1,102 @@
+package adapters;
+
+import algorithms.vcas.LeafSearch;
+import algorithms.vcas.VcasLongBatchBSTMap;
+import main.support.SetInterface;
+import main.support.KSTNode;
+import main.support.OperationListener;
+import main.support.Random;
+
+// Runs the long-keyed vCAS BST on the harness's (Integer) keys; each key is
+// widened to a long and also stored as its own value.
+public class VcasLongBatchBSTAdapter<K extends Comparable<? super K>> extends AbstractAdapter<K> implements SetInterface<K> {
+    // leaf search used by trees created from now on
+    public static LeafSearch leafSearch = LeafSearch.BINARY;
+
+    public VcasLongBatchBSTMap<K> tree;
+
+    public VcasLongBatchBSTAdapter(int k) {
+        tree = new VcasLongBatchBSTMap<K>(k, leafSearch);
+    }
+
+    public VcasLongBatchBSTAdapter() {
+        this(16);
+    }
+
+    private static long toLong(Object key) {
+        return ((Number) key).longValue();
+    }
+
+    public boolean contains(K key) {
+        return tree.containsKey(toLong(key));
+    }
+
+    @Override
+    public boolean add(K key, Random rng, final int[] metrics) {
+        return tree.putIfAbsent(toLong(key), key) == null;
+    }
+
+    public boolean add(K key, Random rng) {
+        return add(key, rng, null);
+    }
+
+    public K get(K key) {
+        return tree.get(toLong(key));
+    }
+
+    @Override
+    public boolean remove(K key, Random rng, final int[] metrics) {
+        return tree.remove(toLong(key)) != null;
+    }
+
+    public boolean remove(K key, Random rng) {
+        return remove(key, rng, null);
+    }
+
+    @Override
+    public Object rangeQuery(K lo, K hi, int rangeSize, Random rng) {
+        return tree.rangeScan(toLong(lo), toLong(hi));
+    }
+
+    // every key is stored as its own value, so this is also the sum of the keys
+    @Override
+    public long rangeSum(K lo, K hi, int rangeSize, Random rng) {
+        return tree.rangeSum(toLong(lo), toLong(hi));
+    }
+
+    @Override
+    public long takeSnapshot() {
+        return VcasLongBatchBSTMap.camera.snapshot();
+    }
+
+    public void addListener(OperationListener l) {}
+
+    public int size() {
+        return sequentialSize();
+    }
+
+    public KSTNode<K> getRoot() {
+        return null;
+    }
+
+    public long getSumOfKeys() {
+        return tree.getSumOfKeys();
+    }
+
+    public boolean supportsKeysum() {
+        return true;
+    }
+
+    public long getKeysum() {
+        return tree.getSumOfKeys();
+    }
+
+    public int getSumOfDepths() {
+        return 0;
+    }
+
+    public int sequentialSize() {
+        return tree.size();
+    }
+
+}
@@ -25,7 +25,12 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 import jdk.internal.vm.annotation.Contended;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
 import main.support.ThreadID;
+import java.util.ArrayDeque;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 
 public class Camera {
   public static final int PADDING = 32;
@@ -34,6 +39,7 @@ public class Camera {
   public volatile long timestamp;
 
   private static final AtomicLongFieldUpdater<Camera> timestampUpdater = AtomicLongFieldUpdater.newUpdater(Camera.class, "timestamp");
+  private static final AtomicLongFieldUpdater<Camera> oldestActiveUpdater = AtomicLongFieldUpdater.newUpdater(Camera.class, "oldestActive");
   private static final ThreadLocal<Integer> backoffAmount = new ThreadLocal<Integer>() {
       @Override
       protected Integer initialValue() {
@@ -43,30 +49,85 @@ public class Camera {
 
   public static Camera camera = new Camera();
 
+  /*
+  Snapshots that are still in use. Each thread announces a lower bound on the
+  timestamp of the snapshot it is reading (see beginSnapshot), so no version
+  older than the newest one at or below the minimum announcement can be read
+  by anyone. oldestActive caches that minimum; a stale value is always lower
+  than the true one, so it is safe to use for truncating version lists.
+  */
+  public static final long NO_SNAPSHOT = Long.MAX_VALUE;
+  public static final int ACTIVE_PADDING = 16;
+  public static final int REFRESHES_BEFORE_SCAN = 64;
+  private final AtomicLongArray activeSnapshots = new AtomicLongArray(ThreadID.MAX_THREADS*ACTIVE_PADDING);
+  private final int[] activeDepth = new int[ThreadID.MAX_THREADS*ACTIVE_PADDING];
+  private final int[] refreshCount = new int[ThreadID.MAX_THREADS*ACTIVE_PADDING];
+  private volatile long oldestActive;
+
   public Camera() {
+    this(System::nanoTime, true);
+  }
+
+  /**
+    A camera whose retention window reads the given clock (in nanoseconds)
+    instead of System.nanoTime() and is sampled only by calls to sample(),
+    rather than by a thread of its own.
+  */
+  public Camera(LongSupplier clock) {
+    this(clock, false);
+  }
+
+  private Camera(LongSupplier clock, boolean sampled) {
+    this.clock = clock;
+    this.sampled = sampled;
     timestamp = 0;
+    for(int i = 0; i < ThreadID.MAX_THREADS; i++)
+      activeSnapshots.set(i*ACTIVE_PADDING, NO_SNAPSHOT);
   }
 
   private static void backoff(int amount) {
       if(amount == 0) return;
       int limit = amount;
-      int tid = ThreadID.threadID.get();
+      int tid = ThreadID.get();
       for(int i = 0; i < limit; i++)
           dummyCounters[tid*PADDING] += i; 
   }
 
   public static void set(long ts) {
-    camera.timestamp = ts;
+    camera.reset(ts);
   }
 
   public static long takeSnapshot() {
-    // return timestampUpdater.getAndIncrement(camera);
-    long ts = camera.timestamp;
+    return camera.snapshot();
+  }
+
+  public static long getTimestamp() {
+    return camera.read();
+  }
+
+  /*
+  The instance methods below are what the vCAS data structures call through
+  their own camera field. Subclasses (e.g. StripedCamera) override them to
+  change how timestamps are handed out, while the static methods above keep
+  working on the global camera for the structures that share it.
+  */
+
+  public void reset(long ts) {
+    timestamp = ts;
+    oldestActive = ts;
+  }
+
+  // Concurrent snapshotters that read the same ts share a single increment:
+  // whoever loses the race (or sees that the timestamp already moved during
+  // backoff) simply returns ts, which is still a valid snapshot.
+  public long snapshot() {
+    // return timestampUpdater.getAndIncrement(this);
+    long ts = timestamp;
     int ba = backoffAmount.get();
     //if(ba != 1) System.out.println(ba);
     backoff(ba);
-    if(ts == camera.timestamp) {
-      if(timestampUpdater.compareAndSet(camera, ts, ts+1))
+    if(ts == timestamp) {
+      if(timestampUpdater.compareAndSet(this, ts, ts+1))
         ba /= 2;
       else 
         ba *= 2;
@@ -77,7 +138,238 @@ public class Camera {
     return ts;
   }
 
-  public static long getTimestamp() {
-    return camera.timestamp;
+  public long read() {
+    return timestamp;
+  }
+
+  // Takes a snapshot that stays registered as in use until endSnapshot() is
+  // called by the same thread. Calls nest; the outermost snapshot is the one
+  // that stays announced.
+  public long beginSnapshot() {
+    int idx = ThreadID.get()*ACTIVE_PADDING;
+    if(activeDepth[idx]++ == 0)
+      activeSnapshots.set(idx, read()); // announce before taking the snapshot
+    return snapshot();
+  }
+
+  public void endSnapshot() {
+    int idx = ThreadID.get()*ACTIVE_PADDING;
+    if(--activeDepth[idx] > 0) return;
+    activeSnapshots.set(idx, NO_SNAPSHOT);
+    if(++refreshCount[idx] >= REFRESHES_BEFORE_SCAN) {
+      refreshCount[idx] = 0;
+      refreshOldestActiveSnapshot();
+    }
+  }
+
+  // a lower bound on the timestamp of every snapshot in use or taken later
+  public long oldestActiveSnapshot() {
+    return oldestActive;
+  }
+
+  // same as oldestActiveSnapshot(), but also refreshes the cached value every
+  // so often, so that writers keep truncating when no snapshots are closed
+  public long truncationBound() {
+    int idx = ThreadID.get()*ACTIVE_PADDING;
+    if(++refreshCount[idx] >= REFRESHES_BEFORE_SCAN) {
+      refreshCount[idx] = 0;
+      refreshOldestActiveSnapshot();
+    }
+    return oldestActive;
+  }
+
+  public void refreshOldestActiveSnapshot() {
+    long min = read(); // must be read before the announcements
+    if(retainedSince != NOT_RETAINED) min = Math.min(min, retentionFloor(min));
+    if(oldestPin < min) min = oldestPin;
+    int threads = ThreadID.highWater();
+    for(int i = 0; i < threads; i++) {
+      long ann = activeSnapshots.get(i*ACTIVE_PADDING);
+      if(ann < min) min = ann;
+    }
+    long cur = oldestActive;
+    if(min > cur) oldestActiveUpdater.compareAndSet(this, cur, min);
+  }
+
+  /*
+  Retention window. Normally versions are unlinked as soon as no announced
+  snapshot can read them. With retain(), the truncation bound is also kept
+  at or below the timestamp that was current retainTicks timestamps or
+  retainNanos nanoseconds ago, and the epoch reclaims the versions retired by
+  the vCAS trees by truncating them at that bound rather than cutting off
+  their whole history (see Versioned.reclaim(Camera)), so the trees can be
+  read at past timestamps within the window (getAt, rangeScanAt,
+  successorsAt). Wall-clock time is mapped to timestamps by samples of
+  (clock, snapshot()) taken by a daemon thread (or by sample()), at most
+  RETENTION_SAMPLES per window and one per millisecond, which also caches
+  the resulting floor, so refreshing the bound on the update path only reads
+  volatile fields. A late sample only makes the window longer.
+  */
+  public static final long NOT_RETAINED = Long.MAX_VALUE;
+  public static final int RETENTION_SAMPLES = 1024;
+  private volatile long retainedSince = NOT_RETAINED; // oldest timestamp kept, or NOT_RETAINED
+  private volatile long retainTicks;
+  private volatile long retainNanos;
+  private final LongSupplier clock; // System.nanoTime unless given
+  private final boolean sampled; // whether retain() starts the sampler thread
+  private final ArrayDeque<long[]> samples = new ArrayDeque<long[]>(); // (clock, timestamp), oldest first
+  private volatile long sampledFloor; // oldest timestamp the samples keep
+  private Thread sampler; // guarded by samples
+  private final TreeMap<Long,Integer> pins = new TreeMap<Long,Integer>(); // timestamp -> number of pins
+  private volatile long oldestPin = NOT_RETAINED;
+
+  /**
+    Keeps the history of the last ticks timestamps and of the last duration
+    of wall-clock time (either can be 0), starting from now: versions that
+    were already replaced may be gone. retain(0, 0, unit) stops retaining.
+  */
+  public void retain(long ticks, long duration, TimeUnit unit) {
+    if(ticks < 0 || duration < 0) throw new IllegalArgumentException("negative retention");
+    synchronized(samples) {
+      retainTicks = ticks;
+      retainNanos = unit.toNanos(duration);
+      samples.clear();
+      if(sampler != null) {
+        sampler.interrupt();
+        sampler = null;
+      }
+      if(ticks == 0 && duration == 0) {
+        retainedSince = NOT_RETAINED;
+        return;
+      }
+      long ts = read();
+      samples.add(new long[] {clock.getAsLong(), ts});
+      sampledFloor = ts;
+      if(retainedSince == NOT_RETAINED) retainedSince = ts;
+      if(retainNanos > 0 && sampled) {
+        final long period = Math.max(TimeUnit.MILLISECONDS.toNanos(1), retainNanos / RETENTION_SAMPLES);
+        sampler = new Thread(() -> {
+          try {
+            while(true) {
+              TimeUnit.NANOSECONDS.sleep(period);
+              synchronized(samples) {
+                if(sampler != Thread.currentThread()) return; // stopped by retain()
+                addSample();
+              }
+            }
+          } catch(InterruptedException e) {
+            // stopped by retain()
+          }
+        }, "camera-retention");
+        sampler.setDaemon(true);
+        sampler.start();
+      }
+    }
+  }
+
+  /**
+    Samples the clock and the timestamp for the wall-clock part of the
+    retention window now, as the sampler thread does periodically, and drops
+    the samples the window no longer needs. Does nothing if the window has no
+    wall-clock part.
+  */
+  public void sample() {
+    synchronized(samples) {
+      if(retainNanos > 0) addSample();
+    }
+  }
+
+  private void addSample() { // holding samples
+    long now = clock.getAsLong();
+    samples.add(new long[] {now, snapshot()});
+    // the newest sample at least retainNanos old is the oldest one needed
+    while(samples.size() > 1) {
+      long[] first = samples.pollFirst();
+      if(now - samples.peekFirst()[0] < retainNanos) {
+        samples.addFirst(first);
+        break;
+      }
+    }
+    sampledFloor = samples.peekFirst()[1];
+  }
+
+  // whether replaced versions are kept for the retention window or a pin rather than reclaimed
+  public boolean retainsHistory() {
+    return retainedSince != NOT_RETAINED || oldestPin != NOT_RETAINED;
+  }
+
+  /**
+    Takes a snapshot that stays readable until unpin(ts), whichever thread
+    reads it (ChangeStream keeps its position this way). Like retain(), a
+    pin keeps the versions it reads from being reclaimed while it is held.
+  */
+  public long pin() {
+    synchronized(pins) {
+      long announced = read();
+      if(announced < oldestPin) oldestPin = announced; // before the snapshot, as in beginSnapshot()
+      long ts = snapshot();
+      pins.merge(ts, 1, Integer::sum);
+      oldestPin = pins.firstKey();
+      return ts;
+    }
+  }
+
+  public void unpin(long ts) {
+    synchronized(pins) {
+      Integer count = pins.get(ts);
+      if(count == null) throw new IllegalArgumentException("timestamp " + ts + " is not pinned");
+      if(count == 1) pins.remove(ts);
+      else pins.put(ts, count - 1);
+      oldestPin = pins.isEmpty() ? NOT_RETAINED : pins.firstKey();
+    }
+  }
+
+  // lowest timestamp that must stay readable for the retention window
+  private long retentionFloor(long cur) {
+    long floor = cur;
+    if(retainTicks > 0) floor = cur - retainTicks;
+    if(retainNanos > 0) floor = Math.min(floor, sampledFloor);
+    return Math.max(floor, retainedSince);
+  }
+
+  /**
+    A timestamp at which the state was the one of duration ago, to within
+    the sampling interval of the retention window, or the oldest retained
+    timestamp if that is later.
+  */
+  public long timestampAgo(long duration, TimeUnit unit) {
+    long then = clock.getAsLong() - unit.toNanos(duration);
+    synchronized(samples) {
+      if(samples.isEmpty()) throw new IllegalStateException("no retention window");
+      long ts = samples.peekFirst()[1];
+      for(long[] sample : samples) {
+        if(sample[0] > then) break;
+        ts = sample[1];
+      }
+      return ts;
+    }
+  }
+
+  // whether the versions at timestamp ts are still linked; only meaningful while ts is announced
+  public boolean isRetained(long ts) {
+    return ts >= Math.min(retainedSince, oldestPin) && ts >= oldestActive;
+  }
+
+  // Like beginSnapshot(), but announces the earlier timestamp ts, which must
+  // not be in the future. Also returns whether its versions are still linked;
+  // endSnapshot() must be called either way.
+  public boolean beginSnapshotAt(long ts) {
+    int idx = ThreadID.get()*ACTIVE_PADDING;
+    if(activeDepth[idx]++ == 0 || activeSnapshots.get(idx) > ts)
+      activeSnapshots.set(idx, ts);
+    while(read() <= ts) snapshot(); // so that no update is stamped with ts any more
+    return isRetained(ts);
+  }
+
+  public String getName() {
+    return "default";
+  }
+
+  // returns a new camera of the given kind, as named by getName()
+  public static Camera create(String name) {
+    if(name.equals("default")) return new Camera();
+    if(name.equals("striped")) return new StripedCamera();
+    if(name.startsWith("striped")) return new StripedCamera(Integer.parseInt(name.substring("striped".length())));
+    throw new IllegalArgumentException("unknown camera: " + name);
   }
 }
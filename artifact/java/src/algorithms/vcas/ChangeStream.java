@@ -0,0 +1,74 @@
+package algorithms.vcas;
+
+/*
+An incremental change stream over a key range of a vCAS tree, returned by
+the changes() methods of VcasBatchBSTMapGC and VcasBatchChromaticMapGC.
+The stream holds a pinned Camera timestamp (see Camera.pin), its position.
+poll() pins a new timestamp, reports the diff between the two and moves
+there, so a consumer that applies every poll to a copy of the range taken
+at the stream's first position keeps it equal to the tree's range at the
+stream's current position.
+
+Changes that happen and are undone between two polls are not reported,
+and a key whose value changes several times is reported once. While the
+stream is open, the tree keeps the versions replaced since its position,
+so a stream that is not polled makes the tree grow; close it when done.
+*/
+public final class ChangeStream<K,V> implements AutoCloseable {
+
+  // what the stream needs from a tree
+  interface Source<K,V> {
+    boolean diff(K lo, K hi, long t1, long t2, ChangeVisitor<? super K, ? super V> visitor);
+  }
+
+  private final Source<K,V> source;
+  private final Camera camera;
+  private final K lo, hi;
+  private long position;
+  private boolean closed;
+
+  ChangeStream(final Source<K,V> source, final Camera camera, final K lo, final K hi) {
+    this.source = source;
+    this.camera = camera;
+    this.lo = lo;
+    this.hi = hi;
+    this.position = camera.pin();
+  }
+
+  // the timestamp up to which changes have been reported
+  public synchronized long position() {
+    return position;
+  }
+
+  /**
+    Reports the changes in [lo, hi] since the last poll, or since the stream
+    was opened, and advances past them. If visitor stops early or anything
+    throws, the stream does not advance, so the next poll reports those
+    changes again.
+
+    @return whether the stream advanced
+  */
+  public synchronized boolean poll(final ChangeVisitor<? super K, ? super V> visitor) {
+    if (closed) throw new IllegalStateException("stream is closed");
+    long next = camera.pin();
+    boolean advanced = false;
+    try {
+      advanced = source.diff(lo, hi, position, next, visitor);
+    } finally {
+      camera.unpin(advanced ? position : next);
+    }
+    if (advanced) position = next;
+    return advanced;
+  }
+
+  public synchronized boolean isClosed() {
+    return closed;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (closed) return;
+    closed = true;
+    camera.unpin(position);
+  }
+}
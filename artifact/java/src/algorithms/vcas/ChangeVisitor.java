@@ -0,0 +1,14 @@
+package algorithms.vcas;
+
+/*
+Receives the changes found by diff() and ChangeStream.poll() on the vCAS
+trees, one key at a time in key order:
+  oldValue == null   the key was inserted with newValue
+  newValue == null   the key, mapped to oldValue, was removed
+  otherwise          the key's value was replaced
+*/
+@FunctionalInterface
+public interface ChangeVisitor<K,V> {
+  // @return false to stop
+  boolean visit(K key, V oldValue, V newValue);
+}
@@ -0,0 +1,253 @@
+package algorithms.vcas;
+
+/*
+Binary checkpoints of a vCAS tree: VcasBatchBSTMapGC.checkpoint() and
+VcasBatchChromaticMapGC.checkpoint() stream the leaves of a snapshot to a
+file while updates go on, and restore() rebuilds a tree from it with
+bulkLoad, so loading costs a sequential read plus O(1) work per key rather
+than an insertion per key. Both trees use the same format, so a checkpoint of
+one can be restored as the other.
+
+  header  int MAGIC, int VERSION, long number of mappings
+  blocks  one per non-empty leaf, in key order:
+          int number of mappings, int number of payload bytes,
+          then each key and its value as written by the codecs
+
+The file is written under a temporary name, forced to disk and then renamed,
+so after a crash the path holds either the previous checkpoint or the new
+one, never a partial file. Reading and writing go through a FileChannel with
+a direct buffer that grows to fit the largest leaf; the reader checks the
+number of mappings against the header, so a truncated file is detected.
+*/
+
+import main.support.Element;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public final class Checkpoint {
+  public static final int MAGIC = 0x5643504B; // "VCPK"
+  public static final int VERSION = 1;
+  public static final int HEADER_SIZE = 16;
+  public static final int BLOCK_HEADER_SIZE = 8;
+  public static final int BUFFER_SIZE = 1 << 20;
+
+  private Checkpoint() {}
+
+  // how keys or values are stored in a checkpoint
+  public interface Codec<T> {
+    // may throw BufferOverflowException, in which case the block is retried in a larger buffer
+    void write(T value, ByteBuffer out);
+    T read(ByteBuffer in);
+  }
+
+  public static final Codec<Integer> INTEGER = new Codec<Integer>() {
+    public void write(Integer value, ByteBuffer out) { out.putInt(value); }
+    public Integer read(ByteBuffer in) { return in.getInt(); }
+  };
+
+  public static final Codec<Long> LONG = new Codec<Long>() {
+    public void write(Long value, ByteBuffer out) { out.putLong(value); }
+    public Long read(ByteBuffer in) { return in.getLong(); }
+  };
+
+  // UTF-8, preceded by its length in bytes
+  public static final Codec<String> STRING = new Codec<String>() {
+    public void write(String value, ByteBuffer out) {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.putInt(bytes.length);
+      out.put(bytes);
+    }
+    public String read(ByteBuffer in) {
+      byte[] bytes = new byte[in.getInt()];
+      in.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  };
+
+  // leaves hold their mappings as Object; the ones written are the tree's K and V
+  @SuppressWarnings("unchecked")
+  private static <T> T mapping(final Object o) {
+    return (T) o;
+  }
+
+  private static Path temporary(Path file) {
+    return file.resolveSibling(file.getFileName() + ".tmp");
+  }
+
+  static <K,V> Writer<K,V> writer(Path file, Codec<? super K> keyCodec, Codec<? super V> valueCodec) throws IOException {
+    return new Writer<K,V>(file, keyCodec, valueCodec);
+  }
+
+  /**
+    Reads a checkpoint as a stream of mappings in strictly increasing key
+    order, for bulkLoad. next() returns the same Element every time, and
+    throws UncheckedIOException if the file cannot be read or is corrupt.
+  */
+  public static <K,V> Reader<K,V> reader(Path file, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+    return new Reader<K,V>(file, keyCodec, valueCodec);
+  }
+
+  static final class Writer<K,V> implements AutoCloseable {
+    private final Path file, tmp;
+    private final FileChannel channel;
+    private final Codec<? super K> keyCodec;
+    private final Codec<? super V> valueCodec;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long size;
+    private boolean committed;
+
+    private Writer(Path file, Codec<? super K> keyCodec, Codec<? super V> valueCodec) throws IOException {
+      this.file = file;
+      this.tmp = temporary(file);
+      this.keyCodec = keyCodec;
+      this.valueCodec = valueCodec;
+      channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+      channel.position(HEADER_SIZE); // the header is written by commit(), once the size is known
+    }
+
+    // appends a leaf of n mappings as one block
+    void writeLeaf(final Object[] keys, final Object[] values, final int n) throws IOException {
+      while (true) {
+        int start = buffer.position();
+        try {
+          if (buffer.remaining() < BLOCK_HEADER_SIZE) throw new BufferOverflowException();
+          buffer.position(start + BLOCK_HEADER_SIZE);
+          for (int i = 0; i < n; i++) {
+            keyCodec.write(Checkpoint.<K>mapping(keys[i]), buffer);
+            valueCodec.write(Checkpoint.<V>mapping(values[i]), buffer);
+          }
+          buffer.putInt(start, n);
+          buffer.putInt(start + 4, buffer.position() - start - BLOCK_HEADER_SIZE);
+          size += n;
+          return;
+        } catch (BufferOverflowException e) { // the block does not fit
+          buffer.position(start);
+          if (start > 0) {
+            flush();
+          } else {
+            buffer = ByteBuffer.allocateDirect(2 * buffer.capacity());
+          }
+        } catch (RuntimeException e) { // from a codec: drop the partial block
+          buffer.position(start);
+          throw e;
+        }
+      }
+    }
+
+    private void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) channel.write(buffer);
+      buffer.clear();
+    }
+
+    // completes the file and moves it to its final path; @return the number of mappings written
+    long commit() throws IOException {
+      flush();
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC).putInt(VERSION).putLong(size).flip();
+      while (header.hasRemaining()) channel.write(header, header.position());
+      channel.force(true);
+      channel.close();
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      committed = true;
+      return size;
+    }
+
+    // discards the file unless it was committed
+    @Override
+    public void close() throws IOException {
+      if (committed) return;
+      channel.close();
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  public static final class Reader<K,V> implements Iterator<Element<K,V>>, AutoCloseable {
+    private final FileChannel channel;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final Element<K,V> element = new Element<K,V>();
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final long size;
+    private long read;
+    private int leftInBlock;
+    private boolean eof;
+
+    private Reader(Path file, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+      this.keyCodec = keyCodec;
+      this.valueCodec = valueCodec;
+      channel = FileChannel.open(file, StandardOpenOption.READ);
+      buffer.limit(0);
+      if (!fill(HEADER_SIZE) || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        channel.close();
+        throw new IOException("not a checkpoint: " + file);
+      }
+      size = buffer.getLong();
+    }
+
+    // number of mappings in the checkpoint
+    public long size() {
+      return size;
+    }
+
+    // makes at least bytes bytes available in buffer; @return false at the end of the file
+    private boolean fill(final int bytes) throws IOException {
+      if (buffer.remaining() >= bytes) return true;
+      if (buffer.capacity() < bytes) {
+        ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(bytes, 2 * buffer.capacity()));
+        larger.put(buffer);
+        buffer = larger;
+      } else {
+        buffer.compact();
+      }
+      while (!eof && buffer.position() < bytes) {
+        if (channel.read(buffer) < 0) eof = true;
+      }
+      buffer.flip();
+      return buffer.remaining() >= bytes;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (leftInBlock > 0) return true;
+      try {
+        if (!fill(BLOCK_HEADER_SIZE)) {
+          if (buffer.hasRemaining() || read != size) throw new IOException("truncated checkpoint");
+          return false;
+        }
+        int n = buffer.getInt();
+        int bytes = buffer.getInt();
+        if (n <= 0 || bytes < 0 || !fill(bytes)) throw new IOException("truncated checkpoint");
+        leftInBlock = n;
+        return true;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    @Override
+    public Element<K,V> next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      element.set(keyCodec.read(buffer), valueCodec.read(buffer));
+      leftInBlock--;
+      read++;
+      return element;
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package algorithms.vcas;
+
+/*
+A vCAS tree whose successful putIfAbsent and remove calls are recorded in a
+WriteAheadLog, returned by the withLog() methods of VcasBatchBSTMapGC and
+VcasBatchChromaticMapGC. Reads go straight to the tree. Updates made on the
+tree directly are not logged.
+
+An update takes the lock of its key's stripe while it changes the tree and
+appends its record, so the records of a key are in the order its updates
+took effect; it then waits for the record to be durable as the log's Sync
+policy requires, without the lock, so that waits are shared by group
+commit. Updates of different keys commute, so their records may be in any
+order.
+
+checkpoint() writes a Checkpoint of a snapshot and truncates the log up to
+the snapshot's timestamp. To recover:
+
+  tree = VcasBatchBSTMapGC.restore(degree, checkpoint, keyCodec, valueCodec); // or a new tree
+  WriteAheadLog.replay(logDir, keyCodec, valueCodec, tree.asNavigableMap());
+  map = tree.withLog(new WriteAheadLog<K,V>(logDir, keyCodec, valueCodec, sync));
+*/
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+public final class DurableMap<K,V> implements AutoCloseable {
+  public static final int STRIPES = 1024; // a power of 2
+
+  private final VcasNavigableMap.Tree<K,V> tree;
+  private final WriteAheadLog<K,V> log;
+  private final Object[] stripes = new Object[STRIPES];
+
+  DurableMap(final VcasNavigableMap.Tree<K,V> tree, final WriteAheadLog<K,V> log) {
+    this.tree = tree;
+    this.log = log;
+    for (int i = 0; i < STRIPES; i++) stripes[i] = new Object();
+  }
+
+  private Object stripe(final K key) {
+    int h = key.hashCode();
+    return stripes[(h ^ (h >>> 16)) & (STRIPES-1)];
+  }
+
+  public WriteAheadLog<K,V> log() {
+    return log;
+  }
+
+  public V get(final K key) {
+    return tree.get(key);
+  }
+
+  public boolean containsKey(final K key) {
+    return tree.get(key) != null;
+  }
+
+  public int size() {
+    return tree.size();
+  }
+
+  // @throws UncheckedIOException if the update could not be logged; it has been applied to the tree nevertheless
+  public V putIfAbsent(final K key, final V value) {
+    try {
+      long lsn;
+      synchronized (stripe(key)) {
+        V old = tree.putIfAbsent(key, value);
+        if (old != null) return old;
+        lsn = log.append(WriteAheadLog.PUT, key, value, tree.timestamp());
+      }
+      log.awaitDurable(lsn);
+      return null;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public V remove(final K key) {
+    try {
+      long lsn;
+      V old;
+      synchronized (stripe(key)) {
+        old = tree.remove(key);
+        if (old == null) return null;
+        lsn = log.append(WriteAheadLog.REMOVE, key, null, tree.timestamp());
+      }
+      log.awaitDurable(lsn);
+      return old;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+    Writes a checkpoint of a snapshot of the tree to file (see
+    VcasBatchBSTMapGC.checkpoint) and then deletes the log segments it
+    contains.
+
+    @return the number of mappings written
+  */
+  public long checkpoint(final Path file, final Checkpoint.Codec<? super K> keyCodec, final Checkpoint.Codec<? super V> valueCodec) throws IOException {
+    long ts = tree.beginSnapshot();
+    long written;
+    try {
+      written = tree.checkpoint(file, keyCodec, valueCodec, ts);
+    } finally {
+      tree.endSnapshot();
+    }
+    log.truncate(ts);
+    return written;
+  }
+
+  // closes the log; the tree stays usable
+  @Override
+  public void close() throws IOException {
+    log.close();
+  }
+}
@@ -0,0 +1,92 @@
+package algorithms.vcas;
+
+/*
+Search strategies for the sorted long[] keys of a primitive-keyed leaf
+(see VcasLongBatchBSTMap). Leaves are small and immutable, so a search that
+scans the whole leaf without data-dependent branches usually beats a binary
+search, whose branches are unpredictable.
+
+  binary  classic binary search
+  linear  branch-free count of the keys smaller than the search key, for
+          leaves of at most LINEAR_MAX keys (binary search above that)
+  vector  the same count, several keys per instruction using the incubating
+          Vector API. Requires JDK 16+ and --add-modules jdk.incubator.vector
+          at run time; create() falls back to linear when it is unavailable.
+*/
+public abstract class LeafSearch {
+  public static final int LINEAR_MAX = 128;
+
+  public static final LeafSearch BINARY = new LeafSearch() {
+    public int lowerBound(final long[] keys, final long key) {
+      return binaryLowerBound(keys, key);
+    }
+
+    public String getName() {
+      return "binary";
+    }
+  };
+
+  public static final LeafSearch LINEAR = new LeafSearch() {
+    public int lowerBound(final long[] keys, final long key) {
+      if(keys.length > LINEAR_MAX) return binaryLowerBound(keys, key);
+      int count = 0;
+      for(int i = 0; i < keys.length; i++)
+        count += keys[i] < key ? 1 : 0;
+      return count;
+    }
+
+    public String getName() {
+      return "linear";
+    }
+  };
+
+  private static volatile LeafSearch vector;
+  private static volatile boolean vectorChecked;
+
+  // index of the first key >= key, or keys.length if there is none
+  public abstract int lowerBound(final long[] keys, final long key);
+
+  public abstract String getName();
+
+  // index of key, or -1 if it is not in keys
+  public int indexOf(final long[] keys, final long key) {
+    int i = lowerBound(keys, key);
+    return (i < keys.length && keys[i] == key) ? i : -1;
+  }
+
+  public static int binaryLowerBound(final long[] keys, final long key) {
+    int i, a = 0, b = keys.length;
+    while(a < b) {
+      i = (a+b) >>> 1;
+      if (keys[i] < key)
+        a = i+1;
+      else
+        b = i;
+    }
+    return a;
+  }
+
+  // the Vector API implementation, or null if it cannot be loaded
+  public static LeafSearch vector() {
+    if(!vectorChecked) {
+      try {
+        vector = (LeafSearch) Class.forName("algorithms.vcas.VectorLeafSearch").getDeclaredConstructor().newInstance();
+      } catch (Throwable t) { // class not compiled in, or module not resolved
+        vector = null;
+      }
+      vectorChecked = true;
+    }
+    return vector;
+  }
+
+  // "binary", "linear" or "vector" (which falls back to linear)
+  public static LeafSearch create(String name) {
+    if(name.equals("binary")) return BINARY;
+    if(name.equals("linear")) return LINEAR;
+    if(name.equals("vector")) {
+      LeafSearch v = vector();
+      return v != null ? v : LINEAR;
+    }
+    throw new IllegalArgumentException("unknown leaf search: " + name);
+  }
+}
@@ -0,0 +1,158 @@
+package algorithms.vcas;
+
+/*
+Notifies subscribers when mappings in their key range change, for callers
+that would otherwise poll rangeScan to find out. A subscription, made with
+the watch() methods of VcasBatchBSTMapGC and VcasBatchChromaticMapGC, holds
+a ChangeStream over its range; the watcher's thread polls every stream once
+per period and hands each subscriber the changes found, if any, as one
+batch. Updaters do no extra work: the cost is one snapshot diff per
+subscription and period, and a diff skips the leaves that did not change.
+
+Each batch holds the net changes since the previous one (see ChangeStream),
+in key order. Batches of a subscription are delivered in order by one
+thread at a time, so a listener that applies them to a copy of its range
+keeps it equal to the tree's range as of the last batch. An exception from
+a listener or from polling its range ends that subscription only, and is
+kept as its failure().
+*/
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+public final class RangeWatcher implements AutoCloseable {
+
+  // a key whose value changed; oldValue is null if it was inserted, newValue if it was removed
+  public static final class Change<K,V> {
+    public final K key;
+    public final V oldValue, newValue;
+
+    Change(final K key, final V oldValue, final V newValue) {
+      this.key = key;
+      this.oldValue = oldValue;
+      this.newValue = newValue;
+    }
+
+    @Override
+    public String toString() {
+      return key + ": " + oldValue + " -> " + newValue;
+    }
+  }
+
+  @FunctionalInterface
+  public interface Listener<K,V> {
+    // called with a non-empty batch, from the watcher's thread or from poll()
+    void changed(List<Change<K,V>> batch);
+  }
+
+  public final class Subscription<K,V> implements AutoCloseable {
+    private final ChangeStream<K,V> stream;
+    private final Listener<K,V> listener;
+    private final ArrayList<Change<K,V>> batch = new ArrayList<Change<K,V>>();
+    private volatile RuntimeException failure;
+
+    private Subscription(final ChangeStream<K,V> stream, final Listener<K,V> listener) {
+      this.stream = stream;
+      this.listener = listener;
+    }
+
+    private void poll() {
+      try {
+        stream.poll((key, oldValue, newValue) -> batch.add(new Change<K,V>(key, oldValue, newValue)));
+        if (!batch.isEmpty()) listener.changed(new ArrayList<Change<K,V>>(batch));
+      } catch (RuntimeException e) {
+        if (!stream.isClosed()) { // rather than closed meanwhile
+          failure = e;
+          close();
+        }
+      } finally {
+        batch.clear(); // a failed diff did not advance the stream
+      }
+    }
+
+    // the exception thrown by the listener or while polling, or null
+    public RuntimeException failure() {
+      return failure;
+    }
+
+    // stops the notifications; a batch being delivered completes
+    @Override
+    public void close() {
+      subscriptions.remove(this);
+      stream.close();
+    }
+  }
+
+  private final long periodNanos;
+  private final Thread poller;
+  private final CopyOnWriteArrayList<Subscription<?,?>> subscriptions = new CopyOnWriteArrayList<Subscription<?,?>>();
+  private volatile boolean stopping;
+
+  /**
+    Starts a watcher whose thread looks for changes every period.
+
+    @param period  the longest a change waits before it is notified, plus the time to diff every subscription
+  */
+  public RangeWatcher(final long period, final TimeUnit unit) {
+    if (period < 1) throw new IllegalArgumentException("period must be positive");
+    this.periodNanos = unit.toNanos(period);
+    poller = new Thread(() -> {
+      try {
+        while (!stopping) {
+          TimeUnit.NANOSECONDS.sleep(periodNanos);
+          poll();
+        }
+      } catch (InterruptedException e) {
+        // exit
+      }
+    }, "range-watcher");
+    poller.setDaemon(true);
+    poller.start();
+  }
+
+  // takes over stream: it is closed if the watcher is, so that it does not keep its range pinned
+  <K,V> Subscription<K,V> watch(final ChangeStream<K,V> stream, final Listener<K,V> listener) {
+    Subscription<K,V> s = new Subscription<K,V>(stream, listener);
+    synchronized (subscriptions) {
+      if (stopping) {
+        stream.close();
+        throw new IllegalStateException("watcher is closed");
+      }
+      subscriptions.add(s);
+    }
+    return s;
+  }
+
+  public long period(final TimeUnit unit) {
+    return unit.convert(periodNanos, TimeUnit.NANOSECONDS);
+  }
+
+  public int subscriptions() {
+    return subscriptions.size();
+  }
+
+  /**
+    Looks for changes in every subscription's range now and notifies them,
+    as the watcher's thread does every period.
+  */
+  public synchronized void poll() {
+    for (Subscription<?,?> s : subscriptions) s.poll();
+  }
+
+  // stops the watcher's thread and closes every subscription; watching afterwards throws IllegalStateException
+  @Override
+  public void close() {
+    stopping = true;
+    poller.interrupt();
+    try {
+      poller.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (subscriptions) { // against watch(), which adds nothing once stopping
+      for (Subscription<?,?> s : subscriptions) s.close();
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package algorithms.vcas;
+
+/*
+State of an aggregating range scan of a vCAS tree (reduce, count, sum, min
+and max in VcasBatchBSTMapGC and VcasBatchChromaticMapGC). It is the
+visitor of the tree's streaming scan (visitHelper), which hands it every
+mapping in the range, and it filters and folds them in place, so no result
+array is built. One Element is reused to show the mappings to the filter
+and to reduce's accumulator. R is the type of reduce's result, and is
+unused by the other folds.
+*/
+
+import main.support.Element;
+
+import java.util.OptionalLong;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+final class ScanFold<K,V,R> implements BiPredicate<K,V> {
+  static final int COUNT = 0;
+  static final int SUM = 1;
+  static final int MIN = 2;
+  static final int MAX = 3;
+  static final int REDUCE = 4;
+
+  private final int op;
+  private final Predicate<Element<K,V>> filter; // null to take every mapping
+  private final ToLongFunction<? super V> f;     // for SUM, MIN and MAX
+  private final BiFunction<R, ? super Element<K,V>, R> accumulator; // for REDUCE
+  private final Element<K,V> e = new Element<K,V>();
+  private long total;
+  private boolean empty = true;
+  private R result;
+
+  ScanFold(final int op, final Predicate<Element<K,V>> filter, final ToLongFunction<? super V> f) {
+    this.op = op;
+    this.filter = filter;
+    this.f = f;
+    this.accumulator = null;
+  }
+
+  ScanFold(final Predicate<Element<K,V>> filter, final R identity, final BiFunction<R, ? super Element<K,V>, R> accumulator) {
+    this.op = REDUCE;
+    this.filter = filter;
+    this.f = null;
+    this.accumulator = accumulator;
+    this.result = identity;
+  }
+
+  // adds a mapping of the range; never stops the scan
+  @Override
+  public boolean test(final K key, final V value) {
+    if (filter != null || op == REDUCE) {
+      e.set(key, value);
+      if (filter != null && !filter.test(e)) return true;
+    }
+    switch (op) {
+      case COUNT:
+        total++;
+        break;
+      case SUM:
+        total += f.applyAsLong(value);
+        break;
+      case MIN: {
+        long x = f.applyAsLong(value);
+        if (empty || x < total) total = x;
+        break;
+      }
+      case MAX: {
+        long x = f.applyAsLong(value);
+        if (empty || x > total) total = x;
+        break;
+      }
+      default:
+        result = accumulator.apply(result, e);
+    }
+    empty = false;
+    return true;
+  }
+
+  // the count or sum
+  long total() {
+    return total;
+  }
+
+  // the min or max, empty if no mapping was taken
+  OptionalLong extreme() {
+    return empty ? OptionalLong.empty() : OptionalLong.of(total);
+  }
+
+  R result() {
+    return result;
+  }
+}
@@ -0,0 +1,132 @@
+package algorithms.vcas;
+
+/*
+A counter that can be read at any snapshot timestamp of a Camera, used to keep
+the size of a vCAS tree without traversing it.
+
+Every thread adds to its own slot, so updates do not contend. Each slot is a
+list of records, newest first, holding the slot's running total. A record is
+tied to the Versioned node whose installation (by a vCAS) linearizes the
+update that produced it: the record counts at timestamp T exactly when that
+node has been installed with a timestamp <= T, which is when a snapshot at T
+sees the update in the tree. An update pushes its record before attempting
+its linearization point and pops it again if the attempt fails, so a reader
+never misses an update that a snapshot already sees. A reader stamps the
+node of a record with initTS() before comparing its timestamp, as a vCAS
+read does, if the node was installed; a node still marked TBD (see
+Versioned.initTS) can only get a timestamp read after that, which is larger
+than any snapshot already taken, so its record is skipped.
+
+Records that no active snapshot can need are unlinked when new ones are
+pushed, like old versions in a vCAS object. When the camera retains history,
+many records stay needed and finding the first unneeded one means walking
+them all, so a thread truncates again only after pushing as many records as
+its last truncation walked, which keeps the cost per push constant.
+*/
+
+import main.support.ThreadID;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public final class SnapshotCounter {
+  public static final int PADDING = 16;
+
+  // an update whose linearizing node is only chosen while it is being helped
+  public interface Pending {
+    // the node installed by the update, or null if it has not been chosen yet
+    Versioned installed();
+  }
+
+  private static final class Record {
+    final Object marker; // a Versioned node or a Pending
+    final long total;
+    volatile Record next;
+
+    Record(Object marker, long total, Record next) {
+      this.marker = marker;
+      this.total = total;
+      this.next = next;
+    }
+
+    // timestamp at which this record started to count, or Versioned.TBD
+    long timestamp(Camera camera) {
+      Versioned node = (marker instanceof Pending) ? ((Pending) marker).installed() : (Versioned) marker;
+      if(node == null || !node.isInstalled()) return Versioned.TBD;
+      node.initTS(camera);
+      return node.ts;
+    }
+  }
+
+  private final AtomicReferenceArray<Record> slots = new AtomicReferenceArray<Record>(ThreadID.MAX_THREADS*PADDING);
+  private final int[] untilTruncate = new int[ThreadID.MAX_THREADS*PADDING]; // pushes left before the slot's next truncation
+  private final Camera camera;
+  private final long initial; // value at every timestamp before the first add()
+
+  public SnapshotCounter(Camera camera) {
+    this(camera, 0);
+  }
+
+  public SnapshotCounter(Camera camera, long initial) {
+    this.camera = camera;
+    this.initial = initial;
+  }
+
+  // Registers an update of delta that takes effect when node is installed.
+  // Must be followed by abort() if the update will not install node.
+  public void add(Versioned node, long delta) {
+    push(node, delta);
+  }
+
+  public void add(Pending update, long delta) {
+    push(update, delta);
+  }
+
+  private void push(Object marker, long delta) {
+    int idx = ThreadID.get()*PADDING;
+    Record head = slots.get(idx);
+    long total = (head == null ? 0 : head.total) + delta;
+    slots.set(idx, new Record(marker, total, head));
+    if(head != null && --untilTruncate[idx] <= 0)
+      untilTruncate[idx] = truncate(head, camera.truncationBound(), camera);
+  }
+
+  // withdraws the last add() of the current thread, whose update failed
+  public void abort() {
+    int idx = ThreadID.get()*PADDING;
+    slots.set(idx, slots.get(idx).next);
+  }
+
+  // unlinks the records older than the newest one that counts at bound;
+  // @return the number of records walked
+  private static int truncate(Record r, long bound, Camera camera) {
+    int walked = 1;
+    while(r != null) {
+      long ts = r.timestamp(camera);
+      if(ts != Versioned.TBD && ts <= bound) {
+        if(r.next != null) r.next = null;
+        return walked;
+      }
+      r = r.next;
+      walked++;
+    }
+    return walked;
+  }
+
+  // value of the counter at snapshot timestamp ts, which must be announced
+  public long get(long ts) {
+    long sum = initial;
+    int threads = ThreadID.highWater();
+    for(int i = 0; i < threads; i++) {
+      Record r = slots.get(i*PADDING);
+      while(r != null) {
+        long rts = r.timestamp(camera);
+        if(rts != Versioned.TBD && rts <= ts) {
+          sum += r.total;
+          break;
+        }
+        r = r.next;
+      }
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,105 @@
+package algorithms.vcas;
+
+/*
+A Camera whose snapshots combine, so that concurrent snapshotters share one
+increment of the timestamp without all of them CASing it.
+
+The current timestamp is a single published counter, so read(), which every
+update calls to stamp its versions, is one volatile read. A snapshot reads
+it (ts) and must make sure it exceeds ts before returning. Snapshotters are
+spread over padded request counters (stripes): each raises its stripe to
+ts+1 first, and only the one whose CAS moved the stripe goes on to CAS the
+published counter from ts to ts+1. A stripe-mate that finds its stripe
+already past ts leaves that to the winner and waits for the counter to move,
+reading it for at most SPINS_BEFORE_HELPING iterations before CASing it
+itself, so a descheduled winner does not block it. Snapshots taken while the
+counter is ts all return ts and share its increment, which costs one CAS
+on the published counter per stripe rather than per snapshotter, unless a
+winner is delayed.
+
+The counter only grows, one at a time, and a snapshot returns only once it
+has passed ts, so snapshots remain linearizable exactly as with the
+single-counter Camera.
+
+Copyright (C) 2021 Yuanhao Wei
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import jdk.internal.vm.annotation.Contended;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import main.support.ThreadID;
+
+public class StripedCamera extends Camera {
+  public static final int DEFAULT_STRIPES = 8;
+  public static final int STRIPE_PADDING = 16; // 128 bytes between stripes
+  public static final int SPINS_BEFORE_HELPING = 64;
+
+  private static final AtomicLongFieldUpdater<StripedCamera> publishedUpdater = AtomicLongFieldUpdater.newUpdater(StripedCamera.class, "published");
+
+  private final int stripes;
+  private final AtomicLongArray counters; // the highest ts+1 requested by each stripe
+  @Contended
+  private volatile long published;
+
+  public StripedCamera() {
+    this(DEFAULT_STRIPES);
+  }
+
+  public StripedCamera(int stripes) {
+    if(stripes < 1) throw new IllegalArgumentException("stripes must be >= 1");
+    this.stripes = stripes;
+    this.counters = new AtomicLongArray(stripes*STRIPE_PADDING);
+  }
+
+  @Override
+  public void reset(long ts) {
+    super.reset(ts);
+    for(int i = 0; i < stripes; i++)
+      counters.set(i*STRIPE_PADDING, ts);
+    published = ts;
+  }
+
+  @Override
+  public long snapshot() {
+    long ts = published;
+    int idx = (ThreadID.get() % stripes)*STRIPE_PADDING;
+    long cur = counters.get(idx);
+    boolean publisher = false;
+    while(cur <= ts) {
+      if(counters.compareAndSet(idx, cur, ts+1)) {
+        publisher = true;
+        break;
+      }
+      cur = counters.get(idx);
+    }
+    if(!publisher) // a stripe-mate publishes ts+1
+      for(int i = 0; i < SPINS_BEFORE_HELPING && published == ts; i++)
+        Thread.onSpinWait();
+    if(published == ts)
+      publishedUpdater.compareAndSet(this, ts, ts+1); // fails only if another stripe moved it
+    return ts;
+  }
+
+  @Override
+  public long read() {
+    return published;
+  }
+
+  @Override
+  public String getName() {
+    return "striped" + stripes;
+  }
+}
@@ -0,0 +1,89 @@
+package algorithms.vcas;
+
+/*
+Versioned counterpart of AtomicReferenceFieldUpdater: turns a volatile field
+holding Versioned objects into a vCAS object that supports reads at any
+snapshot timestamp taken from the given Camera. Replaced versions are retired
+to the given Epoch, which cuts them off the version list once no snapshot can
+need them (or, for objects whose reclaim() calls reclaim(Camera), truncates
+the list below what a retention window or pin of the camera still reads).
+
+Copyright (C) 2021 Yuanhao Wei
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import main.support.Epoch;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+public final class VcasAtomicReferenceFieldUpdater<T, V extends Versioned> {
+  // unlink versions that no in-flight or future snapshot can observe as soon
+  // as a newer version is installed, instead of waiting for the epoch
+  public static boolean truncateVersions = true;
+
+  private final AtomicReferenceFieldUpdater<T, V> updater;
+
+  // the updater is created by the owning class so that private fields work
+  public VcasAtomicReferenceFieldUpdater(AtomicReferenceFieldUpdater<T, V> updater) {
+    this.updater = updater;
+  }
+
+  // returns the current value of the field
+  public V get(T obj, Camera camera) {
+    V head = updater.get(obj);
+    if(head == null) return null;
+    head.initTS(camera);
+    return head;
+  }
+
+  // returns the value the field had at snapshot timestamp ts
+  public V get(T obj, long ts, Camera camera) {
+    V node = updater.get(obj);
+    if(node == null) return null;
+    node.initTS(camera);
+    while(node != null && node.ts > ts)
+      node = (V) node.nextv;
+    return node;
+  }
+
+  public boolean compareAndSet(T obj, V oldV, V newV, Camera camera, Epoch<? super V> epoch) {
+    V head = updater.get(obj);
+    if(head != null) {
+      head.initTS(camera);
+      Versioned headNext = head.nextv;
+      if(headNext != null && head.ts == headNext.ts)
+        head.nextv = headNext.nextv;
+    }
+    if(head != oldV) return false;
+    if(newV == oldV) return true;
+    Versioned.nextvUpdater.compareAndSet(newV, Versioned.dummyNextv, oldV);
+
+    if(updater.compareAndSet(obj, head, newV)) {
+      newV.initTS(camera);
+      if(head != null && newV.ts == head.ts)
+        newV.nextv = head.nextv;
+      if(newV.nextv != null) {
+        epoch.retire(newV);
+        if(truncateVersions)
+          newV.truncate(camera.truncationBound());
+      }
+      return true;
+    } else {
+      head = updater.get(obj);
+      head.initTS(camera);
+      return false;
+    }
+  }
+}
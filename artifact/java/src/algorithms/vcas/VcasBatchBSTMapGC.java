@@ -31,70 +31,185 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 */
 
 import algorithms.vcas.Camera;
+import algorithms.vcas.VcasAtomicReferenceFieldUpdater;
+import algorithms.vcas.Versioned;
+import main.support.Element;
 import main.support.Epoch;
-import main.support.Reclaimable;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
-// import algorithms.vcas.VcasAtomicReferenceFieldUpdater;
-
 public class VcasBatchBSTMapGC<K extends Comparable<? super K>, V> {
 
     private final int BATCHING_DEGREE;
-    public static final Epoch<Node> epoch = new Epoch();
+    // Reclamation domain for replaced versions, shared by every instance;
+    // replace it (e.g. with a LimboEpoch) before any tree of this class is created.
+    public static Epoch<Node> epoch = new Epoch<Node>();
+    // Camera used to stamp and snapshot this class of trees. Like epoch, it is
+    // shared by every instance and must be replaced before any tree is created.
+    public static Camera camera = Camera.camera;
+
+    // Snapshots taken by queries are announced both in the epoch, so that the
+    // versions they read are not reclaimed, and in the camera, so that they are
+    // not truncated. endSnapshot() must be called by the same thread.
+    private static long beginSnapshot() {
+        epoch.announce();
+        return camera.beginSnapshot();
+    }
+
+    private static void endSnapshot() {
+        camera.endSnapshot();
+        epoch.unannounce();
+    }
+
+    // Reads at a past timestamp ts are announced the same way, and are only
+    // correct if the camera's retention window kept the versions at ts until
+    // the read ended (see Camera.retain).
+    private static void beginSnapshotAt(final long ts) {
+        if (ts > camera.read()) throw new IllegalArgumentException("timestamp " + ts + " is in the future");
+        epoch.announce();
+        if (!camera.beginSnapshotAt(ts)) {
+            endSnapshot();
+            throw new IllegalArgumentException("timestamp " + ts + " is outside the retention window");
+        }
+    }
+
+    private static void endSnapshotAt(final long ts) {
+        boolean retained = camera.isRetained(ts);
+        endSnapshot();
+        if (!retained) throw new IllegalArgumentException("timestamp " + ts + " left the retention window during the read");
+    }
 
     public VcasBatchBSTMapGC(final int BATCHING_DEGREE) {
+        this(BATCHING_DEGREE, new LeafNode(0), 0);
+    }
+
+    // tree is the subtree holding all keys, left of the sentinels
+    private VcasBatchBSTMapGC(final int BATCHING_DEGREE, final Node tree, final long size) {
         this.BATCHING_DEGREE = BATCHING_DEGREE;
         System.out.println("BATCHING DEGREE: " + BATCHING_DEGREE);
-        root = new InternalNode(null, new InternalNode(null, new LeafNode(0), new LeafNode(0)), new LeafNode(0));
+        root = new InternalNode(null, new InternalNode(null, tree, new LeafNode(0)), new LeafNode(0));
+        sizeCounter = new SnapshotCounter(camera, size);
     }
 
-    public VcasBatchBSTMapGC() {
-        this(16);
-    }
+    /**
+        Builds a tree holding the given mappings in O(n) time, without going
+        through putIfAbsent: the keys are packed into leaves of BATCHING_DEGREE
+        keys and a balanced tree of internal nodes is built above them.
 
-    public static abstract class Node extends Reclaimable {
-        public volatile long ts;
-        private volatile Node nextv;
+        @param keys    the keys, in strictly increasing order
+        @param values  values[i] is the (non-null) value of keys[i]
+    */
+    public static <K extends Comparable<? super K>, V> VcasBatchBSTMapGC<K,V> bulkLoad(final int BATCHING_DEGREE, final K[] keys, final V[] values) {
+        if (keys.length != values.length) throw new IllegalArgumentException("keys and values differ in length");
+        BulkLoader loader = new BulkLoader(BATCHING_DEGREE);
+        for (int i = 0; i < keys.length; i++)
+            loader.add(keys[i], values[i]);
+        return new VcasBatchBSTMapGC<K,V>(BATCHING_DEGREE, loader.build(), loader.size);
+    }
 
-        public static final long TBD = -1;
-        public static final AtomicLongFieldUpdater<Node> tsUpdater = AtomicLongFieldUpdater.newUpdater(Node.class, "ts");
-        public static final AtomicReferenceFieldUpdater<Node, Node> nextvUpdater = AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "nextv");
-        public static final Node dummyNextv = new InternalNode(null, null, null);
+    /**
+        Like bulkLoad(BATCHING_DEGREE, keys, values), from a stream of mappings
+        in strictly increasing key order. Only the leaves are buffered.
+    */
+    public static <K extends Comparable<? super K>, V> VcasBatchBSTMapGC<K,V> bulkLoad(final int BATCHING_DEGREE, final Iterator<? extends Element<? extends K, ? extends V>> elements) {
+        BulkLoader loader = new BulkLoader(BATCHING_DEGREE);
+        while (elements.hasNext()) {
+            Element<? extends K, ? extends V> e = elements.next();
+            loader.add(e.key, e.value);
+        }
+        return new VcasBatchBSTMapGC<K,V>(BATCHING_DEGREE, loader.build(), loader.size);
+    }
 
-        public Node() {
-            this.nextv = dummyNextv;
-            this.ts = TBD;
+    private static final class BulkLoader {
+        private final int degree;
+        private final ArrayList<LeafNode> leaves = new ArrayList<LeafNode>();
+        private LeafNode leaf;   // leaf being filled
+        private int leafSize;
+        private Comparable last;
+        long size;
+
+        BulkLoader(final int degree) {
+            if (degree < 1) throw new IllegalArgumentException("BATCHING_DEGREE must be positive");
+            this.degree = degree;
         }
 
-        public void init() {
-            if(nextv == dummyNextv) {
-                initTS();
-                nextv = null;
+        void add(final Comparable key, final Object value) {
+            if (key == null || value == null) throw new IllegalArgumentException("null key or value");
+            if (last != null && last.compareTo(key) >= 0) throw new IllegalArgumentException("keys are not strictly increasing at " + key);
+            last = key;
+            if (leaf == null) {
+                leaf = new LeafNode(degree);
+                leafSize = 0;
+            }
+            leaf.keys[leafSize] = key;
+            leaf.values[leafSize] = value;
+            leafSize++;
+            size++;
+            if (leafSize == degree) {
+                leaves.add(leaf);
+                leaf = null;
             }
         }
 
-        public void initTS() {
-          if(ts == TBD) {
-            long curTS = Camera.getTimestamp();
-            tsUpdater.compareAndSet(this, TBD, curTS);
-          }
+        Node build() {
+            if (leaf != null) {
+                leaves.add(leaf.copyRange(0, leafSize));
+                leaf = null;
+            }
+            if (leaves.isEmpty()) return new LeafNode(0);
+            return balancedTree(leaves.toArray(new LeafNode[leaves.size()]), 0, leaves.size());
         }
+    }
 
-        public void reclaim() {
-            nextv = null;
+    // balanced tree over leaves [from, to); routing keys are the smallest keys of right subtrees
+    private static Node balancedTree(final LeafNode[] leaves, final int from, final int to) {
+        if (to - from == 1) return leaves[from];
+        int mid = (from + to) >>> 1;
+        return new InternalNode(leaves[mid].keys[0], balancedTree(leaves, from, mid), balancedTree(leaves, mid, to));
+    }
+
+    public VcasBatchBSTMapGC() {
+        this(16);
+    }
+
+    public static abstract class Node extends Versioned {
+        public Node() {
+            super();
         }
 
         public abstract Node copy();
+
+        // keeps what the camera's retention window and pins still read
+        @Override
+        public void reclaim() {
+            reclaim(camera);
+        }
     }
 
     public static final class LeafNode extends Node {
         public Comparable[] keys;
         public Object[] values;
+        private long valueSum;
+        private volatile boolean valueSumCached;
 
         LeafNode(final int size) {
             super();
@@ -115,6 +230,70 @@ public class VcasBatchBSTMapGC<K extends Comparable<? super K>, V> {
 
         public int getSize() { return keys.length; }
 
+        // copy with value as the value of key, which must be in this node
+        private final LeafNode replaceValue(final Comparable key, final Object value) {
+            LeafNode newNode = (LeafNode) copy();
+            newNode.values[lowerBound(key)] = value;
+            return newNode;
+        }
+
+        // copy holding the keys at indices [from, to)
+        private final LeafNode copyRange(final int from, final int to) {
+            LeafNode newNode = new LeafNode(to - from);
+            System.arraycopy(keys, from, newNode.keys, 0, to - from);
+            System.arraycopy(values, from, newNode.values, 0, to - from);
+            return newNode;
+        }
+
+        /**
+            Copies all keys of this node plus the keys newKeys[from..to) that are
+            not in it yet. newKeys must be sorted; of equal keys, the first wins.
+        */
+        private final LeafNode putAll(final Comparable[] newKeys, final Object[] newValues, final int from, final int to) {
+            int size = getSize();
+            LeafNode newNode = new LeafNode(size + to - from);
+            int i = 0, j = from, m = 0;
+            while (i < size || j < to) {
+                int c = (i == size) ? 1 : (j == to) ? -1 : keys[i].compareTo(newKeys[j]);
+                if (c < 0) {
+                    newNode.keys[m] = keys[i];
+                    newNode.values[m++] = values[i++];
+                } else if (c == 0 || (m > 0 && newNode.keys[m-1].compareTo(newKeys[j]) == 0)) {
+                    j++;   // already in the leaf, or a duplicate in newKeys
+                } else {
+                    newNode.keys[m] = newKeys[j];
+                    newNode.values[m++] = newValues[j++];
+                }
+            }
+            if (m < newNode.getSize()) {
+                newNode.keys = Arrays.copyOf(newNode.keys, m);
+                newNode.values = Arrays.copyOf(newNode.values, m);
+            }
+            return newNode;
+        }
+
+        /**
+            Copies all keys of this node except those in oldKeys[from..to), which
+            must be sorted. Returns this node itself if none of them is in it.
+        */
+        private final LeafNode removeAll(final Comparable[] oldKeys, final int from, final int to) {
+            int size = getSize();
+            Comparable[] newKeys = new Comparable[size];
+            Object[] newValues = new Object[size];
+            int j = from, m = 0;
+            for (int i = 0; i < size; i++) {
+                while (j < to && oldKeys[j].compareTo(keys[i]) < 0) j++;
+                if (j < to && oldKeys[j].compareTo(keys[i]) == 0) continue;
+                newKeys[m] = keys[i];
+                newValues[m++] = values[i];
+            }
+            if (m == size) return this;
+            LeafNode newNode = new LeafNode(0);
+            newNode.keys = Arrays.copyOf(newKeys, m);
+            newNode.values = Arrays.copyOf(newValues, m);
+            return newNode;
+        }
+
         final long getSum() { 
             long sum = 0;
             for(int i = 0; i < getSize(); i++)
@@ -122,6 +301,22 @@ public class VcasBatchBSTMapGC<K extends Comparable<? super K>, V> {
             return sum;
         }
 
+        // sum of all values as longs; computed on first use since leaves are immutable
+        final long getValueSum() {
+            if(!valueSumCached) {
+                valueSum = sumValues(0, getSize());
+                valueSumCached = true;
+            }
+            return valueSum;
+        }
+
+        final long sumValues(final int from, final int to) {
+            long sum = 0;
+            for(int i = from; i < to; i++)
+                sum += ((Number) values[i]).longValue();
+            return sum;
+        }
+
         private boolean isFull(int maxSize) {
             return (getSize() == maxSize);
         }
@@ -360,8 +555,8 @@ public class VcasBatchBSTMapGC<K extends Comparable<? super K>, V> {
         public volatile Node left, right;
         volatile Info info;
         
-        public static final AtomicReferenceFieldUpdater<InternalNode, Node> updateLeft = AtomicReferenceFieldUpdater.newUpdater(InternalNode.class, Node.class, "left");
-        public static final AtomicReferenceFieldUpdater<InternalNode, Node> updateRight = AtomicReferenceFieldUpdater.newUpdater(InternalNode.class, Node.class, "right");
+        public static final VcasAtomicReferenceFieldUpdater<InternalNode, Node> updateLeft = new VcasAtomicReferenceFieldUpdater<InternalNode, Node>(AtomicReferenceFieldUpdater.newUpdater(InternalNode.class, Node.class, "left"));
+        public static final VcasAtomicReferenceFieldUpdater<InternalNode, Node> updateRight = new VcasAtomicReferenceFieldUpdater<InternalNode, Node>(AtomicReferenceFieldUpdater.newUpdater(InternalNode.class, Node.class, "right"));
 
         public InternalNode(final Comparable key, final Node left, final Node right) {
             super();
@@ -369,104 +564,32 @@ public class VcasBatchBSTMapGC<K extends Comparable<? super K>, V> {
             this.left = left;
             this.right = right;
             this.info = null;
-            if(left != null) left.init();
-            if(right != null) right.init();
+            if(left != null) left.init(camera);
+            if(right != null) right.init(camera);
         }
 
         Node getLeft() {
-            Node head = left;
-            if(head == null) return null;
-            head.initTS();
-            return head;
+            return updateLeft.get(this, camera);
         }
 
         Node getRight() {
-            Node head = right;
-            if(head == null) return null;
-            head.initTS();
-            return head;
+            return updateRight.get(this, camera);
         }
 
         Node getLeft(long ts) {
-            Node node = left;
-            if(node == null) return null;
-            node.initTS();
-            //System.out.println("ts = " + ts + ", node.ts = " + node.getTS() + ", node.nextv = " + node.getNext());
-            while(node != null && node.ts > ts) {
-                //System.out.println("ts = " + ts + ", node.ts = " + node.getTS() + ", node.nextv = " + node.getNext());
-                node = node.nextv;
-            }
-            return node;
+            return updateLeft.get(this, ts, camera);
         }
 
         Node getRight(long ts) {
-            Node node = right;
-            if(node == null) return null;
-            node.initTS();
-            //System.out.println("ts = " + ts + ", node.ts = " + node.getTS() + ", node.nextv = " + node.getNext());
-            while(node != null && node.ts > ts) {
-                //System.out.println("ts = " + ts + ", node.ts = " + node.getTS() + ", node.nextv = " + node.getNext());
-                node = node.nextv;
-            }
-            return node;
+            return updateRight.get(this, ts, camera);
         }
 
         boolean compareAndSetLeft(final Node oldV, Node newV) {
-            Node head = left; // head cannot be null
-            if(head != null) {
-                head.initTS();
-                Node headNext = head.nextv;
-                if(headNext != null && head.ts == headNext.ts)
-                    head.nextv = headNext.nextv;
-            }
-            if(head != oldV) return false;
-            if(newV == oldV) return true;
-            nextvUpdater.compareAndSet(newV, dummyNextv, oldV);
-            // newV.nextv = oldV;
-            // newV.ts = TBD;
-            
-            if(updateLeft.compareAndSet(this, head, newV)) {
-                newV.initTS();
-                if(head != null && newV.ts == head.ts)
-                    newV.nextv = head.nextv;
-                if(newV.nextv != null) {
-                    epoch.retire(newV);
-                }
-                return true;
-            } else {
-                head = left;
-                head.initTS();
-                return false;
-            }
+            return updateLeft.compareAndSet(this, oldV, newV, camera, epoch);
         }
 
         boolean compareAndSetRight(final Node oldV, Node newV) {
-            Node head = right; // head cannot be null
-            if(head != null) {
-                head.initTS();
-                Node headNext = head.nextv;
-                if(headNext != null && head.ts == headNext.ts)
-                    head.nextv = headNext.nextv;
-            }
-            if(head != oldV) return false;
-            if(newV == oldV) return true;
-            nextvUpdater.compareAndSet(newV, dummyNextv, oldV);
-            // newV.nextv = oldV;
-            // newV.ts = TBD;
-            
-            if(updateRight.compareAndSet(this, head, newV)) {
-                newV.initTS();
-                if(head != null && newV.ts == head.ts)
-                    newV.nextv = head.nextv;
-                if(newV.nextv != null) {
-                    epoch.retire(newV);
-                }
-                return true;
-            } else {
-                head = right;
-                head.initTS();
-                return false;
-            }
+            return updateRight.compareAndSet(this, oldV, newV, camera, epoch);
         }
 
         public final boolean hasChild(final Node node) {
@@ -488,19 +611,30 @@ public class VcasBatchBSTMapGC<K extends Comparable<? super K>, V> {
     protected static abstract class Info {
     }
 
-    protected final static class DInfo extends Info {
+    protected final static class DInfo extends Info implements SnapshotCounter.Pending {
         final InternalNode p;
         final LeafNode l;
         final InternalNode gp;
         final Info pinfo;
-        final Comparable keyToDelete;
+        final LeafNode newLeaf; // l without the deleted keys, possibly empty
+        // node that replaces p in gp; chosen once so that every helper installs the same one
+        volatile Node replacement;
 
-        DInfo(final LeafNode leaf, final InternalNode parent, final InternalNode grandparent, final Info pinfo, final Comparable key) {
+        DInfo(final LeafNode leaf, final InternalNode parent, final InternalNode grandparent, final Info pinfo, final LeafNode newLeaf) {
             this.p = parent;
             this.l = leaf;
             this.gp = grandparent;
             this.pinfo = pinfo;
-            this.keyToDelete = key;
+            this.newLeaf = newLeaf;
+        }
+
+        public Versioned installed() {
+            return replacement;
+        }
+
+        Node replacement(final Node candidate) {
+            replacementUpdater.compareAndSet(this, null, candidate);
+            return replacement;
         }
     }
 
@@ -540,8 +674,12 @@ public class VcasBatchBSTMapGC<K extends Comparable<? super K>, V> {
     private static final AtomicReferenceFieldUpdater<InternalNode, Node> leftUpdater = AtomicReferenceFieldUpdater.newUpdater(InternalNode.class, Node.class, "left");
     private static final AtomicReferenceFieldUpdater<InternalNode, Node> rightUpdater = AtomicReferenceFieldUpdater.newUpdater(InternalNode.class, Node.class, "right");
     private static final AtomicReferenceFieldUpdater<InternalNode, Info> infoUpdater = AtomicReferenceFieldUpdater.newUpdater(InternalNode.class, Info.class, "info");
+    private static final AtomicReferenceFieldUpdater<DInfo, Node> replacementUpdater = AtomicReferenceFieldUpdater.newUpdater(DInfo.class, Node.class, "replacement");
 
     final InternalNode root;
+    // number of keys, readable at any snapshot; an insert counts from the
+    // installation of its newInternal, a delete from that of its replacement
+    private final SnapshotCounter sizeCounter;
 
 //--------------------------------------------------------------------------------
 // PUBLIC METHODS:
@@ -564,6 +702,15 @@ public class VcasBatchBSTMapGC<K extends Comparable<? super K>, V> {
         }
     }
 
+    private final V get(final K key, final long ts) {
+        InternalNode p = (InternalNode) root.getLeft(ts);
+        while(true) {
+            Node l = (p.key == null || key.compareTo((K) p.key) < 0) ? p.getLeft(ts) : p.getRight(ts);
+            if(l instanceof LeafNode) return (V) ((LeafNode)l).getValue(key);
+            p = (InternalNode) l;
+        }
+    }
+
     // /** PRECONDITION: k CANNOT BE NULL **/
     // public final V get(final K key) {
     //     if (key == null) throw new NullPointerException();
@@ -579,7 +726,6 @@ public class VcasBatchBSTMapGC<K extends Comparable<? super K>, V> {
     /** PRECONDITION: k CANNOT BE NULL **/
     public final V putIfAbsent(final K key, final V value){
         Node newInternal;
-        LeafNode newLeft, newRight;
 
         /** SEARCH VARIABLES **/
         InternalNode p;
@@ -612,26 +758,17 @@ public class VcasBatchBSTMapGC<K extends Comparable<? super K>, V> {
                 //if(counter > 1000) System.out.println("insert help1");
                 help(pinfo);
             } else {
-                if(!l.isFull(BATCHING_DEGREE)) {
-                    newInternal = l.put(key, value);
-                } else {
-                    if(l.shouldBePutLeft(key)) {
-                        newLeft = l.splitLeftAndPut(key, value);
-                        newRight = l.splitRight();
-                    } else {
-                        newLeft = l.splitLeft();
-                        newRight = l.splitRightAndPut(key, value);                        
-                    }
-                    newInternal = new InternalNode(newRight.keys[0], newLeft, newRight);
-                }
+                newInternal = insertInto(l, key, value);
 
                 final IInfo newPInfo = new IInfo(l, p, newInternal);
 
                 // try to IFlag parent
+                sizeCounter.add(newInternal, 1);
                 if (infoUpdater.compareAndSet(p, pinfo, newPInfo)) {
                     helpInsert(newPInfo);
                     return null;
                 } else {
+                    sizeCounter.abort();
                     // if fails, help the current operation
                     // [CHECK]
                     // need to get the latest p.info since CAS doesnt return current value
@@ -692,13 +829,16 @@ public class VcasBatchBSTMapGC<K extends Comparable<? super K>, V> {
             } else {
                 // try to DFlag grandparent
                 //if(counter > 1000) System.out.println("try dflag");
-                final DInfo newGPInfo = new DInfo(l, p, gp, pinfo, key);
+                final DInfo newGPInfo = new DInfo(l, p, gp, pinfo, l.remove(key));
 
+                sizeCounter.add(newGPInfo, -1);
                 if (infoUpdater.compareAndSet(gp, gpinfo, newGPInfo)) {
                     if (helpDelete(newGPInfo)) {
                         return ret;
                     }
+                    sizeCounter.abort();
                 } else {
+                    sizeCounter.abort();
                     // if fails, help grandparent with its latest info value
                     help(gp.info);
                 }
@@ -706,6 +846,325 @@ public class VcasBatchBSTMapGC<K extends Comparable<? super K>, V> {
         }
     }
 
+    // The subtree that replaces leaf l to insert key, which is not in l: a copy
+    // of l with key, or if l is full, its two halves under a new internal node.
+    private Node insertInto(final LeafNode l, final K key, final V value) {
+        if(!l.isFull(BATCHING_DEGREE))
+            return l.put(key, value);
+        LeafNode newLeft, newRight;
+        if(l.shouldBePutLeft(key)) {
+            newLeft = l.splitLeftAndPut(key, value);
+            newRight = l.splitRight();
+        } else {
+            newLeft = l.splitLeft();
+            newRight = l.splitRightAndPut(key, value);
+        }
+        return new InternalNode(newRight.keys[0], newLeft, newRight);
+    }
+
+    /**
+        The update family below works like the methods of java.util.Map with
+        the same names, and is linearizable: each call installs at most one
+        new leaf (or subtree, if an insertion splits a full leaf) with a
+        single vCAS, so a value is replaced without the key ever being absent
+        from a snapshot. Functions may be called more than once if the update
+        has to be retried, and a function returning null removes the mapping.
+        Keys and values cannot be null.
+    */
+
+    // @return the previous value of key, or null if there was none
+    public final V put(final K key, final V value) {
+        if (value == null) throw new NullPointerException();
+        return update(key, (k, old) -> value, false);
+    }
+
+    // replaces the value of key only if it has one; @return the previous value, or null
+    public final V replace(final K key, final V value) {
+        if (value == null) throw new NullPointerException();
+        return update(key, (k, old) -> old == null ? null : value, false);
+    }
+
+    // replaces the value of key only if it is oldValue; @return whether it was replaced
+    public final boolean replace(final K key, final V oldValue, final V newValue) {
+        if (oldValue == null || newValue == null) throw new NullPointerException();
+        return oldValue.equals(update(key, (k, old) -> oldValue.equals(old) ? newValue : old, false));
+    }
+
+    // removes key only if its value is value; @return whether it was removed
+    public final boolean remove(final K key, final V value) {
+        if (value == null) throw new NullPointerException();
+        return value.equals(update(key, (k, old) -> value.equals(old) ? null : old, false));
+    }
+
+    // @return the new value of key, or null if it has none
+    public final V compute(final K key, final BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return update(key, remappingFunction, true);
+    }
+
+    public final V computeIfAbsent(final K key, final Function<? super K, ? extends V> mappingFunction) {
+        return update(key, (k, old) -> old != null ? old : mappingFunction.apply(k), true);
+    }
+
+    public final V computeIfPresent(final K key, final BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return update(key, (k, old) -> old == null ? null : remappingFunction.apply(k, old), true);
+    }
+
+    // sets the value of key to value if it has none, and to remappingFunction(old, value) otherwise
+    public final V merge(final K key, final V value, final BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        if (value == null) throw new NullPointerException();
+        return update(key, (k, old) -> old == null ? value : remappingFunction.apply(old, value), true);
+    }
+
+    /**
+        Sets the value of key to fn(key, current value or null): replaces the
+        leaf holding key if both are non-null, inserts like putIfAbsent if there
+        is no current value, and deletes like remove if fn returns null. Nothing
+        is installed if fn returns the current value itself.
+
+        @return the new value if returnNew, the previous one otherwise
+    */
+    private V update(final K key, final BiFunction<? super K, ? super V, ? extends V> fn, final boolean returnNew) {
+        /** SEARCH VARIABLES **/
+        InternalNode gp;
+        Info gpinfo;
+        InternalNode p;
+        Info pinfo;
+        LeafNode l;
+        Node n;
+        /** END SEARCH VARIABLES **/
+
+        while (true) {
+            /** SEARCH **/
+            gp = null;
+            gpinfo = null;
+            p = root;
+            pinfo = p.info;
+            n = p.getLeft();
+            while(n instanceof InternalNode) {
+                gp = p;
+                p = (InternalNode) n;
+                n = (p.key == null || key.compareTo((K) p.key) < 0) ? p.getLeft() : p.getRight();
+            }
+            l = (LeafNode) n;
+
+            if (gp != null) {
+                gpinfo = gp.info;
+                if (p != gp.getLeft() && p != gp.getRight()) continue;
+                pinfo = p.info;
+                if (l != p.getLeft() && l != p.getRight()) continue;
+            }
+            /** END SEARCH **/
+
+            final V oldValue = (V) l.getValue(key);
+            final V newValue = fn.apply(key, oldValue);
+            if (newValue == oldValue) {
+                return oldValue;
+            }
+            if (newValue == null) {     // delete, as in remove()
+                if (!(gpinfo == null || gpinfo.getClass() == Clean.class)) {
+                    help(gpinfo);
+                } else if (!(pinfo == null || pinfo.getClass() == Clean.class)) {
+                    help(pinfo);
+                } else {
+                    final DInfo newGPInfo = new DInfo(l, p, gp, pinfo, l.remove(key));
+
+                    sizeCounter.add(newGPInfo, -1);
+                    if (infoUpdater.compareAndSet(gp, gpinfo, newGPInfo)) {
+                        if (helpDelete(newGPInfo)) {
+                            return returnNew ? null : oldValue;
+                        }
+                        sizeCounter.abort();
+                    } else {
+                        sizeCounter.abort();
+                        help(gp.info);
+                    }
+                }
+            } else {                    // insert or replace the value, as in putIfAbsent()
+                if (!(pinfo == null || pinfo.getClass() == Clean.class)) {
+                    help(pinfo);
+                    continue;
+                }
+                final Node newInternal = (oldValue == null) ? insertInto(l, key, newValue) : l.replaceValue(key, newValue);
+                final IInfo newPInfo = new IInfo(l, p, newInternal);
+
+                if (oldValue == null) sizeCounter.add(newInternal, 1);
+                if (infoUpdater.compareAndSet(p, pinfo, newPInfo)) {
+                    helpInsert(newPInfo);
+                    return returnNew ? newValue : oldValue;
+                } else {
+                    if (oldValue == null) sizeCounter.abort();
+                    help(p.info);
+                }
+            }
+        }
+    }
+
+    /**
+        Inserts the mappings whose keys are not in the tree yet, with the same
+        result as a putIfAbsent per key (of keys repeated in the batch, the
+        first wins). The keys are grouped by the leaf they belong to and each
+        group is installed with a single leaf copy (split into a balanced
+        subtree of leaves if it overflows) and a single IInfo, so each group
+        is inserted atomically; the batch as a whole is not.
+        <p>
+        Sorted keys are cheapest; others are sorted first.
+
+        @return the number of mappings inserted
+    */
+    public final int putAll(K[] keys, V[] values) {
+        if (keys.length != values.length) throw new IllegalArgumentException("keys and values differ in length");
+        if (!isSorted(keys)) {
+            Element<K,V>[] pairs = (Element<K,V>[]) Array.newInstance(Element.class, keys.length);
+            for (int i = 0; i < keys.length; i++)
+                pairs[i] = new Element<K,V>(keys[i], values[i]);
+            Arrays.sort(pairs, (x, y) -> x.key.compareTo(y.key));  // stable, so the first of equal keys stays first
+            keys = keys.clone();
+            values = values.clone();
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = pairs[i].key;
+                values[i] = pairs[i].value;
+            }
+        }
+        int inserted = 0;
+        int i = 0;
+        while (i < keys.length) {
+            final K key = keys[i];
+            /** SEARCH **/
+            InternalNode p = root;
+            Node n = p.getLeft();
+            Comparable upper = null;                    // keys of l are below upper (null: no bound)
+            while(n instanceof InternalNode) {
+                p = (InternalNode) n;
+                if (p.key == null || key.compareTo((K) p.key) < 0) {
+                    if (p.key != null) upper = p.key;
+                    n = p.getLeft();
+                } else {
+                    n = p.getRight();
+                }
+            }
+            final LeafNode l = (LeafNode) n;
+            final Info pinfo = p.info;
+            if (l != p.getLeft() && l != p.getRight()) continue;
+            /** END SEARCH **/
+
+            if (!(pinfo == null || pinfo.getClass() == Clean.class)) {
+                help(pinfo);
+                continue;
+            }
+            int end = i+1;
+            while (end < keys.length && (upper == null || keys[end].compareTo((K) upper) < 0)) end++;
+            final LeafNode merged = l.putAll(keys, values, i, end);
+            final int added = merged.getSize() - l.getSize();
+            if (added == 0) {   // all keys of the group are in the tree already
+                i = end;
+                continue;
+            }
+            final Node newInternal = (merged.getSize() <= BATCHING_DEGREE) ? merged : split(merged);
+            final IInfo newPInfo = new IInfo(l, p, newInternal);
+
+            sizeCounter.add(newInternal, added);
+            if (infoUpdater.compareAndSet(p, pinfo, newPInfo)) {
+                helpInsert(newPInfo);
+                inserted += added;
+                i = end;
+            } else {
+                sizeCounter.abort();
+                help(p.info);
+            }
+        }
+        return inserted;
+    }
+
+    /**
+        Removes the mappings of the given keys, with the same result as a
+        remove per key. Like putAll, keys are grouped by leaf and each group
+        is removed atomically with a single leaf copy and a single DInfo.
+
+        @return the number of mappings removed
+    */
+    public final int removeAll(K[] keys) {
+        if (!isSorted(keys)) {
+            keys = keys.clone();
+            Arrays.sort(keys);
+        }
+        int removed = 0;
+        int i = 0;
+        while (i < keys.length) {
+            final K key = keys[i];
+            /** SEARCH **/
+            InternalNode gp = null;
+            Info gpinfo = null;
+            InternalNode p = root;
+            Info pinfo = p.info;
+            Node n = p.getLeft();
+            Comparable upper = null;                    // keys of l are below upper (null: no bound)
+            while(n instanceof InternalNode) {
+                gp = p;
+                p = (InternalNode) n;
+                if (p.key == null || key.compareTo((K) p.key) < 0) {
+                    if (p.key != null) upper = p.key;
+                    n = p.getLeft();
+                } else {
+                    n = p.getRight();
+                }
+            }
+            final LeafNode l = (LeafNode) n;
+            if (gp != null) {
+                gpinfo = gp.info;
+                if (p != gp.getLeft() && p != gp.getRight()) continue;
+                pinfo = p.info;
+                if (l != p.getLeft() && l != p.getRight()) continue;
+            }
+            /** END SEARCH **/
+
+            int end = i+1;
+            while (end < keys.length && (upper == null || keys[end].compareTo((K) upper) < 0)) end++;
+            final LeafNode newLeaf = l.removeAll(keys, i, end);
+            final int count = l.getSize() - newLeaf.getSize();
+            if (count == 0) {   // none of the keys of the group is in the tree
+                i = end;
+                continue;
+            }
+            if (!(gpinfo == null || gpinfo.getClass() == Clean.class)) {
+                help(gpinfo);
+            } else if (!(pinfo == null || pinfo.getClass() == Clean.class)) {
+                help(pinfo);
+            } else {
+                final DInfo newGPInfo = new DInfo(l, p, gp, pinfo, newLeaf);
+
+                sizeCounter.add(newGPInfo, -count);
+                if (infoUpdater.compareAndSet(gp, gpinfo, newGPInfo)) {
+                    if (helpDelete(newGPInfo)) {
+                        removed += count;
+                        i = end;
+                        continue;
+                    }
+                    sizeCounter.abort();
+                } else {
+                    sizeCounter.abort();
+                    help(gp.info);
+                }
+            }
+        }
+        return removed;
+    }
+
+    private static boolean isSorted(final Comparable[] keys) {
+        for (int i = 1; i < keys.length; i++)
+            if (keys[i-1].compareTo(keys[i]) > 0) return false;
+        return true;
+    }
+
+    // splits a leaf with more than BATCHING_DEGREE keys into a balanced subtree of evenly filled leaves
+    private Node split(final LeafNode leaf) {
+        final int size = leaf.getSize();
+        final int count = (size + BATCHING_DEGREE - 1) / BATCHING_DEGREE;
+        LeafNode[] leaves = new LeafNode[count];
+        for (int t = 0; t < count; t++)
+            leaves[t] = leaf.copyRange((int) ((long) t*size/count), (int) ((long) (t+1)*size/count));
+        return balancedTree(leaves, 0, count);
+    }
+
 //--------------------------------------------------------------------------------
 // PRIVATE METHODS
 // - helpInsert
@@ -745,16 +1204,16 @@ public class VcasBatchBSTMapGC<K extends Comparable<? super K>, V> {
     }
 
     private void helpMarked(final DInfo info){
-        if(info.l.getSize() > 1 || info.l == ((InternalNode) root.getLeft()).getLeft()) {
+        if(info.newLeaf.getSize() > 0 || info.l == ((InternalNode) root.getLeft()).getLeft()) {
             Node newLeft, newRight;
             if(info.p.getLeft() == info.l) {
-                newLeft = info.l.remove(info.keyToDelete);
+                newLeft = info.newLeaf;
                 newRight = info.p.getRight();
             } else {
                 newLeft = info.p.getLeft();
-                newRight = info.l.remove(info.keyToDelete);
+                newRight = info.newLeaf;
             }
-            InternalNode newNode = new InternalNode(info.p.key, newLeft, newRight);
+            Node newNode = info.replacement(new InternalNode(info.p.key, newLeft, newRight));
             if(info.gp.getLeft() == info.p)
                 info.gp.compareAndSetLeft(info.p, newNode);
             else
@@ -796,7 +1255,7 @@ public class VcasBatchBSTMapGC<K extends Comparable<? super K>, V> {
     }
 
     private void helpFlagged(final DInfo info, final Node other) {
-        Node newOther = other.copy();
+        Node newOther = info.replacement(other.copy());
         if(info.gp.getLeft() == info.p) {
             info.gp.compareAndSetLeft(info.p, newOther);
         } else {
@@ -892,6 +1351,32 @@ public class VcasBatchBSTMapGC<K extends Comparable<? super K>, V> {
         }
     }
 
+    /**
+        Like scanHelper, but passes each mapping to visitor instead of buffering it.
+
+        @return false if visitor stopped the scan
+    */
+    private final boolean visitHelper(final Node node, final long ts, final K a, final K b, final boolean leftOpen, final boolean rightOpen, final BiPredicate<? super K, ? super V> visitor) {
+        if (node == null) return true;
+        if (node instanceof LeafNode) {    // node is a leaf
+            LeafNode l = (LeafNode) node;
+            int startIndex = leftOpen ? l.lowerBound(a) : 0;
+            int endIndex = rightOpen ? l.upperBound(b) : l.getSize()-1;
+            for (int i = startIndex; i <= endIndex; i++)
+                if (!visitor.test((K) l.keys[i], (V) l.values[i])) return false;
+            return true;
+        }
+        InternalNode n = (InternalNode) node;
+        if(!leftOpen && !rightOpen)
+            return visitHelper(n.getLeft(ts), ts, a, b, false, false, visitor) && visitHelper(n.getRight(ts), ts, a, b, false, false, visitor);
+        else if (n.key != null && a.compareTo((K) n.key) >= 0)           // node's key is below the lower limit of [a,b]
+            return visitHelper(n.getRight(ts), ts, a, b, leftOpen, rightOpen, visitor);
+        else if (n.key == null || b.compareTo((K) n.key) < 0)       // node's key is above the upper limit of [a,b]
+            return visitHelper(n.getLeft(ts), ts, a, b, leftOpen, rightOpen, visitor);
+        else
+            return visitHelper(n.getLeft(ts), ts, a, b, leftOpen, false, visitor) && visitHelper(n.getRight(ts), ts, a, b, false, rightOpen, visitor);
+    }
+
     /**
         Implements the RangeScan operation.
         <p>
@@ -906,46 +1391,1050 @@ public class VcasBatchBSTMapGC<K extends Comparable<? super K>, V> {
         @return   all values of mappings with keys in range [a,b]
     */
     public final Object[] rangeScan(final K a, final K b) {
-        epoch.announce();
-        long ts = Camera.takeSnapshot();
-        //System.out.println(ts);
-        // Get and initialize rangeScanResultHolder before the start of the tree traversal
-        RangeScanResultHolder rangeScanResultHolder = rangeScanResult.get();
-        rangeScanResultHolder.rsResult.clear();
-
-        // Start the tree traversal
-        scanHelper(root, ts, a, b, true, true, rangeScanResultHolder.rsResult);
-        epoch.unannounce();
-        // Get stack and its number of elements
-        Object[] stackArray = rangeScanResultHolder.rsResult.getStackArray();
-        int stackSize = rangeScanResultHolder.rsResult.getEffectiveSize();
-
-        // Make a copy of the stack and return it
-        Object[] returnArray = new Object[stackSize];
-        for (int i = 0; i < stackSize; i++)
-            returnArray[i] = stackArray[i];
+        long ts = beginSnapshot();
+        Object[] returnArray = rangeScan(a, b, ts);
+        endSnapshot();
         return returnArray;
     }
 
-    // public final long rangeSumHelper(Node node, long ts, final K a, final K b) {
-    //     if (node.getLeft(ts) == null) {    // node is a leaf
-    //         return node.sumValues(a, b);
-    //     }
-    //     else {
-    //         if (node.key != null && a.compareTo(node.key) >= 0)           // node's key is below the lower limit of [a,b]
-    //             return rangeSumHelper(node.getRight(ts), ts, a, b);
-    //         else if (node.key == null || b.compareTo(node.key) < 0)       // node's key is above the upper limit of [a,b]
-    //             return rangeSumHelper(node.getLeft(ts), ts, a, b);   // traverse its left subtree
-    //         else {
-    //             // node is in [a,b] - traverse both of its subtrees
-    //             return rangeSumHelper(node.getRight(ts), ts, a, b) + rangeSumHelper(node.getLeft(ts), ts, a, b);
-    //         }
-    //     }
-    // }
+    /**
+        Streaming RangeScan: passes the mappings with keys in [a,b] to visitor in
+        ascending key order, all at the same snapshot, without buffering them.
+        The scan stops as soon as visitor returns false.
+        <p>
+        Same preconditions as rangeScan(a, b).
 
-    // sum all values of keys between a and b
+        @return true if the whole range was visited, false if visitor stopped the scan
+    */
+    public final boolean rangeScan(final K a, final K b, final BiPredicate<? super K, ? super V> visitor) {
+        long ts = beginSnapshot();
+        boolean completed = visitHelper(root, ts, a, b, true, true, visitor);
+        endSnapshot();
+        return completed;
+    }
+
+    /**
+        The aggregating scans below fold the mappings with keys in [lo, hi]
+        that satisfy filter (all of them if filter is null) at a snapshot.
+        They are streaming scans (see rangeScan(a, b, visitor)) whose visitor,
+        a ScanFold, filters and folds each mapping as it is reached, so nothing
+        is materialized; filter and reduce's accumulator are shown the
+        mappings in key order through a single reused Element.
+    */
+
+    // @return accumulator(...accumulator(identity, e1)..., en) over the mappings e1..en taken
+    public final <R> R reduce(final K lo, final K hi, final Predicate<Element<K,V>> filter, final R identity, final BiFunction<R, ? super Element<K,V>, R> accumulator) {
+        long ts = beginSnapshot();
+        ScanFold<K,V,R> fold = fold(lo, hi, new ScanFold<K,V,R>(filter, identity, accumulator), ts);
+        endSnapshot();
+        return fold.result();
+    }
+
+    public final long count(final K lo, final K hi, final Predicate<Element<K,V>> filter) {
+        long ts = beginSnapshot();
+        ScanFold<K,V,Void> fold = fold(lo, hi, new ScanFold<K,V,Void>(ScanFold.COUNT, filter, null), ts);
+        endSnapshot();
+        return fold.total();
+    }
+
+    // @return the sum of f(value) over the mappings taken
+    public final long sum(final K lo, final K hi, final Predicate<Element<K,V>> filter, final ToLongFunction<? super V> f) {
+        long ts = beginSnapshot();
+        ScanFold<K,V,Void> fold = fold(lo, hi, new ScanFold<K,V,Void>(ScanFold.SUM, filter, f), ts);
+        endSnapshot();
+        return fold.total();
+    }
+
+    // @return the smallest f(value) over the mappings taken, or empty if none is
+    public final OptionalLong min(final K lo, final K hi, final Predicate<Element<K,V>> filter, final ToLongFunction<? super V> f) {
+        long ts = beginSnapshot();
+        ScanFold<K,V,Void> fold = fold(lo, hi, new ScanFold<K,V,Void>(ScanFold.MIN, filter, f), ts);
+        endSnapshot();
+        return fold.extreme();
+    }
+
+    public final OptionalLong max(final K lo, final K hi, final Predicate<Element<K,V>> filter, final ToLongFunction<? super V> f) {
+        long ts = beginSnapshot();
+        ScanFold<K,V,Void> fold = fold(lo, hi, new ScanFold<K,V,Void>(ScanFold.MAX, filter, f), ts);
+        endSnapshot();
+        return fold.extreme();
+    }
+
+    private final <R> ScanFold<K,V,R> fold(final K lo, final K hi, final ScanFold<K,V,R> fold, final long ts) {
+        visitHelper(root, ts, lo, hi, true, true, fold);
+        return fold;
+    }
+
+    /**
+        Writes the mappings of a snapshot of this tree to file in the format of
+        Checkpoint, one block per leaf in key order. Updates go on while it
+        runs; the snapshot only holds back the truncation of the versions it
+        reads. The file replaces any previous one at path only once complete.
+
+        @return the number of mappings written
+    */
+    public final long checkpoint(final Path file, final Checkpoint.Codec<? super K> keyCodec, final Checkpoint.Codec<? super V> valueCodec) throws IOException {
+        try (Snapshot snapshot = snapshot()) {
+            return snapshot.checkpoint(file, keyCodec, valueCodec);
+        }
+    }
+
+    /**
+        Rebuilds a tree from a file written by checkpoint() (of either vCAS
+        tree) with bulkLoad, so its leaves are full whatever they were when the
+        checkpoint was taken.
+    */
+    public static <K extends Comparable<? super K>, V> VcasBatchBSTMapGC<K,V> restore(final int BATCHING_DEGREE, final Path file, final Checkpoint.Codec<K> keyCodec, final Checkpoint.Codec<V> valueCodec) throws IOException {
+        try (Checkpoint.Reader<K,V> reader = Checkpoint.reader(file, keyCodec, valueCodec)) {
+            return bulkLoad(BATCHING_DEGREE, reader);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private final long checkpoint(final Path file, final Checkpoint.Codec<? super K> keyCodec, final Checkpoint.Codec<? super V> valueCodec, final long ts) throws IOException {
+        try (Checkpoint.Writer<K,V> writer = Checkpoint.writer(file, keyCodec, valueCodec)) {
+            checkpointHelper(root, ts, writer);
+            return writer.commit();
+        }
+    }
+
+    // writes the non-empty leaves below node at timestamp ts, in key order
+    private final void checkpointHelper(final Node node, final long ts, final Checkpoint.Writer<K,V> writer) throws IOException {
+        if (node == null) return;
+        if (node instanceof LeafNode) {
+            LeafNode l = (LeafNode) node;
+            if (l.getSize() > 0) writer.writeLeaf(l.keys, l.values, l.getSize());
+            return;
+        }
+        InternalNode n = (InternalNode) node;
+        checkpointHelper(n.getLeft(ts), ts, writer);
+        checkpointHelper(n.getRight(ts), ts, writer);
+    }
+
+    /**
+        Parallel RangeScan: splits the traversal of the versioned tree at a
+        single snapshot across the workers of pool and concatenates their
+        results in key order. The calling thread's announcements cover the
+        workers, since it waits for all of them before ending the snapshot.
+        <p>
+        Same preconditions as rangeScan(a, b).
+
+        @return all values of mappings with keys in range [a,b]
+    */
+    public final Object[] parallelRangeScan(final K a, final K b, final ForkJoinPool pool) {
+        long ts = beginSnapshot();
+        Object[] returnArray = parallelRangeScan(a, b, ts, pool);
+        endSnapshot();
+        return returnArray;
+    }
+
+    public final Object[] parallelRangeScan(final K a, final K b) {
+        return parallelRangeScan(a, b, ForkJoinPool.commonPool());
+    }
+
+    private final Object[] parallelRangeScan(final K a, final K b, final long ts, final ForkJoinPool pool) {
+        // fork down to about PARALLEL_SCAN_SLACK levels below one task per worker, for load balance
+        int splitDepth = 32 - Integer.numberOfLeadingZeros(pool.getParallelism()) + PARALLEL_SCAN_SLACK;
+        ArrayList<Object[]> chunks = pool.invoke(new ScanTask(root, ts, a, b, true, true, splitDepth));
+        int size = 0;
+        for (Object[] chunk : chunks)
+            size += chunk.length;
+        Object[] returnArray = new Object[size];
+        int offset = 0;
+        for (Object[] chunk : chunks) {
+            System.arraycopy(chunk, 0, returnArray, offset, chunk.length);
+            offset += chunk.length;
+        }
+        return returnArray;
+    }
+
+    private static final int PARALLEL_SCAN_SLACK = 4;
+
+    // compares key with the routing key of n, which is a K; the null key is above every key
+    @SuppressWarnings("unchecked")
+    private final int compareToKey(final K key, final InternalNode n) {
+        return n.key == null ? -1 : key.compareTo((K) n.key);
+    }
+
+    /**
+        Scans the subtree rooted at node like scanHelper. Down to depth levels of
+        subtrees that intersect [a,b] on both sides, the two subtrees are scanned
+        in parallel; the results are in-order lists of chunks, so merging two of
+        them never copies values.
+    */
+    private final class ScanTask extends RecursiveTask<ArrayList<Object[]>> {
+        private static final long serialVersionUID = 1L;
+        private final Node node;
+        private final long ts;
+        private final K a, b;
+        private final boolean leftOpen, rightOpen;
+        private final int depth;
+
+        ScanTask(final Node node, final long ts, final K a, final K b, final boolean leftOpen, final boolean rightOpen, final int depth) {
+            this.node = node;
+            this.ts = ts;
+            this.a = a;
+            this.b = b;
+            this.leftOpen = leftOpen;
+            this.rightOpen = rightOpen;
+            this.depth = depth;
+        }
+
+        @Override
+        protected ArrayList<Object[]> compute() {
+            Node node = this.node;
+            if (depth > 0) {
+                // skip the nodes where the range does not split, as scanHelper does
+                while (node instanceof InternalNode) {
+                    InternalNode n = (InternalNode) node;
+                    if ((leftOpen || rightOpen) && compareToKey(a, n) >= 0)
+                        node = n.getRight(ts);
+                    else if ((leftOpen || rightOpen) && compareToKey(b, n) < 0)
+                        node = n.getLeft(ts);
+                    else {
+                        ScanTask right = new ScanTask(n.getRight(ts), ts, a, b, false, rightOpen, depth-1);
+                        right.fork();
+                        ArrayList<Object[]> chunks = new ScanTask(n.getLeft(ts), ts, a, b, leftOpen, false, depth-1).compute();
+                        chunks.addAll(right.join());
+                        return chunks;
+                    }
+                }
+            }
+            ArrayList<Object[]> chunks = new ArrayList<Object[]>(1);
+            RangeScanResultHolder rangeScanResultHolder = rangeScanResult.get();
+            rangeScanResultHolder.rsResult.clear();
+            scanHelper(node, ts, a, b, leftOpen, rightOpen, rangeScanResultHolder.rsResult);
+            int size = rangeScanResultHolder.rsResult.getEffectiveSize();
+            if (size > 0) {
+                Object[] chunk = new Object[size];
+                System.arraycopy(rangeScanResultHolder.rsResult.getStackArray(), 0, chunk, 0, size);
+                chunks.add(chunk);
+            }
+            return chunks;
+        }
+    }
+
+    /**
+        Pull-style RangeScan: a Cursor over the mappings with keys in [a,b] at a
+        snapshot taken now. The cursor keeps the current thread announced until
+        it is closed, so it must be used and closed by the thread that opened it.
+    */
+    public final Cursor cursor(final K a, final K b) {
+        return new Cursor(a, b, beginSnapshot(), null);
+    }
+
+    private final Object[] rangeScan(final K a, final K b, final long ts) {
+        //System.out.println(ts);
+        // Get and initialize rangeScanResultHolder before the start of the tree traversal
+        RangeScanResultHolder rangeScanResultHolder = rangeScanResult.get();
+        rangeScanResultHolder.rsResult.clear();
+
+        // Start the tree traversal
+        scanHelper(root, ts, a, b, true, true, rangeScanResultHolder.rsResult);
+        // Get stack and its number of elements
+        Object[] stackArray = rangeScanResultHolder.rsResult.getStackArray();
+        int stackSize = rangeScanResultHolder.rsResult.getEffectiveSize();
+
+        // Make a copy of the stack and return it
+        Object[] returnArray = new Object[stackSize];
+        for (int i = 0; i < stackSize; i++)
+            returnArray[i] = stackArray[i];
+        return returnArray;
+    }
+
+    // returns number of successors found at subtree rooted at node; they are stored in elements,
+    // reusing the Elements already there, or if elements is null, in keys and values (unless null)
+    private final int successorsHelper(final Node node, final long ts, final K key, final int numSuccessors, final Element<K,V>[] elements, final Object[] keys, final Object[] values, final int index) {
+        if (node == null) return index;
+        if (node instanceof LeafNode) {    // node is a leaf
+            LeafNode n = (LeafNode) node;
+            int nodeIndex = n.lowerBound(key);
+            int arrayIndex = index;
+            while(nodeIndex < n.getSize() && arrayIndex < numSuccessors) {
+                if (elements == null) {
+                    keys[arrayIndex] = n.keys[nodeIndex];
+                    if (values != null) values[arrayIndex] = n.values[nodeIndex];
+                } else if (elements[arrayIndex] == null) {
+                    elements[arrayIndex] = new Element<K, V>((K) n.keys[nodeIndex], (V) n.values[nodeIndex]);
+                } else {
+                    elements[arrayIndex].set((K) n.keys[nodeIndex], (V) n.values[nodeIndex]);
+                }
+                nodeIndex++;
+                arrayIndex++;
+            }
+            return arrayIndex;
+        }
+        else {
+            InternalNode n = (InternalNode) node;
+            if (n.key != null && key.compareTo((K) n.key) >= 0)
+                return successorsHelper(n.getRight(ts), ts, key, numSuccessors, elements, keys, values, index);  // traverse its right subtree
+            else {
+                int newIndex = successorsHelper(n.getLeft(ts), ts, key, numSuccessors, elements, keys, values, index);  // traverse its left subtree
+                if(newIndex < numSuccessors)
+                    newIndex = successorsHelper(n.getRight(ts), ts, key, numSuccessors, elements, keys, values, newIndex);   // traverse its right subtree
+                return newIndex;
+            }
+        }
+    }
+
+    private final Element<K,V>[] successors(final K key, int numSuccessors, final long ts) {
+        Element<K,V>[] elements = (Element<K,V>[]) Array.newInstance(Element.class, numSuccessors);
+        int size = successorsHelper(root, ts, key, numSuccessors, elements, null, null, 0);
+        Element<K,V>[] returnArray = (Element<K,V>[]) Array.newInstance(Element.class, size);
+        for(int i = 0; i < size; i++)
+            returnArray[i] = elements[i];
+        return returnArray;
+    }
+
+    /**
+        @param key 
+        @param numSuccessors 
+        @return The first 'numSuccessors' key-value pairs that compare greater than or equal to 'key'
+    */
+    public final Element<K,V>[] successors(final K key, int numSuccessors) {
+        if(key == null) return null;
+        long ts = beginSnapshot();
+        Element<K,V>[] returnArray = successors(key, numSuccessors, ts);
+        endSnapshot();
+        return returnArray;
+    }
+
+    /**
+        Allocation-free successors: stores the first keys.length keys that
+        compare greater than or equal to 'key' in keys, and their values in
+        values unless it is null.
+
+        @return the number of keys stored, 0 if key is null
+    */
+    public final int successors(final K key, final K[] keys, final V[] values) {
+        if(key == null) return 0;
+        if(values != null && values.length < keys.length) throw new IllegalArgumentException("values is shorter than keys");
+        long ts = beginSnapshot();
+        int size = successorsHelper(root, ts, key, keys.length, null, keys, values, 0);
+        endSnapshot();
+        return size;
+    }
+
+    /**
+        Stores the first buffer.length key-value pairs that compare greater
+        than or equal to 'key' in buffer, reusing the Elements already in it,
+        so a buffer that is used again allocates nothing.
+
+        @return the number of pairs stored, 0 if key is null
+    */
+    public final int successors(final K key, final Element<K,V>[] buffer) {
+        if(key == null) return 0;
+        long ts = beginSnapshot();
+        int size = successorsHelper(root, ts, key, buffer.length, buffer, null, null, 0);
+        endSnapshot();
+        return size;
+    }
+
+    /**
+        @param lo
+        @param hi
+        @param p
+        @return returns the first key-value pair in the range [lo, hi] that statisfies p
+    */
+    public Element<K,V> findIf(K lo, K hi, Predicate<Element<K,V>> p) {
+        long ts = beginSnapshot();
+        Element<K,V> e = new Element<K,V>();
+        boolean found = findIfHelper(root, ts, lo, hi, p, e);
+        endSnapshot();
+        return found ? e : null;
+    }
+
+    /**
+        Like findIf(lo, hi, p), but stores the pair found in result (which is
+        also the Element p is tested on) instead of allocating one.
+
+        @return whether a pair in [lo, hi] satisfies p
+    */
+    public final boolean findIf(final K lo, final K hi, final Predicate<Element<K,V>> p, final Element<K,V> result) {
+        long ts = beginSnapshot();
+        boolean found = findIfHelper(root, ts, lo, hi, p, result);
+        endSnapshot();
+        return found;
+    }
+
+    // returns number of predecessors found at subtree rooted at node, in descending key order
+    private final int predecessorsHelper(final Node node, final long ts, final K key, final int numPredecessors, Element<K,V>[] elements, final int index) {
+        if (node == null) return index;
+        if (node instanceof LeafNode) {    // node is a leaf
+            LeafNode n = (LeafNode) node;
+            int nodeIndex = n.upperBound(key);
+            int arrayIndex = index;
+            while(nodeIndex >= 0 && arrayIndex < numPredecessors) {
+                elements[arrayIndex] = new Element<K, V>((K) n.keys[nodeIndex], (V) n.values[nodeIndex]);
+                nodeIndex--;
+                arrayIndex++;
+            }
+            return arrayIndex;
+        }
+        else {
+            InternalNode n = (InternalNode) node;
+            if (n.key == null || key.compareTo((K) n.key) < 0)
+                return predecessorsHelper(n.getLeft(ts), ts, key, numPredecessors, elements, index);  // traverse its left subtree
+            else {
+                int newIndex = predecessorsHelper(n.getRight(ts), ts, key, numPredecessors, elements, index);  // traverse its right subtree
+                if(newIndex < numPredecessors)
+                    newIndex = predecessorsHelper(n.getLeft(ts), ts, key, numPredecessors, elements, newIndex);   // traverse its left subtree
+                return newIndex;
+            }
+        }
+    }
+
+    /**
+        @param key
+        @param numPredecessors
+        @return The last 'numPredecessors' key-value pairs that compare less than or equal to 'key',
+                in descending key order
+    */
+    public final Element<K,V>[] predecessors(final K key, int numPredecessors) {
+        if(key == null) return null;
+        long ts = beginSnapshot();
+        Element<K,V>[] returnArray = predecessors(key, numPredecessors, ts);
+        endSnapshot();
+        return returnArray;
+    }
+
+    private final Element<K,V>[] predecessors(final K key, int numPredecessors, final long ts) {
+        Element<K,V>[] elements = (Element<K,V>[]) Array.newInstance(Element.class, numPredecessors);
+        int size = predecessorsHelper(root, ts, key, numPredecessors, elements, 0);
+        Element<K,V>[] returnArray = (Element<K,V>[]) Array.newInstance(Element.class, size);
+        for(int i = 0; i < size; i++)
+            returnArray[i] = elements[i];
+        return returnArray;
+    }
+
+    // the pair with the smallest key in the subtree rooted at node, or null if it has no keys
+    private final Element<K,V> firstHelper(final Node node, final long ts) {
+        if (node == null) return null;
+        if (node instanceof LeafNode) {
+            LeafNode n = (LeafNode) node;
+            return n.getSize() == 0 ? null : new Element<K, V>((K) n.keys[0], (V) n.values[0]);
+        }
+        InternalNode n = (InternalNode) node;
+        Element<K,V> e = firstHelper(n.getLeft(ts), ts);   // only empty leaves make this go back up
+        return e != null ? e : firstHelper(n.getRight(ts), ts);
+    }
+
+    // the pair with the largest key in the subtree rooted at node, or null if it has no keys
+    private final Element<K,V> lastHelper(final Node node, final long ts) {
+        if (node == null) return null;
+        if (node instanceof LeafNode) {
+            LeafNode n = (LeafNode) node;
+            int size = n.getSize();
+            return size == 0 ? null : new Element<K, V>((K) n.keys[size-1], (V) n.values[size-1]);
+        }
+        InternalNode n = (InternalNode) node;
+        Element<K,V> e = lastHelper(n.getRight(ts), ts);
+        return e != null ? e : lastHelper(n.getLeft(ts), ts);
+    }
+
+    // @return the key-value pair with the smallest key, or null if the tree is empty
+    public final Element<K,V> firstEntry() {
+        long ts = beginSnapshot();
+        Element<K,V> e = firstHelper(root, ts);
+        endSnapshot();
+        return e;
+    }
+
+    // @return the key-value pair with the largest key, or null if the tree is empty
+    public final Element<K,V> lastEntry() {
+        long ts = beginSnapshot();
+        Element<K,V> e = lastHelper(root, ts);
+        endSnapshot();
+        return e;
+    }
+
+    /**
+        A ConcurrentNavigableMap view of this tree, whose multi-key queries and
+        iterators run on snapshots (see VcasNavigableMap).
+    */
+    public final ConcurrentNavigableMap<K,V> asNavigableMap() {
+        return new VcasNavigableMap<K,V>(new NavigableTree());
+    }
+
+    /**
+        Returns a view of this tree whose putIfAbsent and remove are recorded
+        in log (see DurableMap). Updates made on the tree directly are not.
+    */
+    public final DurableMap<K,V> withLog(final WriteAheadLog<K,V> log) {
+        return new DurableMap<K,V>(new NavigableTree(), log);
+    }
+
+    private final class NavigableTree implements VcasNavigableMap.Tree<K,V> {
+        public V get(final K key) { return VcasBatchBSTMapGC.this.get(key); }
+        public V put(final K key, final V value) { return VcasBatchBSTMapGC.this.put(key, value); }
+        public V putIfAbsent(final K key, final V value) { return VcasBatchBSTMapGC.this.putIfAbsent(key, value); }
+        public V remove(final K key) { return VcasBatchBSTMapGC.this.remove(key); }
+        public boolean remove(final K key, final V value) { return VcasBatchBSTMapGC.this.remove(key, value); }
+        public V replace(final K key, final V value) { return VcasBatchBSTMapGC.this.replace(key, value); }
+        public boolean replace(final K key, final V oldValue, final V newValue) { return VcasBatchBSTMapGC.this.replace(key, oldValue, newValue); }
+        public V compute(final K key, final BiFunction<? super K, ? super V, ? extends V> fn) { return VcasBatchBSTMapGC.this.compute(key, fn); }
+        public V computeIfAbsent(final K key, final Function<? super K, ? extends V> fn) { return VcasBatchBSTMapGC.this.computeIfAbsent(key, fn); }
+        public V computeIfPresent(final K key, final BiFunction<? super K, ? super V, ? extends V> fn) { return VcasBatchBSTMapGC.this.computeIfPresent(key, fn); }
+        public V merge(final K key, final V value, final BiFunction<? super V, ? super V, ? extends V> fn) { return VcasBatchBSTMapGC.this.merge(key, value, fn); }
+        public int size() { return VcasBatchBSTMapGC.this.size(); }
+
+        public long beginSnapshot() { return VcasBatchBSTMapGC.beginSnapshot(); }
+        public void endSnapshot() { VcasBatchBSTMapGC.endSnapshot(); }
+        public Element<K,V> first(final long ts) { return firstHelper(root, ts); }
+        public Element<K,V> last(final long ts) { return lastHelper(root, ts); }
+        public Element<K,V>[] successors(final K key, final int numSuccessors, final long ts) { return VcasBatchBSTMapGC.this.successors(key, numSuccessors, ts); }
+        public Element<K,V>[] predecessors(final K key, final int numPredecessors, final long ts) { return VcasBatchBSTMapGC.this.predecessors(key, numPredecessors, ts); }
+        public boolean visit(final K a, final K b, final long ts, final BiPredicate<? super K, ? super V> visitor) { return visitHelper(root, ts, a, b, true, true, visitor); }
+        public long timestamp() { return camera.read(); }
+        public long checkpoint(final Path file, final Checkpoint.Codec<? super K> keyCodec, final Checkpoint.Codec<? super V> valueCodec, final long ts) throws IOException { return VcasBatchBSTMapGC.this.checkpoint(file, keyCodec, valueCodec, ts); }
+    }
+
+    /**
+        Looks all keys up with a single descent of the tree at timestamp ts: the
+        sorted keys are partitioned at each internal node, and all keys that
+        reach the same leaf are answered in one merge pass over it. Unsorted
+        keys are sorted on a copy first, and the answers are then found by
+        binary search in it.
+    */
+    private final Object[] multiSearch(final K[] keys, final long ts) {
+        int numKeys = keys.length;
+        Object[] returnArray = new Object[numKeys];
+        if(isSorted(keys)) {
+            multiSearchHelper(root, ts, keys, 0, numKeys, returnArray);
+            return returnArray;
+        }
+        Comparable[] sortedKeys = keys.clone();
+        Arrays.sort(sortedKeys);
+        Object[] sortedValues = new Object[numKeys];
+        multiSearchHelper(root, ts, sortedKeys, 0, numKeys, sortedValues);
+        for(int i = 0; i < numKeys; i++)
+            returnArray[i] = sortedValues[Arrays.binarySearch(sortedKeys, keys[i])];
+        return returnArray;
+    }
+
+    // answers keys[from..to), which are sorted, from the subtree rooted at node
+    private final void multiSearchHelper(final Node node, final long ts, final Comparable[] keys, final int from, final int to, final Object[] values) {
+        if(from == to || node == null) return;
+        if(node instanceof LeafNode) {
+            LeafNode l = (LeafNode) node;
+            int i = 0, size = l.getSize();
+            for(int j = from; j < to; j++) {
+                while(i < size && l.keys[i].compareTo(keys[j]) < 0) i++;
+                if(i < size && l.keys[i].compareTo(keys[j]) == 0) values[j] = l.values[i];
+            }
+            return;
+        }
+        InternalNode n = (InternalNode) node;
+        int split = to;                 // first of keys[from..to) that goes right
+        if(n.key != null) {
+            int a = from, b = to;
+            while(a < b) {
+                int mid = (a+b) >>> 1;
+                if(keys[mid].compareTo(n.key) < 0) a = mid+1;
+                else b = mid;
+            }
+            split = a;
+        }
+        multiSearchHelper(n.getLeft(ts), ts, keys, from, split, values);
+        multiSearchHelper(n.getRight(ts), ts, keys, split, to, values);
+    }
+
+    /**
+        @param keys
+        @return An array of values corresponding to the keys in 'keys'. If a key does not appear
+                in the tree, then the corresponding array entry is null.
+    */
+    public final Object[] multiSearch(final K[] keys) {
+        if(keys == null) return null;
+        long ts = beginSnapshot();
+        Object[] returnArray = multiSearch(keys, ts);
+        endSnapshot();
+        return returnArray;
+    }
+
+    // stores the first pair of the subtree in [a,b] that satisfies p in e, which p is tested on
+    private boolean findIfHelper(Node node, long ts, K a, K b, Predicate<Element<K,V>> p, Element<K,V> e) {
+        if(node == null) return false;
+        if(node instanceof LeafNode) {
+            LeafNode n = (LeafNode) node;
+            int startIndex = n.lowerBound(a);
+            for(int i = startIndex; i < n.getSize() && n.keys[i].compareTo(b) <= 0; i++) {
+                e.set((K) n.keys[i], (V) n.values[i]);
+                if(p.test(e)) return true;
+            }
+            return false;
+        } else {
+            InternalNode n = (InternalNode) node;
+            if (n.key != null && a.compareTo((K) n.key) >= 0)           // node's key is below the lower limit of [a,b]
+                return findIfHelper(n.getRight(ts), ts, a, b, p, e);  // traverse its right subtree
+            else if (n.key == null || b.compareTo((K) n.key) < 0)       // node's key is above the upper limit of [a,b]
+                return findIfHelper(n.getLeft(ts), ts, a, b, p, e);   // traverse its left subtree
+            else {
+                // node is in [a,b] - traverse both of its subtrees
+                return findIfHelper(n.getLeft(ts), ts, a, b, p, e) || findIfHelper(n.getRight(ts), ts, a, b, p, e);
+            }
+        }
+    }
+
+    /**
+        The *At queries read the tree as it was at timestamp ts of its camera,
+        such as an earlier Snapshot.timestamp() or camera.timestampAgo(30,
+        TimeUnit.SECONDS), without keeping a snapshot open in the meantime.
+
+        @throws IllegalArgumentException if ts is in the future, or older than
+                what the camera's retention window (Camera.retain) keeps
+    */
+    public final V getAt(final K key, final long ts) {
+        beginSnapshotAt(ts);
+        V value = get(key, ts);
+        endSnapshotAt(ts);
+        return value;
+    }
+
+    public final Object[] rangeScanAt(final K a, final K b, final long ts) {
+        beginSnapshotAt(ts);
+        Object[] result = rangeScan(a, b, ts);
+        endSnapshotAt(ts);
+        return result;
+    }
+
+    public final Element<K,V>[] successorsAt(final K key, final int numSuccessors, final long ts) {
+        beginSnapshotAt(ts);
+        Element<K,V>[] result = successors(key, numSuccessors, ts);
+        endSnapshotAt(ts);
+        return result;
+    }
+
+    /**
+        Reports how the mappings with keys in [lo, hi] changed between the past
+        timestamps t1 <= t2 (see ChangeVisitor), in key order. Both timestamps
+        must be retained (Camera.retain or Camera.pin). The two versions of
+        the tree are walked together: a leaf reached at both timestamps is
+        immutable and is skipped without looking at its keys, and internal
+        nodes with the same key are compared child by child even if an update
+        or a rotation copied them. Every internal node over the range is still
+        read at both timestamps, so a diff costs O(internal nodes in [lo, hi])
+        plus the mappings of the leaves that changed; what it saves over two
+        range scans is reading the mappings of the unchanged leaves.
+
+        @return false if visitor stopped the diff
+        @throws IllegalArgumentException if t1 > t2 or a timestamp is not retained
+    */
+    public final boolean diff(final K lo, final K hi, final long t1, final long t2, final ChangeVisitor<? super K, ? super V> visitor) {
+        if (t1 > t2) throw new IllegalArgumentException("t1 > t2");
+        beginSnapshotAt(t2);
+        try {
+            beginSnapshotAt(t1);
+            try {
+                return diffHelper(root, root, t1, t2, lo, hi, true, true, visitor);
+            } finally {
+                endSnapshotAt(t1);
+            }
+        } finally {
+            endSnapshotAt(t2);
+        }
+    }
+
+    /**
+        Opens a stream of the changes to the mappings with keys in [lo, hi]
+        from now on, to be polled by any thread (see ChangeStream).
+    */
+    public final ChangeStream<K,V> changes(final K lo, final K hi) {
+        return new ChangeStream<K,V>(this::diff, camera, lo, hi);
+    }
+
+    /**
+        Has watcher notify listener of the changes to the mappings with keys
+        in [lo, hi] from now on, in batches (see RangeWatcher).
+    */
+    public final RangeWatcher.Subscription<K,V> watch(final K lo, final K hi, final RangeWatcher watcher, final RangeWatcher.Listener<K,V> listener) {
+        return watcher.watch(changes(lo, hi), listener);
+    }
+
+    // n1 is reached at t1 and n2 at t2 through the same nodes, so both cover the same keys
+    private final boolean diffHelper(final Node n1, final Node n2, final long t1, final long t2, final K a, final K b, final boolean leftOpen, final boolean rightOpen, final ChangeVisitor<? super K, ? super V> visitor) {
+        if (n1 == n2 && (n1 == null || n1 instanceof LeafNode)) return true;
+        if (n1 instanceof InternalNode && n2 instanceof InternalNode && sameKey(((InternalNode) n1).key, ((InternalNode) n2).key)) {
+            // the same node, or a copy of it made by an update or a rotation: both
+            // split their keys the same way, so their children are compared pairwise
+            final InternalNode i1 = (InternalNode) n1, i2 = (InternalNode) n2;
+            final Object key = i1.key;
+            if (!leftOpen && !rightOpen)
+                return diffHelper(i1.getLeft(t1), i2.getLeft(t2), t1, t2, a, b, false, false, visitor) && diffHelper(i1.getRight(t1), i2.getRight(t2), t1, t2, a, b, false, false, visitor);
+            else if (key != null && a.compareTo((K) key) >= 0)     // node's key is below the lower limit of [a,b]
+                return diffHelper(i1.getRight(t1), i2.getRight(t2), t1, t2, a, b, leftOpen, rightOpen, visitor);
+            else if (key == null || b.compareTo((K) key) < 0)      // node's key is above the upper limit of [a,b]
+                return diffHelper(i1.getLeft(t1), i2.getLeft(t2), t1, t2, a, b, leftOpen, rightOpen, visitor);
+            else
+                return diffHelper(i1.getLeft(t1), i2.getLeft(t2), t1, t2, a, b, leftOpen, false, visitor) && diffHelper(i1.getRight(t1), i2.getRight(t2), t1, t2, a, b, false, rightOpen, visitor);
+        }
+        // the subtrees split their keys differently: merge the mappings of both versions
+        final ArrayList<Object> keys1 = new ArrayList<Object>(), values1 = new ArrayList<Object>();
+        final ArrayList<Object> keys2 = new ArrayList<Object>(), values2 = new ArrayList<Object>();
+        visitHelper(n1, t1, a, b, leftOpen, rightOpen, (k, v) -> { keys1.add(k); values1.add(v); return true; });
+        visitHelper(n2, t2, a, b, leftOpen, rightOpen, (k, v) -> { keys2.add(k); values2.add(v); return true; });
+        int i = 0, j = 0;
+        while (i < keys1.size() || j < keys2.size()) {
+            int c = (i == keys1.size()) ? 1 : (j == keys2.size()) ? -1 : ((K) keys1.get(i)).compareTo((K) keys2.get(j));
+            if (c < 0) {
+                if (!visitor.visit((K) keys1.get(i), (V) values1.get(i), null)) return false;
+                i++;
+            } else if (c > 0) {
+                if (!visitor.visit((K) keys2.get(j), null, (V) values2.get(j))) return false;
+                j++;
+            } else {
+                Object v1 = values1.get(i), v2 = values2.get(j);
+                if (v1 != v2 && !v1.equals(v2) && !visitor.visit((K) keys1.get(i), (V) v1, (V) v2)) return false;
+                i++;
+                j++;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameKey(final Object k1, final Object k2) {
+        return k1 == k2 || (k1 != null && k2 != null && ((Comparable<Object>) k1).compareTo(k2) == 0);
+    }
+
+    /**
+        Takes a snapshot of the tree that can be queried any number of times.
+        The snapshot keeps the current thread announced in the epoch until it
+        is closed, so it must be used and closed by the thread that took it,
+        preferably with try-with-resources.
+
+        @return a handle whose queries all run at the same timestamp
+    */
+    public final Snapshot snapshot() {
+        return new Snapshot(beginSnapshot());
+    }
+
+    /**
+        A fixed timestamp of the tree. All queries on a Snapshot observe the
+        tree as it was when the snapshot was taken, so results of different
+        queries are mutually consistent.
+    */
+    public final class Snapshot implements AutoCloseable {
+        private final long ts;
+        private boolean closed;
+
+        private Snapshot(final long ts) {
+            this.ts = ts;
+        }
+
+        public long timestamp() {
+            return ts;
+        }
+
+        public V get(final K key) {
+            checkOpen();
+            return VcasBatchBSTMapGC.this.get(key, ts);
+        }
+
+        public boolean containsKey(final K key) {
+            return get(key) != null;
+        }
+
+        public Object[] rangeScan(final K a, final K b) {
+            checkOpen();
+            return VcasBatchBSTMapGC.this.rangeScan(a, b, ts);
+        }
+
+        public long rangeSum(final K a, final K b) {
+            checkOpen();
+            return aggregate(root, ts, a, b, true, true, false);
+        }
+
+        public int rangeCount(final K a, final K b) {
+            checkOpen();
+            return (int) aggregate(root, ts, a, b, true, true, true);
+        }
+
+        public int size() {
+            checkOpen();
+            return (int) sizeCounter.get(ts);
+        }
+
+        /**
+            @return The first 'numSuccessors' key-value pairs that compare greater than or equal to 'key'
+        */
+        public Element<K,V>[] successors(final K key, final int numSuccessors) {
+            checkOpen();
+            if(key == null) return null;
+            return VcasBatchBSTMapGC.this.successors(key, numSuccessors, ts);
+        }
+
+        public int successors(final K key, final K[] keys, final V[] values) {
+            checkOpen();
+            if(key == null) return 0;
+            if(values != null && values.length < keys.length) throw new IllegalArgumentException("values is shorter than keys");
+            return successorsHelper(root, ts, key, keys.length, null, keys, values, 0);
+        }
+
+        public int successors(final K key, final Element<K,V>[] buffer) {
+            checkOpen();
+            if(key == null) return 0;
+            return successorsHelper(root, ts, key, buffer.length, buffer, null, null, 0);
+        }
+
+        /**
+            @return the first key-value pair in the range [lo, hi] that statisfies p
+        */
+        public Element<K,V> findIf(final K lo, final K hi, final Predicate<Element<K,V>> p) {
+            checkOpen();
+            Element<K,V> e = new Element<K,V>();
+            return findIfHelper(root, ts, lo, hi, p, e) ? e : null;
+        }
+
+        public boolean findIf(final K lo, final K hi, final Predicate<Element<K,V>> p, final Element<K,V> result) {
+            checkOpen();
+            return findIfHelper(root, ts, lo, hi, p, result);
+        }
+
+        /**
+            @return The last 'numPredecessors' key-value pairs that compare less than or equal to 'key',
+                    in descending key order
+        */
+        public Element<K,V>[] predecessors(final K key, final int numPredecessors) {
+            checkOpen();
+            if(key == null) return null;
+            return VcasBatchBSTMapGC.this.predecessors(key, numPredecessors, ts);
+        }
+
+        public <R> R reduce(final K lo, final K hi, final Predicate<Element<K,V>> filter, final R identity, final BiFunction<R, ? super Element<K,V>, R> accumulator) {
+            checkOpen();
+            return fold(lo, hi, new ScanFold<K,V,R>(filter, identity, accumulator), ts).result();
+        }
+
+        public long count(final K lo, final K hi, final Predicate<Element<K,V>> filter) {
+            checkOpen();
+            return fold(lo, hi, new ScanFold<K,V,Void>(ScanFold.COUNT, filter, null), ts).total();
+        }
+
+        public long sum(final K lo, final K hi, final Predicate<Element<K,V>> filter, final ToLongFunction<? super V> f) {
+            checkOpen();
+            return fold(lo, hi, new ScanFold<K,V,Void>(ScanFold.SUM, filter, f), ts).total();
+        }
+
+        public OptionalLong min(final K lo, final K hi, final Predicate<Element<K,V>> filter, final ToLongFunction<? super V> f) {
+            checkOpen();
+            return fold(lo, hi, new ScanFold<K,V,Void>(ScanFold.MIN, filter, f), ts).extreme();
+        }
+
+        public OptionalLong max(final K lo, final K hi, final Predicate<Element<K,V>> filter, final ToLongFunction<? super V> f) {
+            checkOpen();
+            return fold(lo, hi, new ScanFold<K,V,Void>(ScanFold.MAX, filter, f), ts).extreme();
+        }
+
+        public Element<K,V> firstEntry() {
+            checkOpen();
+            return firstHelper(root, ts);
+        }
+
+        public Element<K,V> lastEntry() {
+            checkOpen();
+            return lastHelper(root, ts);
+        }
+
+        public Object[] multiSearch(final K[] keys) {
+            checkOpen();
+            if(keys == null) return null;
+            return VcasBatchBSTMapGC.this.multiSearch(keys, ts);
+        }
+
+        public Object[] parallelRangeScan(final K a, final K b, final ForkJoinPool pool) {
+            checkOpen();
+            return VcasBatchBSTMapGC.this.parallelRangeScan(a, b, ts, pool);
+        }
+
+        public boolean rangeScan(final K a, final K b, final BiPredicate<? super K, ? super V> visitor) {
+            checkOpen();
+            return visitHelper(root, ts, a, b, true, true, visitor);
+        }
+
+        // the cursor is only valid until this snapshot is closed
+        public Cursor cursor(final K a, final K b) {
+            checkOpen();
+            return new Cursor(a, b, ts, this);
+        }
+
+        public long checkpoint(final Path file, final Checkpoint.Codec<? super K> keyCodec, final Checkpoint.Codec<? super V> valueCodec) throws IOException {
+            checkOpen();
+            return VcasBatchBSTMapGC.this.checkpoint(file, keyCodec, valueCodec, ts);
+        }
+
+        private void checkOpen() {
+            if(closed) throw new IllegalStateException("snapshot is closed");
+        }
+
+        @Override
+        public void close() {
+            if(closed) return;
+            closed = true;
+            endSnapshot();
+        }
+    }
+
+    /**
+        Iterates over the mappings with keys in [a,b] in ascending key order at a
+        fixed timestamp. It follows the same path as scanHelper, keeping the
+        right subtrees that are still to be visited on an explicit stack, so no
+        mapping is copied and a scan can be abandoned at any point.
+        <pre>
+            try (Cursor c = tree.cursor(a, b)) {
+                while (c.next()) use(c.key(), c.value());
+            }
+        </pre>
+    */
+    public final class Cursor implements AutoCloseable {
+        private final K a, b;
+        private final long ts;
+        private final Snapshot snapshot; // null if the cursor took its own snapshot
+        private Node[] pending = new Node[16];
+        private boolean[] pendingRightOpen = new boolean[16];
+        private int depth;
+        private LeafNode leaf;
+        private int index, endIndex;
+        private K key;
+        private V value;
+        private boolean closed;
+
+        private Cursor(final K a, final K b, final long ts, final Snapshot snapshot) {
+            this.a = a;
+            this.b = b;
+            this.ts = ts;
+            this.snapshot = snapshot;
+            descend(root, true, true);
+        }
+
+        private void descend(Node node, final boolean leftOpen, boolean rightOpen) {
+            while (node instanceof InternalNode) {
+                InternalNode n = (InternalNode) node;
+                if(!leftOpen && !rightOpen) {
+                    push(n.getRight(ts), false);
+                    node = n.getLeft(ts);
+                }
+                else if (n.key != null && a.compareTo((K) n.key) >= 0)     // node's key is below the lower limit of [a,b]
+                    node = n.getRight(ts);
+                else if (n.key == null || b.compareTo((K) n.key) < 0) // node's key is above the upper limit of [a,b]
+                    node = n.getLeft(ts);
+                else {
+                    push(n.getRight(ts), rightOpen);
+                    node = n.getLeft(ts);
+                    rightOpen = false;
+                }
+            }
+            leaf = (LeafNode) node;
+            if (leaf == null) return;
+            index = leftOpen ? leaf.lowerBound(a) : 0;
+            endIndex = rightOpen ? leaf.upperBound(b) : leaf.getSize()-1;
+        }
+
+        private void push(final Node node, final boolean rightOpen) {
+            if (node == null) return;
+            if (depth == pending.length) {
+                pending = Arrays.copyOf(pending, 2*depth);
+                pendingRightOpen = Arrays.copyOf(pendingRightOpen, 2*depth);
+            }
+            pending[depth] = node;
+            pendingRightOpen[depth] = rightOpen;
+            depth++;
+        }
+
+        /**
+            Advances to the next mapping.
+
+            @return false if there are no more mappings in the range
+        */
+        public boolean next() {
+            checkOpen();
+            while (true) {
+                if (leaf != null && index <= endIndex) {
+                    key = (K) leaf.keys[index];
+                    value = (V) leaf.values[index];
+                    index++;
+                    return true;
+                }
+                if (depth == 0) {
+                    leaf = null;
+                    key = null;
+                    value = null;
+                    return false;
+                }
+                depth--;
+                Node node = pending[depth];
+                pending[depth] = null;
+                descend(node, false, pendingRightOpen[depth]);
+            }
+        }
+
+        // key of the current mapping, or null before the first and after the last call to next()
+        public K key() {
+            return key;
+        }
+
+        public V value() {
+            return value;
+        }
+
+        private void checkOpen() {
+            if(closed) throw new IllegalStateException("cursor is closed");
+            if(snapshot != null) snapshot.checkOpen();
+        }
+
+        @Override
+        public void close() {
+            if(closed) return;
+            closed = true;
+            leaf = null;
+            if(snapshot == null) endSnapshot();
+        }
+    }
+
+    /**
+        Sums (or counts) the mappings with keys in [a,b] at timestamp ts without
+        materializing them. Leaves entirely inside the range contribute their
+        cached sum or their size, so only the two boundary leaves are searched;
+        every internal node and leaf over the range is visited, so the cost is
+        O(depth + leaves in range).
+    */
+    private final long aggregate(final Node node, final long ts, final K a, final K b, final boolean leftOpen, final boolean rightOpen, final boolean count) {
+        if (node == null) return 0;
+        if (node instanceof LeafNode) {
+            LeafNode l = (LeafNode) node;
+            if(!leftOpen && !rightOpen)
+                return count ? l.getSize() : l.getValueSum();
+            int startIndex = leftOpen ? l.lowerBound(a) : 0;
+            int endIndex = rightOpen ? l.upperBound(b) : l.getSize()-1;
+            if(startIndex > endIndex) return 0;
+            return count ? endIndex-startIndex+1 : l.sumValues(startIndex, endIndex+1);
+        }
+        InternalNode n = (InternalNode) node;
+        if(!leftOpen && !rightOpen)
+            return aggregate(n.getLeft(ts), ts, a, b, false, false, count) + aggregate(n.getRight(ts), ts, a, b, false, false, count);
+        else if (n.key != null && a.compareTo((K) n.key) >= 0)           // node's key is below the lower limit of [a,b]
+            return aggregate(n.getRight(ts), ts, a, b, leftOpen, rightOpen, count);
+        else if (n.key == null || b.compareTo((K) n.key) < 0)       // node's key is above the upper limit of [a,b]
+            return aggregate(n.getLeft(ts), ts, a, b, leftOpen, rightOpen, count);
+        else
+            return aggregate(n.getLeft(ts), ts, a, b, leftOpen, false, count) + aggregate(n.getRight(ts), ts, a, b, false, rightOpen, count);
+    }
+
+    // sum of the values (which must be Numbers, read as longs) of the keys
+    // between a and b; the keys themselves are summed by getSumOfKeys()
     public final long rangeSum(final K a, final K b) {
-        return 0;
+        long ts = beginSnapshot();
+        long sum = aggregate(root, ts, a, b, true, true, false);
+        endSnapshot();
+        return sum;
+    }
+
+    // number of keys between a and b
+    public final int rangeCount(final K a, final K b) {
+        long ts = beginSnapshot();
+        long count = aggregate(root, ts, a, b, true, true, true);
+        endSnapshot();
+        return (int) count;
     }
 
     /**
@@ -976,12 +2465,22 @@ public class VcasBatchBSTMapGC<K extends Comparable<? super K>, V> {
     }
 
     /**
-     * size() is NOT a constant time method, and the result is only guaranteed to
-     * be consistent if no concurrent updates occur.
-     * Note: linearizable size() and iterators can be implemented, so contact
-     *       the author if they are needed for some application.
+     * size() is linearizable and does not traverse the tree: it takes a snapshot
+     * and adds up the per-thread counts of the updates installed by then, so its
+     * cost depends on the number of threads rather than the number of keys.
      */
     public final int size() {
+        long ts = beginSnapshot();
+        long size = sizeCounter.get(ts);
+        endSnapshot();
+        return (int) size;
+    }
+
+    /**
+     * sequentialSize() is NOT a constant time method, and the result is only
+     * guaranteed to be consistent if no concurrent updates occur.
+     */
+    public final int sequentialSize() {
         return sequentialSize(root);
     }
     private int sequentialSize(final Node node) {
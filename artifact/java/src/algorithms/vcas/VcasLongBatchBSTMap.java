@@ -0,0 +1,1163 @@
+package algorithms.vcas;
+
+/*
+Concurrent, Non-blocking Binary Search Tree with Constant Time Snapshotting and Batched Leaves,
+specialized for primitive long keys
+
+This is VcasBatchBSTMapGC with long[] leaf keys and long routing keys, so
+searches compare primitives instead of calling compareTo on boxed keys and
+leaves hold their keys inline. Long.MAX_VALUE is the routing key of the
+sentinel nodes and cannot be used as a key. The search used by point lookups
+within a leaf is chosen at construction (see LeafSearch).
+
+The data structure supports linearizable get(), containsKey(), putIfAbsent(), remove(), and
+rangeScan(). All operations are lock-free and rangeScan() is also wait-free.
+
+Copyright (C) 2021 Yuanhao Wei
+
+This implementation based on the following non-blocking BST implementation by Trevor Brown:
+https://bitbucket.org/trbot86/implementations/src/master/java/src/algorithms/published/LockFreeBSTMap.java
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import algorithms.vcas.Camera;
+import algorithms.vcas.VcasAtomicReferenceFieldUpdater;
+import algorithms.vcas.Versioned;
+import main.support.Element;
+import main.support.Epoch;
+
+import java.lang.reflect.Array;
+import java.util.function.Predicate;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+public class VcasLongBatchBSTMap<V> {
+
+    // routing key of the sentinel nodes, larger than every key in the tree
+    public static final long INF = Long.MAX_VALUE;
+
+    private final int BATCHING_DEGREE;
+    // how point lookups search within a leaf
+    private final LeafSearch search;
+    // Reclamation domain for replaced versions, shared by every instance;
+    // replace it (e.g. with a LimboEpoch) before any tree of this class is created.
+    public static Epoch<Node> epoch = new Epoch<Node>();
+    // Camera used to stamp and snapshot this class of trees. Like epoch, it is
+    // shared by every instance and must be replaced before any tree is created.
+    public static Camera camera = Camera.camera;
+
+    // Snapshots taken by queries are announced both in the epoch, so that the
+    // versions they read are not reclaimed, and in the camera, so that they are
+    // not truncated. endSnapshot() must be called by the same thread.
+    private static long beginSnapshot() {
+        epoch.announce();
+        return camera.beginSnapshot();
+    }
+
+    private static void endSnapshot() {
+        camera.endSnapshot();
+        epoch.unannounce();
+    }
+
+    // Reads at a past timestamp ts are announced the same way, and are only
+    // correct if the camera's retention window kept the versions at ts until
+    // the read ended (see Camera.retain).
+    private static void beginSnapshotAt(final long ts) {
+        if (ts > camera.read()) throw new IllegalArgumentException("timestamp " + ts + " is in the future");
+        epoch.announce();
+        if (!camera.beginSnapshotAt(ts)) {
+            endSnapshot();
+            throw new IllegalArgumentException("timestamp " + ts + " is outside the retention window");
+        }
+    }
+
+    private static void endSnapshotAt(final long ts) {
+        boolean retained = camera.isRetained(ts);
+        endSnapshot();
+        if (!retained) throw new IllegalArgumentException("timestamp " + ts + " left the retention window during the read");
+    }
+
+    public VcasLongBatchBSTMap(final int BATCHING_DEGREE, final LeafSearch search) {
+        this.BATCHING_DEGREE = BATCHING_DEGREE;
+        this.search = search;
+        System.out.println("BATCHING DEGREE: " + BATCHING_DEGREE);
+        root = new InternalNode(INF, new InternalNode(INF, new LeafNode(0), new LeafNode(0)), new LeafNode(0));
+    }
+
+    public VcasLongBatchBSTMap(final int BATCHING_DEGREE) {
+        this(BATCHING_DEGREE, LeafSearch.BINARY);
+    }
+
+    public VcasLongBatchBSTMap() {
+        this(16);
+    }
+
+    public static abstract class Node extends Versioned {
+        public Node() {
+            super();
+        }
+
+        public abstract Node copy();
+
+        // keeps what the camera's retention window and pins still read
+        @Override
+        public void reclaim() {
+            reclaim(camera);
+        }
+    }
+
+    public static final class LeafNode extends Node {
+        public long[] keys;
+        public Object[] values;
+        private long valueSum;
+        private volatile boolean valueSumCached;
+
+        LeafNode(final int size) {
+            super();
+            this.keys = new long[size];
+            this.values = new Object[size];
+        }
+
+        public Node copy() {
+            int size = getSize();
+            LeafNode newNode = new LeafNode(size);
+            if(size > 0) {
+                System.arraycopy(keys, 0, newNode.keys, 0, size);
+                System.arraycopy(values, 0, newNode.values, 0, size);
+            }
+            return newNode;
+        }
+
+        public int getSize() { return keys.length; }
+
+        final long getSum() {
+            long sum = 0;
+            for(int i = 0; i < getSize(); i++)
+                sum += keys[i];
+            return sum;
+        }
+
+        // sum of all values as longs; computed on first use since leaves are immutable
+        final long getValueSum() {
+            if(!valueSumCached) {
+                valueSum = sumValues(0, getSize());
+                valueSumCached = true;
+            }
+            return valueSum;
+        }
+
+        final long sumValues(final int from, final int to) {
+            long sum = 0;
+            for(int i = from; i < to; i++)
+                sum += ((Number) values[i]).longValue();
+            return sum;
+        }
+
+        private boolean isFull(int maxSize) {
+            return (getSize() == maxSize);
+        }
+
+        /**
+            Performs a binary search of key in this node's array of keys.
+
+            @param key  the key to search for
+            @return     the index of key if it was found, otherwise -1
+        */
+        private final int containsKey(final long key) {
+            int i, a = 0, b = getSize()-1;
+            while (a <= b) {
+                i = (a+b) >>> 1;
+                long k = keys[i];
+                if (key == k)
+                    return i;
+                else if (key < k)
+                    b = i-1;
+                else
+                    a = i+1;
+            }
+            return -1;
+        }
+
+        /**
+            Performs a binary search of key in this node's array of keys.
+
+            @param key  the key to search for
+            @return     value at the index of key if it was found, otherwise null
+        */
+        private final Object getValue(final long key) {
+            int i = containsKey(key);
+            return i == -1 ? null : values[i];
+        }
+
+        private final Object getValue(final LeafSearch search, final long key) {
+            int i = search.indexOf(keys, key);
+            return i == -1 ? null : values[i];
+        }
+
+        // index of the first key >= key, or getSize() if there is none
+        public final int lowerBound(final long key) {
+            int i, a = 0, b = getSize();
+            while(a < b) {
+                i = (a+b) >>> 1;
+                if (keys[i] < key)
+                    a = i+1;
+                else
+                    b = i;
+            }
+            return a;
+        }
+
+        // index of the last key <= key, or -1 if there is none
+        private final int upperBound(final long key) {
+            int i, a = 0, b = getSize();
+            while(a < b) {
+                i = (a+b) >>> 1;
+                if (keys[i] <= key)
+                    a = i+1;
+                else
+                    b = i;
+            }
+            return a-1;
+        }
+
+        /**
+            Adds all keys of this node that belong in range [a,b] to ret.
+
+            @param a    the lower limit of the range
+            @param b    the upper limit of the range
+            @param ret  the stack where keys are saved
+        */
+        private final void gatherKeys(final long a, final long b, final boolean leftOpen, final boolean rightOpen, final RangeScanResultHolder.Stack ret) {
+            if(a == b) {
+                Object val = getValue(a);
+                if(val != null)
+                    ret.push(val);
+            } else {
+                int startIndex = 0, endIndex = getSize()-1;
+                if(leftOpen) startIndex = lowerBound(a);
+                if(rightOpen) endIndex = upperBound(b);
+                // Add all keys between them to the range query result
+                for (int i = startIndex; i <= endIndex; i++)
+                    ret.push(values[i]);
+            }
+        }
+
+        /**
+            Checks if key should be put in the left half of this node's array of keys.
+            Preconditin: getSize() > 0
+        */
+        private boolean shouldBePutLeft(final long key) {
+            return key < keys[getSize()/2];
+        }
+
+        // index at which key would be inserted into keys[from, to)
+        private int insertionPoint(final long key, int a, int b) {
+            while(a < b) {
+                int i = (a+b) >>> 1;
+                if (key < keys[i])
+                    b = i;
+                else
+                    a = i+1;
+            }
+            return a;
+        }
+
+        /**
+            Copies all keys of this node plus key in newNode.
+        */
+        private final LeafNode put(final long key, final Object value) {
+            int size = getSize();
+            LeafNode newNode = new LeafNode(size+1);
+            int a = insertionPoint(key, 0, size);
+            System.arraycopy(keys, 0, newNode.keys, 0, a);
+            System.arraycopy(values, 0, newNode.values, 0, a);
+            newNode.keys[a] = key;
+            newNode.values[a] = value;
+            System.arraycopy(keys, a, newNode.keys, a+1, size-a);
+            System.arraycopy(values, a, newNode.values, a+1, size-a);
+            return newNode;
+        }
+
+        /**
+            Copies all keys of this node except key in newNode.
+            Precondition: key is in this node.
+        */
+        private final LeafNode remove(final long key) {
+            int size = getSize();
+            LeafNode newNode = new LeafNode(size-1);
+            int b = containsKey(key);
+            System.arraycopy(keys, 0, newNode.keys, 0, b);
+            System.arraycopy(values, 0, newNode.values, 0, b);
+            System.arraycopy(keys, b+1, newNode.keys, b, size-b-1);
+            System.arraycopy(values, b+1, newNode.values, b, size-b-1);
+            return newNode;
+        }
+
+        /**
+            Copies the left half of this node's array of keys plus key in newNode.
+        */
+        private final LeafNode splitLeftAndPut(final long key, final Object value) {
+            int newSize = (getSize()/2)+1;
+            LeafNode newNode = new LeafNode(newSize);
+            int a = insertionPoint(key, 0, newSize-1);
+            System.arraycopy(keys, 0, newNode.keys, 0, a);
+            System.arraycopy(values, 0, newNode.values, 0, a);
+            newNode.keys[a] = key;
+            newNode.values[a] = value;
+            System.arraycopy(keys, a, newNode.keys, a+1, newSize-1-a);
+            System.arraycopy(values, a, newNode.values, a+1, newSize-1-a);
+            return newNode;
+        }
+
+        /**
+            Copies the right half of this node's array of keys plus key in newNode.
+        */
+        private final LeafNode splitRightAndPut(final long key, final Object value) {
+            int size = getSize();
+            int newSize = (size/2)+1;
+            LeafNode newNode = new LeafNode(newSize);
+            int newStart = (size+1)/2;
+            int a = insertionPoint(key, newStart, size);
+            System.arraycopy(this.keys, newStart, newNode.keys, 0, a-newStart);
+            System.arraycopy(this.values, newStart, newNode.values, 0, a-newStart);
+            newNode.keys[a-newStart] = key;
+            newNode.values[a-newStart] = value;
+            System.arraycopy(this.keys, a, newNode.keys, a-newStart+1, size-a);
+            System.arraycopy(this.values, a, newNode.values, a-newStart+1, size-a);
+            return newNode;
+        }
+
+        /**
+            Copies the left half of this node's array of keys in newNode.
+        */
+        private final LeafNode splitLeft() {
+            int newSize = (getSize()+1)/2;
+            LeafNode newNode = new LeafNode(newSize);
+            System.arraycopy(this.keys, 0, newNode.keys, 0, newSize);
+            System.arraycopy(this.values, 0, newNode.values, 0, newSize);
+            return newNode;
+        }
+
+        /**
+            Copies the right half of this node's array of keys in newNode.
+        */
+        private final LeafNode splitRight() {
+            int size = getSize();
+            int newSize = (size+1)/2;
+            LeafNode newNode = new LeafNode(newSize);
+            System.arraycopy(this.keys, size-newSize, newNode.keys, 0, newSize);
+            System.arraycopy(this.values, size-newSize, newNode.values, 0, newSize);
+            return newNode;
+        }
+    }
+
+    public static final class InternalNode extends Node {
+        public final long key;
+        public volatile Node left, right;
+        volatile Info info;
+
+        public static final VcasAtomicReferenceFieldUpdater<InternalNode, Node> updateLeft = new VcasAtomicReferenceFieldUpdater<InternalNode, Node>(AtomicReferenceFieldUpdater.newUpdater(InternalNode.class, Node.class, "left"));
+        public static final VcasAtomicReferenceFieldUpdater<InternalNode, Node> updateRight = new VcasAtomicReferenceFieldUpdater<InternalNode, Node>(AtomicReferenceFieldUpdater.newUpdater(InternalNode.class, Node.class, "right"));
+
+        public InternalNode(final long key, final Node left, final Node right) {
+            super();
+            this.key = key;
+            this.left = left;
+            this.right = right;
+            this.info = null;
+            if(left != null) left.init(camera);
+            if(right != null) right.init(camera);
+        }
+
+        Node getLeft() {
+            return updateLeft.get(this, camera);
+        }
+
+        Node getRight() {
+            return updateRight.get(this, camera);
+        }
+
+        Node getLeft(long ts) {
+            return updateLeft.get(this, ts, camera);
+        }
+
+        Node getRight(long ts) {
+            return updateRight.get(this, ts, camera);
+        }
+
+        boolean compareAndSetLeft(final Node oldV, Node newV) {
+            return updateLeft.compareAndSet(this, oldV, newV, camera, epoch);
+        }
+
+        boolean compareAndSetRight(final Node oldV, Node newV) {
+            return updateRight.compareAndSet(this, oldV, newV, camera, epoch);
+        }
+
+        public final boolean hasChild(final Node node) {
+            return node == getLeft() || node == getRight();
+        }
+
+        public Node copy() {
+            return new InternalNode(key, getLeft(), getRight());
+        }
+    }
+
+
+    //--------------------------------------------------------------------------------
+    // Class: Info, DInfo, IInfo, Mark, Clean
+    //--------------------------------------------------------------------------------
+    protected static abstract class Info {
+    }
+
+    protected final static class DInfo extends Info {
+        final InternalNode p;
+        final LeafNode l;
+        final InternalNode gp;
+        final Info pinfo;
+        final long keyToDelete;
+
+        DInfo(final LeafNode leaf, final InternalNode parent, final InternalNode grandparent, final Info pinfo, final long key) {
+            this.p = parent;
+            this.l = leaf;
+            this.gp = grandparent;
+            this.pinfo = pinfo;
+            this.keyToDelete = key;
+        }
+    }
+
+    protected final static class IInfo extends Info {
+        final InternalNode p;
+        final LeafNode l;
+        final Node newInternal;
+
+        IInfo(final LeafNode leaf, final InternalNode parent, final Node newInternal){
+            this.p = parent;
+            this.l = leaf;
+            this.newInternal = newInternal;
+        }
+    }
+
+    protected final static class Mark extends Info {
+        final DInfo dinfo;
+
+        Mark(final DInfo dinfo) {
+            this.dinfo = dinfo;
+        }
+    }
+
+    protected final static class Flag extends Info {
+        final DInfo dinfo;
+
+        Flag(final DInfo dinfo) {
+            this.dinfo = dinfo;
+        }
+    }
+
+    protected final static class Clean extends Info {}
+
+//--------------------------------------------------------------------------------
+// DICTIONARY
+//--------------------------------------------------------------------------------
+    private static final AtomicReferenceFieldUpdater<InternalNode, Info> infoUpdater = AtomicReferenceFieldUpdater.newUpdater(InternalNode.class, Info.class, "info");
+
+    final InternalNode root;
+
+//--------------------------------------------------------------------------------
+// PUBLIC METHODS:
+// - find   : boolean
+// - insert : boolean
+// - delete : boolean
+//--------------------------------------------------------------------------------
+
+    public final boolean containsKey(final long key) {
+        return get(key) != null;
+    }
+
+    public final V get(final long key) {
+        InternalNode p = (InternalNode) root.getLeft();
+        while(true) {
+            Node l = (key < p.key) ? p.getLeft() : p.getRight();
+            if(l instanceof LeafNode) return (V) ((LeafNode)l).getValue(search, key);
+            p = (InternalNode) l;
+        }
+    }
+
+    private final V get(final long key, final long ts) {
+        InternalNode p = (InternalNode) root.getLeft(ts);
+        while(true) {
+            Node l = (key < p.key) ? p.getLeft(ts) : p.getRight(ts);
+            if(l instanceof LeafNode) return (V) ((LeafNode)l).getValue(search, key);
+            p = (InternalNode) l;
+        }
+    }
+
+    // Insert key to dictionary, returns the previous value associated with the specified key,
+    // or null if there was no mapping for the key
+    /** PRECONDITION: key < INF and value CANNOT BE NULL **/
+    public final V putIfAbsent(final long key, final V value){
+        if(key == INF) throw new IllegalArgumentException("key " + INF + " is reserved for sentinel nodes");
+        Node newInternal;
+        LeafNode newLeft, newRight;
+
+        /** SEARCH VARIABLES **/
+        InternalNode p;
+        Info pinfo;
+        LeafNode l;
+        Node n;
+        /** END SEARCH VARIABLES **/
+
+        while (true) {
+            /** SEARCH **/
+            p = root;
+            n = p.getLeft();
+            while(n instanceof InternalNode) {
+                p = (InternalNode) n;
+                n = (key < p.key) ? p.getLeft() : p.getRight();
+            }
+            l = (LeafNode) n;
+            pinfo = p.info;                             // read pinfo once instead of every iteration
+            if (l != p.getLeft() && l != p.getRight()) continue;  // then confirm the child link to l is valid
+                                                        // (just as if we'd read p's info field before the reference to l)
+            /** END SEARCH **/
+
+            V ret = (V) l.getValue(search, key);
+            if (ret != null) {
+                return ret; // key already in the tree, no duplicate allowed
+            } else if (!(pinfo == null || pinfo.getClass() == Clean.class)) {
+                help(pinfo);
+            } else {
+                if(!l.isFull(BATCHING_DEGREE)) {
+                    newInternal = l.put(key, value);
+                } else {
+                    if(l.shouldBePutLeft(key)) {
+                        newLeft = l.splitLeftAndPut(key, value);
+                        newRight = l.splitRight();
+                    } else {
+                        newLeft = l.splitLeft();
+                        newRight = l.splitRightAndPut(key, value);
+                    }
+                    newInternal = new InternalNode(newRight.keys[0], newLeft, newRight);
+                }
+
+                final IInfo newPInfo = new IInfo(l, p, newInternal);
+
+                // try to IFlag parent
+                if (infoUpdater.compareAndSet(p, pinfo, newPInfo)) {
+                    helpInsert(newPInfo);
+                    return null;
+                } else {
+                    // if fails, help the current operation
+                    help(p.info);
+                }
+            }
+        }
+    }
+
+    // Delete key from dictionary, return the associated value when successful, null otherwise
+    public final V remove(final long key){
+        /** SEARCH VARIABLES **/
+        InternalNode gp;
+        Info gpinfo;
+        InternalNode p;
+        Info pinfo;
+        LeafNode l;
+        Node n;
+        /** END SEARCH VARIABLES **/
+        while (true) {
+            /** SEARCH **/
+            gp = null;
+            gpinfo = null;
+            p = root;
+            pinfo = p.info;
+            n = p.getLeft();
+            while(n instanceof InternalNode) {
+                gp = p;
+                p = (InternalNode) n;
+                n = (key < p.key) ? p.getLeft() : p.getRight();
+            }
+            l = (LeafNode) n;
+
+            if (gp != null) {
+                gpinfo = gp.info;                               // - read gpinfo once instead of every iteration
+                if (p != gp.getLeft() && p != gp.getRight()) continue;    //   then confirm the child link to p is valid
+                pinfo = p.info;                                 //   (just as if we'd read gp's info field before the reference to p)
+                if (l != p.getLeft() && l != p.getRight()) continue;      // - do the same for pinfo and l
+            }
+            /** END SEARCH **/
+
+            V ret = (V) l.getValue(search, key);
+            if (ret == null) {
+                return null;
+            }
+            if (!(gpinfo == null || gpinfo.getClass() == Clean.class)) {
+                help(gpinfo);
+            } else if (!(pinfo == null || pinfo.getClass() == Clean.class)) {
+                help(pinfo);
+            } else {
+                // try to DFlag grandparent
+                final DInfo newGPInfo = new DInfo(l, p, gp, pinfo, key);
+
+                if (infoUpdater.compareAndSet(gp, gpinfo, newGPInfo)) {
+                    if (helpDelete(newGPInfo)) {
+                        return ret;
+                    }
+                } else {
+                    // if fails, help grandparent with its latest info value
+                    help(gp.info);
+                }
+            }
+        }
+    }
+
+//--------------------------------------------------------------------------------
+// PRIVATE METHODS
+// - helpInsert
+// - helpDelete
+//--------------------------------------------------------------------------------
+
+    private void helpInsert(final IInfo info){
+        if(info.p.getLeft() == info.l) {
+            info.p.compareAndSetLeft(info.l, info.newInternal);
+        } else {
+            info.p.compareAndSetRight(info.l, info.newInternal);
+        }
+        infoUpdater.compareAndSet(info.p, info, new Clean());
+    }
+
+    private boolean helpDelete(final DInfo info){
+        final boolean result;
+
+        result = infoUpdater.compareAndSet(info.p, info.pinfo, new Mark(info));
+        final Info currentPInfo = info.p.info;
+        // if  CAS succeed or somebody else already suceed helping, the helpMarked
+        if (result || (currentPInfo.getClass() == Mark.class && ((Mark) currentPInfo).dinfo == info)) {
+            helpMarked(info);
+            return true;
+        } else {
+            help(currentPInfo);
+            infoUpdater.compareAndSet(info.gp, info, new Clean());
+            return false;
+        }
+    }
+
+    private void help(final Info info) {
+        if (info.getClass() == IInfo.class)     helpInsert((IInfo) info);
+        else if(info.getClass() == DInfo.class) helpDelete((DInfo) info);
+        else if(info.getClass() == Mark.class)  helpMarked(((Mark)info).dinfo);
+        else if(info.getClass() == Flag.class)  helpFlagged(((Flag)info).dinfo);
+    }
+
+    private void helpMarked(final DInfo info){
+        if(info.l.getSize() > 1 || info.l == ((InternalNode) root.getLeft()).getLeft()) {
+            Node newLeft, newRight;
+            if(info.p.getLeft() == info.l) {
+                newLeft = info.l.remove(info.keyToDelete);
+                newRight = info.p.getRight();
+            } else {
+                newLeft = info.p.getLeft();
+                newRight = info.l.remove(info.keyToDelete);
+            }
+            InternalNode newNode = new InternalNode(info.p.key, newLeft, newRight);
+            if(info.gp.getLeft() == info.p)
+                info.gp.compareAndSetLeft(info.p, newNode);
+            else
+                info.gp.compareAndSetRight(info.p, newNode);
+            infoUpdater.compareAndSet(info.gp, info, new Clean());
+        } else {
+            final Node other = (info.p.getRight() == info.l) ? info.p.getLeft() : info.p.getRight();
+
+            if(other instanceof LeafNode) { // leaf node
+              helpFlagged(info, other);
+            } else {
+              final InternalNode otherIn = (InternalNode) other;
+              Info otherinfo;
+              while(true) {
+                otherinfo = otherIn.info;
+                if(otherinfo == null || otherinfo.getClass() == Clean.class) {
+                  Flag flag = new Flag(info);
+                  if(infoUpdater.compareAndSet(otherIn, otherinfo, flag)) {
+                    helpFlagged(info, otherIn);
+                    return;
+                  }
+                } else if(otherinfo.getClass() == Flag.class && ((Flag) otherinfo).dinfo == info) {
+                  helpFlagged(info, otherIn);
+                  return;
+                } else
+                  help(otherinfo);
+              }
+            }
+        }
+    }
+
+    private void helpFlagged(final DInfo info) {
+      final Node other = (info.p.getRight() == info.l) ? info.p.getLeft() : info.p.getRight();
+      helpFlagged(info, other);
+    }
+
+    private void helpFlagged(final DInfo info, final Node other) {
+        Node newOther = other.copy();
+        if(info.gp.getLeft() == info.p) {
+            info.gp.compareAndSetLeft(info.p, newOther);
+        } else {
+            info.gp.compareAndSetRight(info.p, newOther);
+        }
+        infoUpdater.compareAndSet(info.gp, info, new Clean());
+    }
+
+    // Reference to a thread local variable that is used by
+    // RangeScan to return the result of a range query
+    private final ThreadLocal<RangeScanResultHolder> rangeScanResult = new ThreadLocal<RangeScanResultHolder>() {
+        @Override
+        protected RangeScanResultHolder initialValue() {
+            return new RangeScanResultHolder();
+        }
+    };
+
+    /**
+        Represents a storage space where the result of a range query operation is saved
+        Each thread gets a copy of this variable
+    */
+    private static final class RangeScanResultHolder {
+        private Stack rsResult;
+
+        RangeScanResultHolder() {
+            rsResult = new Stack();
+        }
+
+        private static final class Stack {
+            private final int INIT_SIZE = 128;
+            private Object[] stackArray;
+            private int head = 0;
+
+            Stack() {
+                stackArray = new Object[INIT_SIZE];
+            }
+
+            final void clear() {
+                head = 0;
+            }
+
+            final Object[] getStackArray() {
+                return stackArray;
+            }
+
+            final int getEffectiveSize() {
+                return head;
+            }
+
+            final void push(final Object x) {
+                if (head == stackArray.length) {
+                    final Object[] newStackArray = new Object[stackArray.length*4];
+                    System.arraycopy(stackArray, 0, newStackArray, 0, head);
+                    stackArray = newStackArray;
+                }
+                stackArray[head] = x;
+                ++head;
+            }
+        }
+    }
+
+    /**
+        Executes the tree traversal for rangeScan.
+
+        @param node    the current node of the traversal
+        @param ts      the timestamp number of rangeScan operation
+        @param a       the lower limit of the range
+        @param b       the upper limit of the range
+        @param ret     contains the rangeScan result, i.e. all values that correspond to keys
+                       held by nodes in the version-seq part of the tree
+    */
+    private final void scanHelper(final Node node, final long ts, final long a, final long b, final boolean leftOpen, final boolean rightOpen, RangeScanResultHolder.Stack ret) {
+        if (node == null) return;
+        if (node instanceof LeafNode) {    // node is a leaf
+            ((LeafNode)node).gatherKeys(a, b, leftOpen, rightOpen, ret);
+        }
+        else {
+            InternalNode n = (InternalNode) node;
+            if(!leftOpen && !rightOpen) {
+                scanHelper(n.getLeft(ts), ts, a, b, false, false, ret);
+                scanHelper(n.getRight(ts), ts, a, b, false, false, ret);
+            }
+            else if (a >= n.key)                                 // node's key is below the lower limit of [a,b]
+                scanHelper(n.getRight(ts), ts, a, b, leftOpen, rightOpen, ret);  // traverse its right subtree
+            else if (b < n.key)                                  // node's key is above the upper limit of [a,b]
+                scanHelper(n.getLeft(ts), ts, a, b, leftOpen, rightOpen, ret);   // traverse its left subtree
+            else {
+                // node is in [a,b] - traverse both of its subtrees
+                scanHelper(n.getLeft(ts), ts, a, b, leftOpen, false, ret);
+                scanHelper(n.getRight(ts), ts, a, b, false, rightOpen, ret);
+            }
+        }
+    }
+
+    /**
+        Implements the RangeScan operation.
+        <p>
+        Precondition: a is less than or equal to b
+
+        @param a  the lower limit of the range
+        @param b  the upper limit of the range
+        @return   all values of mappings with keys in range [a,b]
+    */
+    public final Object[] rangeScan(final long a, final long b) {
+        long ts = beginSnapshot();
+        Object[] returnArray = rangeScan(a, b, ts);
+        endSnapshot();
+        return returnArray;
+    }
+
+    private final Object[] rangeScan(final long a, final long b, final long ts) {
+        // Get and initialize rangeScanResultHolder before the start of the tree traversal
+        RangeScanResultHolder rangeScanResultHolder = rangeScanResult.get();
+        rangeScanResultHolder.rsResult.clear();
+
+        // Start the tree traversal
+        scanHelper(root, ts, a, b, true, true, rangeScanResultHolder.rsResult);
+        // Get stack and its number of elements
+        Object[] stackArray = rangeScanResultHolder.rsResult.getStackArray();
+        int stackSize = rangeScanResultHolder.rsResult.getEffectiveSize();
+
+        // Make a copy of the stack and return it
+        Object[] returnArray = new Object[stackSize];
+        System.arraycopy(stackArray, 0, returnArray, 0, stackSize);
+        return returnArray;
+    }
+
+    // returns number of successors found at subtree rooted at node; they are stored in elements,
+    // reusing the Elements already there, or if elements is null, in keys and values (unless null)
+    private final int successorsHelper(final Node node, final long ts, final long key, final int numSuccessors, final Element<Long,V>[] elements, final long[] keys, final Object[] values, final int index) {
+        if (node == null) return index;
+        if (node instanceof LeafNode) {    // node is a leaf
+            LeafNode n = (LeafNode) node;
+            int nodeIndex = n.lowerBound(key);
+            int arrayIndex = index;
+            while(nodeIndex < n.getSize() && arrayIndex < numSuccessors) {
+                if (elements == null) {
+                    keys[arrayIndex] = n.keys[nodeIndex];
+                    if (values != null) values[arrayIndex] = n.values[nodeIndex];
+                } else if (elements[arrayIndex] == null) {
+                    elements[arrayIndex] = new Element<Long, V>(n.keys[nodeIndex], (V) n.values[nodeIndex]);
+                } else {
+                    elements[arrayIndex].set(n.keys[nodeIndex], (V) n.values[nodeIndex]);
+                }
+                nodeIndex++;
+                arrayIndex++;
+            }
+            return arrayIndex;
+        }
+        else {
+            InternalNode n = (InternalNode) node;
+            if (key >= n.key)
+                return successorsHelper(n.getRight(ts), ts, key, numSuccessors, elements, keys, values, index);  // traverse its right subtree
+            else {
+                int newIndex = successorsHelper(n.getLeft(ts), ts, key, numSuccessors, elements, keys, values, index);  // traverse its left subtree
+                if(newIndex < numSuccessors)
+                    newIndex = successorsHelper(n.getRight(ts), ts, key, numSuccessors, elements, keys, values, newIndex);   // traverse its right subtree
+                return newIndex;
+            }
+        }
+    }
+
+    private final Element<Long,V>[] successors(final long key, int numSuccessors, final long ts) {
+        Element<Long,V>[] elements = (Element<Long,V>[]) Array.newInstance(Element.class, numSuccessors);
+        int size = successorsHelper(root, ts, key, numSuccessors, elements, null, null, 0);
+        Element<Long,V>[] returnArray = (Element<Long,V>[]) Array.newInstance(Element.class, size);
+        System.arraycopy(elements, 0, returnArray, 0, size);
+        return returnArray;
+    }
+
+    private final Object[] multiSearch(final long[] keys, final long ts) {
+        int numKeys = keys.length;
+        Object[] returnArray = new Object[numKeys];
+        for(int i = 0; i < numKeys; i++)
+            returnArray[i] = get(keys[i], ts);
+        return returnArray;
+    }
+
+    // stores the first pair of the subtree in [a,b] that satisfies p in e, which p is tested on
+    private boolean findIfHelper(Node node, long ts, long a, long b, Predicate<Element<Long,V>> p, Element<Long,V> e) {
+        if(node == null) return false;
+        if(node instanceof LeafNode) {
+            LeafNode n = (LeafNode) node;
+            int startIndex = n.lowerBound(a);
+            for(int i = startIndex; i < n.getSize() && n.keys[i] <= b; i++) {
+                e.set(n.keys[i], (V) n.values[i]);
+                if(p.test(e)) return true;
+            }
+            return false;
+        } else {
+            InternalNode n = (InternalNode) node;
+            if (a >= n.key)                                 // node's key is below the lower limit of [a,b]
+                return findIfHelper(n.getRight(ts), ts, a, b, p, e);  // traverse its right subtree
+            else if (b < n.key)                             // node's key is above the upper limit of [a,b]
+                return findIfHelper(n.getLeft(ts), ts, a, b, p, e);   // traverse its left subtree
+            else {
+                // node is in [a,b] - traverse both of its subtrees
+                return findIfHelper(n.getLeft(ts), ts, a, b, p, e) || findIfHelper(n.getRight(ts), ts, a, b, p, e);
+            }
+        }
+    }
+
+    /**
+        Allocation-free successors: stores the first keys.length keys that
+        are greater than or equal to 'key' in keys, and their values in
+        values unless it is null.
+
+        @return the number of keys stored
+    */
+    public final int successors(final long key, final long[] keys, final V[] values) {
+        if(values != null && values.length < keys.length) throw new IllegalArgumentException("values is shorter than keys");
+        long ts = beginSnapshot();
+        int size = successorsHelper(root, ts, key, keys.length, null, keys, values, 0);
+        endSnapshot();
+        return size;
+    }
+
+    // fills buffer instead, reusing the Elements already there; @return the number of successors stored
+    public final int successors(final long key, final Element<Long,V>[] buffer) {
+        long ts = beginSnapshot();
+        int size = successorsHelper(root, ts, key, buffer.length, buffer, null, null, 0);
+        endSnapshot();
+        return size;
+    }
+
+    /**
+        Stores the first key-value pair in the range [lo, hi] that satisfies p
+        in result, which is also the Element p is tested on, so nothing is
+        allocated.
+
+        @return whether a pair in [lo, hi] satisfies p
+    */
+    public final boolean findIf(final long lo, final long hi, final Predicate<Element<Long,V>> p, final Element<Long,V> result) {
+        long ts = beginSnapshot();
+        boolean found = findIfHelper(root, ts, lo, hi, p, result);
+        endSnapshot();
+        return found;
+    }
+
+    /**
+        The *At queries read the tree as it was at timestamp ts of its camera,
+        such as an earlier Snapshot.timestamp() or camera.timestampAgo(30,
+        TimeUnit.SECONDS), without keeping a snapshot open in the meantime.
+
+        @throws IllegalArgumentException if ts is in the future, or older than
+                what the camera's retention window (Camera.retain) keeps
+    */
+    public final V getAt(final long key, final long ts) {
+        beginSnapshotAt(ts);
+        V value = get(key, ts);
+        endSnapshotAt(ts);
+        return value;
+    }
+
+    public final Object[] rangeScanAt(final long a, final long b, final long ts) {
+        beginSnapshotAt(ts);
+        Object[] result = rangeScan(a, b, ts);
+        endSnapshotAt(ts);
+        return result;
+    }
+
+    public final Element<Long,V>[] successorsAt(final long key, final int numSuccessors, final long ts) {
+        beginSnapshotAt(ts);
+        Element<Long,V>[] result = successors(key, numSuccessors, ts);
+        endSnapshotAt(ts);
+        return result;
+    }
+
+    /**
+        Takes a snapshot of the tree that can be queried any number of times.
+        The snapshot keeps the current thread announced in the epoch until it
+        is closed, so it must be used and closed by the thread that took it,
+        preferably with try-with-resources.
+
+        @return a handle whose queries all run at the same timestamp
+    */
+    public final Snapshot snapshot() {
+        return new Snapshot(beginSnapshot());
+    }
+
+    /**
+        A fixed timestamp of the tree. All queries on a Snapshot observe the
+        tree as it was when the snapshot was taken, so results of different
+        queries are mutually consistent.
+    */
+    public final class Snapshot implements AutoCloseable {
+        private final long ts;
+        private boolean closed;
+
+        private Snapshot(final long ts) {
+            this.ts = ts;
+        }
+
+        public long timestamp() {
+            return ts;
+        }
+
+        public V get(final long key) {
+            checkOpen();
+            return VcasLongBatchBSTMap.this.get(key, ts);
+        }
+
+        public boolean containsKey(final long key) {
+            return get(key) != null;
+        }
+
+        public Object[] rangeScan(final long a, final long b) {
+            checkOpen();
+            return VcasLongBatchBSTMap.this.rangeScan(a, b, ts);
+        }
+
+        public long rangeSum(final long a, final long b) {
+            checkOpen();
+            return aggregate(root, ts, a, b, true, true, false);
+        }
+
+        public int rangeCount(final long a, final long b) {
+            checkOpen();
+            return (int) aggregate(root, ts, a, b, true, true, true);
+        }
+
+        /**
+            @return The first 'numSuccessors' key-value pairs that compare greater than or equal to 'key'
+        */
+        public Element<Long,V>[] successors(final long key, final int numSuccessors) {
+            checkOpen();
+            return VcasLongBatchBSTMap.this.successors(key, numSuccessors, ts);
+        }
+
+        // stores the successors in keys and values (unless null) instead; @return their number
+        public int successors(final long key, final long[] keys, final V[] values) {
+            checkOpen();
+            if(values != null && values.length < keys.length) throw new IllegalArgumentException("values is shorter than keys");
+            return successorsHelper(root, ts, key, keys.length, null, keys, values, 0);
+        }
+
+        // stores the successors in buffer, reusing the Elements already there; @return their number
+        public int successors(final long key, final Element<Long,V>[] buffer) {
+            checkOpen();
+            return successorsHelper(root, ts, key, buffer.length, buffer, null, null, 0);
+        }
+
+        /**
+            @return the first key-value pair in the range [lo, hi] that statisfies p
+        */
+        public Element<Long,V> findIf(final long lo, final long hi, final Predicate<Element<Long,V>> p) {
+            checkOpen();
+            Element<Long,V> e = new Element<Long,V>();
+            return findIfHelper(root, ts, lo, hi, p, e) ? e : null;
+        }
+
+        // stores the pair found in result, which p is tested on; @return whether there is one
+        public boolean findIf(final long lo, final long hi, final Predicate<Element<Long,V>> p, final Element<Long,V> result) {
+            checkOpen();
+            return findIfHelper(root, ts, lo, hi, p, result);
+        }
+
+        public Object[] multiSearch(final long[] keys) {
+            checkOpen();
+            if(keys == null) return null;
+            return VcasLongBatchBSTMap.this.multiSearch(keys, ts);
+        }
+
+        private void checkOpen() {
+            if(closed) throw new IllegalStateException("snapshot is closed");
+        }
+
+        @Override
+        public void close() {
+            if(closed) return;
+            closed = true;
+            endSnapshot();
+        }
+    }
+
+    /**
+        Sums (or counts) the mappings with keys in [a,b] at timestamp ts without
+        materializing them. Leaves entirely inside the range contribute their
+        cached sum or their size, so only the two boundary leaves are searched;
+        the cost is O(depth + leaves in range), as in VcasBatchBSTMapGC.
+    */
+    private final long aggregate(final Node node, final long ts, final long a, final long b, final boolean leftOpen, final boolean rightOpen, final boolean count) {
+        if (node == null) return 0;
+        if (node instanceof LeafNode) {
+            LeafNode l = (LeafNode) node;
+            if(!leftOpen && !rightOpen)
+                return count ? l.getSize() : l.getValueSum();
+            int startIndex = leftOpen ? l.lowerBound(a) : 0;
+            int endIndex = rightOpen ? l.upperBound(b) : l.getSize()-1;
+            if(startIndex > endIndex) return 0;
+            return count ? endIndex-startIndex+1 : l.sumValues(startIndex, endIndex+1);
+        }
+        InternalNode n = (InternalNode) node;
+        if(!leftOpen && !rightOpen)
+            return aggregate(n.getLeft(ts), ts, a, b, false, false, count) + aggregate(n.getRight(ts), ts, a, b, false, false, count);
+        else if (a >= n.key)           // node's key is below the lower limit of [a,b]
+            return aggregate(n.getRight(ts), ts, a, b, leftOpen, rightOpen, count);
+        else if (b < n.key)       // node's key is above the upper limit of [a,b]
+            return aggregate(n.getLeft(ts), ts, a, b, leftOpen, rightOpen, count);
+        else
+            return aggregate(n.getLeft(ts), ts, a, b, leftOpen, false, count) + aggregate(n.getRight(ts), ts, a, b, false, rightOpen, count);
+    }
+
+    // sum of the values (which must be Numbers, read as longs) of the keys between a and b
+    public final long rangeSum(final long a, final long b) {
+        long ts = beginSnapshot();
+        long sum = aggregate(root, ts, a, b, true, true, false);
+        endSnapshot();
+        return sum;
+    }
+
+    // number of keys between a and b
+    public final int rangeCount(final long a, final long b) {
+        long ts = beginSnapshot();
+        long count = aggregate(root, ts, a, b, true, true, true);
+        endSnapshot();
+        return (int) count;
+    }
+
+    /**
+     *
+     * DEBUG CODE (FOR TESTBED)
+     *
+     */
+
+    public long getSumOfKeys() {
+        return getKeysum(root);
+    }
+
+    private long getKeysum(final Node node) {
+        if (node == null) return 0;
+        if (node instanceof LeafNode) return ((LeafNode)node).getSum();
+        return getKeysum(((InternalNode)node).getLeft()) + getKeysum(((InternalNode)node).getRight());
+    }
+
+    /**
+     * size() is NOT a constant time method, and the result is only guaranteed to
+     * be consistent if no concurrent updates occur.
+     */
+    public final int size() {
+        return sequentialSize(root);
+    }
+
+    public final LeafSearch getLeafSearch() {
+        return search;
+    }
+
+    private int sequentialSize(final Node node) {
+        if (node == null) return 0;
+        if (node instanceof LeafNode) return ((LeafNode)node).getSize();
+        InternalNode n = (InternalNode) node;
+        return sequentialSize(n.getLeft()) + sequentialSize(n.getRight());
+    }
+}
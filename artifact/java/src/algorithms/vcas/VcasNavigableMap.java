@@ -0,0 +1,715 @@
+package algorithms.vcas;
+
+/*
+A ConcurrentNavigableMap over a vCAS tree, returned by the asNavigableMap()
+methods of VcasBatchBSTMapGC and VcasBatchChromaticMapGC, so that the trees
+can be used wherever a ConcurrentSkipListMap is.
+
+Updates and lookups of a single key go straight to the tree and are
+linearizable. Queries that involve more than one key run on a Camera
+snapshot rather than on a weakly consistent traversal:
+  - firstKey, floorEntry, ceilingEntry, pollFirstEntry, ... are single
+    descents of the tree at a snapshot
+  - iterators (of entrySet, keySet, values, and of every view) copy the
+    mappings of their view at a snapshot when they are created. They see no
+    later update and hold no snapshot open while they are used, at the price
+    of O(size of the view) memory
+  - size() is the tree's linearizable size for an unbounded map, and a count
+    at a snapshot for a bounded view
+subMap, headMap, tailMap and descendingMap return views sharing the tree, as
+in ConcurrentSkipListMap: updates through a view must be within its range,
+and each query on a view takes its own snapshot. Entries are immutable and
+null keys and values are not allowed.
+*/
+
+import main.support.Element;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+
+public class VcasNavigableMap<K extends Comparable<? super K>, V> extends AbstractMap<K,V> implements ConcurrentNavigableMap<K,V> {
+
+    // what the map needs from a tree; queries taking ts read the snapshot
+    // of the calling thread's last beginSnapshot()
+    interface Tree<K,V> {
+        V get(K key);
+        V put(K key, V value);
+        V putIfAbsent(K key, V value);
+        V remove(K key);
+        boolean remove(K key, V value);
+        V replace(K key, V value);
+        boolean replace(K key, V oldValue, V newValue);
+        V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction);
+        V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction);
+        V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction);
+        V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction);
+        int size();
+
+        long beginSnapshot();
+        void endSnapshot();
+        Element<K,V> first(long ts);
+        Element<K,V> last(long ts);
+        Element<K,V>[] successors(K key, int numSuccessors, long ts);
+        Element<K,V>[] predecessors(K key, int numPredecessors, long ts);
+        boolean visit(K a, K b, long ts, BiPredicate<? super K, ? super V> visitor);
+
+        // for DurableMap
+        long timestamp();
+        long checkpoint(Path file, Checkpoint.Codec<? super K> keyCodec, Checkpoint.Codec<? super V> valueCodec, long ts) throws IOException;
+    }
+
+    private final Tree<K,V> tree;
+    // range of this view, in key order even if it is descending; null if unbounded
+    private final K lo, hi;
+    private final boolean loInclusive, hiInclusive;
+    private final boolean descending;
+
+    private KeySet keySet;
+    private EntrySet entrySet;
+    private Values values;
+
+    VcasNavigableMap(final Tree<K,V> tree) {
+        this(tree, null, false, null, false, false);
+    }
+
+    private VcasNavigableMap(final Tree<K,V> tree, final K lo, final boolean loInclusive, final K hi, final boolean hiInclusive, final boolean descending) {
+        if (lo != null && hi != null && lo.compareTo(hi) > 0) throw new IllegalArgumentException("inconsistent range");
+        this.tree = tree;
+        this.lo = lo;
+        this.loInclusive = loInclusive;
+        this.hi = hi;
+        this.hiInclusive = hiInclusive;
+        this.descending = descending;
+    }
+
+    /* range checks */
+
+    private boolean tooLow(final K key) {
+        if (lo == null) return false;
+        int c = key.compareTo(lo);
+        return c < 0 || (c == 0 && !loInclusive);
+    }
+
+    private boolean tooHigh(final K key) {
+        if (hi == null) return false;
+        int c = key.compareTo(hi);
+        return c > 0 || (c == 0 && !hiInclusive);
+    }
+
+    private boolean inRange(final K key) {
+        return !tooLow(key) && !tooHigh(key);
+    }
+
+    private static <K> K checkKey(final Object key) {
+        if (key == null) throw new NullPointerException();
+        return (K) key;
+    }
+
+    // a key about to be inserted through this view
+    private K checkRange(final K key) {
+        if (key == null) throw new NullPointerException();
+        if (!inRange(key)) throw new IllegalArgumentException("key out of range");
+        return key;
+    }
+
+    /* searches, in key order regardless of descending */
+
+    // the first mapping of this view above key (or at it, if inclusive); the first of all if key is null
+    private Element<K,V> ceiling(K key, boolean inclusive, final long ts) {
+        if (key == null || tooLow(key)) {
+            key = lo;
+            inclusive = loInclusive;
+        }
+        Element<K,V> e = null;
+        if (key == null) {
+            e = tree.first(ts);
+        } else {
+            for (Element<K,V> f : tree.successors(key, 2, ts)) {
+                if (inclusive || f.key.compareTo(key) > 0) {
+                    e = f;
+                    break;
+                }
+            }
+        }
+        return (e == null || tooHigh(e.key)) ? null : e;
+    }
+
+    // the last mapping of this view below key (or at it, if inclusive); the last of all if key is null
+    private Element<K,V> floor(K key, boolean inclusive, final long ts) {
+        if (key == null || tooHigh(key)) {
+            key = hi;
+            inclusive = hiInclusive;
+        }
+        Element<K,V> e = null;
+        if (key == null) {
+            e = tree.last(ts);
+        } else {
+            for (Element<K,V> f : tree.predecessors(key, 2, ts)) {
+                if (inclusive || f.key.compareTo(key) < 0) {
+                    e = f;
+                    break;
+                }
+            }
+        }
+        return (e == null || tooLow(e.key)) ? null : e;
+    }
+
+    // the result of ceiling() (or floor(), if !above) at a new snapshot
+    private Element<K,V> find(final K key, final boolean inclusive, final boolean above) {
+        long ts = tree.beginSnapshot();
+        Element<K,V> e = above ? ceiling(key, inclusive, ts) : floor(key, inclusive, ts);
+        tree.endSnapshot();
+        return e;
+    }
+
+    // in the order of this view
+    private Element<K,V> findFirst() {
+        return find(null, true, !descending);
+    }
+
+    private Element<K,V> findLast() {
+        return find(null, true, descending);
+    }
+
+    private static <K,V> Map.Entry<K,V> entry(final Element<K,V> e) {
+        return e == null ? null : new SimpleImmutableEntry<K,V>(e.key, e.value);
+    }
+
+    private static <K,V> K key(final Element<K,V> e) {
+        return e == null ? null : e.key;
+    }
+
+    /**
+        The mappings of this view at a single snapshot, in ascending key order:
+        keys at even indices, each followed by its value.
+    */
+    private Object[] entries() {
+        final ArrayList<Object> result = new ArrayList<Object>();
+        long ts = tree.beginSnapshot();
+        Element<K,V> first = ceiling(null, true, ts);
+        Element<K,V> last = floor(null, true, ts);
+        if (first != null && last != null && first.key.compareTo(last.key) <= 0) {
+            tree.visit(first.key, last.key, ts, (k, v) -> {
+                result.add(k);
+                result.add(v);
+                return true;
+            });
+        }
+        tree.endSnapshot();
+        return result.toArray();
+    }
+
+    /* Map and ConcurrentMap */
+
+    @Override
+    public V get(final Object key) {
+        K k = checkKey(key);
+        return inRange(k) ? tree.get(k) : null;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public boolean containsValue(final Object value) {
+        if (value == null) throw new NullPointerException();
+        Object[] entries = entries();
+        for (int i = 1; i < entries.length; i += 2)
+            if (value.equals(entries[i])) return true;
+        return false;
+    }
+
+    @Override
+    public V put(final K key, final V value) {
+        if (value == null) throw new NullPointerException();
+        return tree.put(checkRange(key), value);
+    }
+
+    @Override
+    public V putIfAbsent(final K key, final V value) {
+        if (value == null) throw new NullPointerException();
+        return tree.putIfAbsent(checkRange(key), value);
+    }
+
+    @Override
+    public V remove(final Object key) {
+        K k = checkKey(key);
+        return inRange(k) ? tree.remove(k) : null;
+    }
+
+    @Override
+    public boolean remove(final Object key, final Object value) {
+        K k = checkKey(key);
+        return value != null && inRange(k) && tree.remove(k, (V) value);
+    }
+
+    @Override
+    public V replace(final K key, final V value) {
+        if (value == null) throw new NullPointerException();
+        return tree.replace(checkRange(key), value);
+    }
+
+    @Override
+    public boolean replace(final K key, final V oldValue, final V newValue) {
+        if (oldValue == null || newValue == null) throw new NullPointerException();
+        return tree.replace(checkRange(key), oldValue, newValue);
+    }
+
+    @Override
+    public V compute(final K key, final BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (remappingFunction == null) throw new NullPointerException();
+        return tree.compute(checkRange(key), remappingFunction);
+    }
+
+    @Override
+    public V computeIfAbsent(final K key, final Function<? super K, ? extends V> mappingFunction) {
+        if (mappingFunction == null) throw new NullPointerException();
+        return tree.computeIfAbsent(checkRange(key), mappingFunction);
+    }
+
+    @Override
+    public V computeIfPresent(final K key, final BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (remappingFunction == null) throw new NullPointerException();
+        return inRange(checkKey(key)) ? tree.computeIfPresent(key, remappingFunction) : null;
+    }
+
+    @Override
+    public V merge(final K key, final V value, final BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        if (value == null || remappingFunction == null) throw new NullPointerException();
+        return tree.merge(checkRange(key), value, remappingFunction);
+    }
+
+    @Override
+    public int size() {
+        if (lo == null && hi == null) return tree.size();
+        final int[] count = new int[1];
+        long ts = tree.beginSnapshot();
+        Element<K,V> first = ceiling(null, true, ts);
+        Element<K,V> last = floor(null, true, ts);
+        if (first != null && last != null && first.key.compareTo(last.key) <= 0) {
+            tree.visit(first.key, last.key, ts, (k, v) -> {
+                count[0]++;
+                return true;
+            });
+        }
+        tree.endSnapshot();
+        return count[0];
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return findFirst() == null;
+    }
+
+    // removes the keys of this view at a snapshot; keys inserted meanwhile may remain
+    @Override
+    public void clear() {
+        Object[] entries = entries();
+        for (int i = 0; i < entries.length; i += 2)
+            tree.remove((K) entries[i]);
+    }
+
+    /* NavigableMap */
+
+    @Override
+    public Comparator<? super K> comparator() {
+        return descending ? Collections.reverseOrder() : null;
+    }
+
+    @Override
+    public K firstKey() {
+        Element<K,V> e = findFirst();
+        if (e == null) throw new NoSuchElementException();
+        return e.key;
+    }
+
+    @Override
+    public K lastKey() {
+        Element<K,V> e = findLast();
+        if (e == null) throw new NoSuchElementException();
+        return e.key;
+    }
+
+    @Override
+    public Map.Entry<K,V> firstEntry() {
+        return entry(findFirst());
+    }
+
+    @Override
+    public Map.Entry<K,V> lastEntry() {
+        return entry(findLast());
+    }
+
+    @Override
+    public Map.Entry<K,V> lowerEntry(final K key) {
+        return entry(find(checkKey(key), false, descending));
+    }
+
+    @Override
+    public K lowerKey(final K key) {
+        return key(find(checkKey(key), false, descending));
+    }
+
+    @Override
+    public Map.Entry<K,V> floorEntry(final K key) {
+        return entry(find(checkKey(key), true, descending));
+    }
+
+    @Override
+    public K floorKey(final K key) {
+        return key(find(checkKey(key), true, descending));
+    }
+
+    @Override
+    public Map.Entry<K,V> ceilingEntry(final K key) {
+        return entry(find(checkKey(key), true, !descending));
+    }
+
+    @Override
+    public K ceilingKey(final K key) {
+        return key(find(checkKey(key), true, !descending));
+    }
+
+    @Override
+    public Map.Entry<K,V> higherEntry(final K key) {
+        return entry(find(checkKey(key), false, !descending));
+    }
+
+    @Override
+    public K higherKey(final K key) {
+        return key(find(checkKey(key), false, !descending));
+    }
+
+    // retries if the first mapping changes before it is removed
+    @Override
+    public Map.Entry<K,V> pollFirstEntry() {
+        while (true) {
+            Element<K,V> e = findFirst();
+            if (e == null) return null;
+            if (tree.remove(e.key, e.value)) return entry(e);
+        }
+    }
+
+    @Override
+    public Map.Entry<K,V> pollLastEntry() {
+        while (true) {
+            Element<K,V> e = findLast();
+            if (e == null) return null;
+            if (tree.remove(e.key, e.value)) return entry(e);
+        }
+    }
+
+    /* views */
+
+    // the part of this view between newLo and newHi (in key order, null if unbounded)
+    private VcasNavigableMap<K,V> subView(K newLo, boolean newLoInclusive, K newHi, boolean newHiInclusive) {
+        if (lo != null) {
+            if (newLo == null) {
+                newLo = lo;
+                newLoInclusive = loInclusive;
+            } else {
+                int c = newLo.compareTo(lo);
+                if (c < 0 || (c == 0 && !loInclusive && newLoInclusive)) throw new IllegalArgumentException("key out of range");
+            }
+        }
+        if (hi != null) {
+            if (newHi == null) {
+                newHi = hi;
+                newHiInclusive = hiInclusive;
+            } else {
+                int c = newHi.compareTo(hi);
+                if (c > 0 || (c == 0 && !hiInclusive && newHiInclusive)) throw new IllegalArgumentException("key out of range");
+            }
+        }
+        return new VcasNavigableMap<K,V>(tree, newLo, newLoInclusive, newHi, newHiInclusive, descending);
+    }
+
+    @Override
+    public ConcurrentNavigableMap<K,V> subMap(final K fromKey, final boolean fromInclusive, final K toKey, final boolean toInclusive) {
+        checkKey(fromKey);
+        checkKey(toKey);
+        return descending ? subView(toKey, toInclusive, fromKey, fromInclusive) : subView(fromKey, fromInclusive, toKey, toInclusive);
+    }
+
+    @Override
+    public ConcurrentNavigableMap<K,V> headMap(final K toKey, final boolean inclusive) {
+        checkKey(toKey);
+        return descending ? subView(toKey, inclusive, null, false) : subView(null, false, toKey, inclusive);
+    }
+
+    @Override
+    public ConcurrentNavigableMap<K,V> tailMap(final K fromKey, final boolean inclusive) {
+        checkKey(fromKey);
+        return descending ? subView(null, false, fromKey, inclusive) : subView(fromKey, inclusive, null, false);
+    }
+
+    @Override
+    public ConcurrentNavigableMap<K,V> subMap(final K fromKey, final K toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    @Override
+    public ConcurrentNavigableMap<K,V> headMap(final K toKey) {
+        return headMap(toKey, false);
+    }
+
+    @Override
+    public ConcurrentNavigableMap<K,V> tailMap(final K fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    @Override
+    public ConcurrentNavigableMap<K,V> descendingMap() {
+        return new VcasNavigableMap<K,V>(tree, lo, loInclusive, hi, hiInclusive, !descending);
+    }
+
+    @Override
+    public NavigableSet<K> navigableKeySet() {
+        if (keySet == null) keySet = new KeySet();
+        return keySet;
+    }
+
+    @Override
+    public NavigableSet<K> keySet() {
+        return navigableKeySet();
+    }
+
+    @Override
+    public NavigableSet<K> descendingKeySet() {
+        return descendingMap().navigableKeySet();
+    }
+
+    @Override
+    public Set<Map.Entry<K,V>> entrySet() {
+        if (entrySet == null) entrySet = new EntrySet();
+        return entrySet;
+    }
+
+    @Override
+    public Collection<V> values() {
+        if (values == null) values = new Values();
+        return values;
+    }
+
+    // iterates over the mappings of this view at the snapshot taken by entries()
+    private abstract class SnapshotIterator<T> implements Iterator<T> {
+        private final Object[] entries = entries();
+        private int next = descending ? entries.length-2 : 0; // index of the next key
+        private K lastReturned;
+
+        public final boolean hasNext() {
+            return next >= 0 && next < entries.length;
+        }
+
+        // index of the next key, which becomes the last returned
+        final int advance() {
+            if (!hasNext()) throw new NoSuchElementException();
+            int i = next;
+            next += descending ? -2 : 2;
+            lastReturned = (K) entries[i];
+            return i;
+        }
+
+        final K keyAt(final int i) {
+            return (K) entries[i];
+        }
+
+        final V valueAt(final int i) {
+            return (V) entries[i+1];
+        }
+
+        // removes the key of the last mapping returned from the map
+        public final void remove() {
+            if (lastReturned == null) throw new IllegalStateException();
+            tree.remove(lastReturned);
+            lastReturned = null;
+        }
+    }
+
+    private final class EntryIterator extends SnapshotIterator<Map.Entry<K,V>> {
+        public Map.Entry<K,V> next() {
+            int i = advance();
+            return new SimpleImmutableEntry<K,V>(keyAt(i), valueAt(i));
+        }
+    }
+
+    private final class KeyIterator extends SnapshotIterator<K> {
+        public K next() {
+            return keyAt(advance());
+        }
+    }
+
+    private final class ValueIterator extends SnapshotIterator<V> {
+        public V next() {
+            return valueAt(advance());
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<K,V>> {
+        public Iterator<Map.Entry<K,V>> iterator() {
+            return new EntryIterator();
+        }
+
+        public int size() {
+            return VcasNavigableMap.this.size();
+        }
+
+        public boolean isEmpty() {
+            return VcasNavigableMap.this.isEmpty();
+        }
+
+        public boolean contains(final Object o) {
+            if (!(o instanceof Map.Entry)) return false;
+            Map.Entry<?,?> e = (Map.Entry<?,?>) o;
+            V v = (e.getKey() == null) ? null : VcasNavigableMap.this.get(e.getKey());
+            return v != null && v.equals(e.getValue());
+        }
+
+        public boolean remove(final Object o) {
+            if (!(o instanceof Map.Entry)) return false;
+            Map.Entry<?,?> e = (Map.Entry<?,?>) o;
+            return e.getKey() != null && VcasNavigableMap.this.remove(e.getKey(), e.getValue());
+        }
+
+        public void clear() {
+            VcasNavigableMap.this.clear();
+        }
+    }
+
+    private final class Values extends AbstractCollection<V> {
+        public Iterator<V> iterator() {
+            return new ValueIterator();
+        }
+
+        public int size() {
+            return VcasNavigableMap.this.size();
+        }
+
+        public boolean isEmpty() {
+            return VcasNavigableMap.this.isEmpty();
+        }
+
+        public boolean contains(final Object o) {
+            return VcasNavigableMap.this.containsValue(o);
+        }
+
+        public void clear() {
+            VcasNavigableMap.this.clear();
+        }
+    }
+
+    private final class KeySet extends AbstractSet<K> implements NavigableSet<K> {
+        public Iterator<K> iterator() {
+            return new KeyIterator();
+        }
+
+        public Iterator<K> descendingIterator() {
+            return descendingSet().iterator();
+        }
+
+        public int size() {
+            return VcasNavigableMap.this.size();
+        }
+
+        public boolean isEmpty() {
+            return VcasNavigableMap.this.isEmpty();
+        }
+
+        public boolean contains(final Object o) {
+            return containsKey(o);
+        }
+
+        public boolean remove(final Object o) {
+            return VcasNavigableMap.this.remove(o) != null;
+        }
+
+        public void clear() {
+            VcasNavigableMap.this.clear();
+        }
+
+        public Comparator<? super K> comparator() {
+            return VcasNavigableMap.this.comparator();
+        }
+
+        public K first() {
+            return firstKey();
+        }
+
+        public K last() {
+            return lastKey();
+        }
+
+        public K lower(final K key) {
+            return lowerKey(key);
+        }
+
+        public K floor(final K key) {
+            return floorKey(key);
+        }
+
+        public K ceiling(final K key) {
+            return ceilingKey(key);
+        }
+
+        public K higher(final K key) {
+            return higherKey(key);
+        }
+
+        public K pollFirst() {
+            Map.Entry<K,V> e = pollFirstEntry();
+            return e == null ? null : e.getKey();
+        }
+
+        public K pollLast() {
+            Map.Entry<K,V> e = pollLastEntry();
+            return e == null ? null : e.getKey();
+        }
+
+        public NavigableSet<K> descendingSet() {
+            return descendingMap().navigableKeySet();
+        }
+
+        public NavigableSet<K> subSet(final K fromElement, final boolean fromInclusive, final K toElement, final boolean toInclusive) {
+            return subMap(fromElement, fromInclusive, toElement, toInclusive).navigableKeySet();
+        }
+
+        public NavigableSet<K> headSet(final K toElement, final boolean inclusive) {
+            return headMap(toElement, inclusive).navigableKeySet();
+        }
+
+        public NavigableSet<K> tailSet(final K fromElement, final boolean inclusive) {
+            return tailMap(fromElement, inclusive).navigableKeySet();
+        }
+
+        public SortedSet<K> subSet(final K fromElement, final K toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+
+        public SortedSet<K> headSet(final K toElement) {
+            return headSet(toElement, false);
+        }
+
+        public SortedSet<K> tailSet(final K fromElement) {
+            return tailSet(fromElement, true);
+        }
+    }
+}
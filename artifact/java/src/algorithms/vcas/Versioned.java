@@ -0,0 +1,104 @@
+package algorithms.vcas;
+
+/*
+Base class for objects stored in versioned (vCAS) fields, following
+"Constant-Time Snapshots with Applications to Concurrent Data Structures"
+Yuanhao Wei, Naama Ben-David, Guy E. Blelloch, Panagiota Fatourou, Eric Ruppert, Yihan Sun
+PPoPP 2021
+
+Each object doubles as its own version record: ts is the Camera timestamp at
+which it was installed and nextv points to the value it replaced. Objects are
+handled through a VcasAtomicReferenceFieldUpdater (or a VersionedReference).
+
+Copyright (C) 2021 Yuanhao Wei
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import main.support.Reclaimable;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+public abstract class Versioned extends Reclaimable {
+  public static final long TBD = -1;      // not installed yet
+  public static final long STAMPING = -2; // installed, timestamp being chosen
+
+  public volatile long ts;
+  volatile Versioned nextv;
+
+  static final AtomicLongFieldUpdater<Versioned> tsUpdater = AtomicLongFieldUpdater.newUpdater(Versioned.class, "ts");
+  static final AtomicReferenceFieldUpdater<Versioned, Versioned> nextvUpdater = AtomicReferenceFieldUpdater.newUpdater(Versioned.class, Versioned.class, "nextv");
+  // marks objects that have not been installed anywhere yet
+  static final Versioned dummyNextv = new Versioned() {};
+
+  protected Versioned() {
+    this.nextv = dummyNextv;
+    this.ts = TBD;
+  }
+
+  // called on objects that become reachable without a vCAS (e.g. the initial
+  // children of a newly created node): they have no previous version
+  public final void init(Camera camera) {
+    if(nextv == dummyNextv) {
+      initTS(camera);
+      nextv = null;
+    }
+  }
+
+  // Called by every thread that finds this object installed, before it reads
+  // ts. The object is first moved to STAMPING, so that a thread that saw TBD
+  // knows every timestamp read for it afterwards is newer (SnapshotCounter
+  // relies on this).
+  public final void initTS(Camera camera) {
+    if(ts < 0) {
+      if(ts == TBD) tsUpdater.compareAndSet(this, TBD, STAMPING);
+      long curTS = camera.read();
+      tsUpdater.compareAndSet(this, STAMPING, curTS);
+    }
+  }
+
+  // whether initTS() was called, so that the object is or was installed
+  public final boolean isInstalled() {
+    return ts != TBD;
+  }
+
+  // the version this object replaced, or null
+  public final Versioned nextVersion() {
+    Versioned next = nextv;
+    return next == dummyNextv ? null : next;
+  }
+
+  // Unlinks the versions older than the newest one with a timestamp at or
+  // below bound. No snapshot at or above bound can reach them.
+  public final void truncate(long bound) {
+    Versioned node = this;
+    while(node != null && node.ts > bound)
+      node = node.nextv;
+    if(node != null && node.nextv != null)
+      node.nextv = null;
+  }
+
+  public void reclaim() {
+    nextv = null;
+  }
+
+  // What reclaim() does for objects installed with camera: while it retains
+  // history (Camera.retain or Camera.pin), only the versions that no retained
+  // or announced snapshot can read are cut off.
+  protected final void reclaim(Camera camera) {
+    if(camera.retainsHistory()) truncate(camera.oldestActiveSnapshot());
+    else nextv = null;
+  }
+}
@@ -0,0 +1,55 @@
+package algorithms.vcas;
+
+/*
+A standalone vCAS object: an AtomicReference whose past values can be read at
+any snapshot timestamp of its Camera. For fields embedded in nodes, use a
+VcasAtomicReferenceFieldUpdater instead to avoid the extra indirection.
+
+Copyright (C) 2021 Yuanhao Wei
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import main.support.Epoch;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+public class VersionedReference<V extends Versioned> {
+  private volatile V value;
+
+  private static final VcasAtomicReferenceFieldUpdater<VersionedReference, Versioned> valueUpdater =
+      new VcasAtomicReferenceFieldUpdater<VersionedReference, Versioned>(AtomicReferenceFieldUpdater.newUpdater(VersionedReference.class, Versioned.class, "value"));
+
+  private final Camera camera;
+  private final Epoch<? super V> epoch;
+
+  public VersionedReference(V initial, Camera camera, Epoch<? super V> epoch) {
+    this.camera = camera;
+    this.epoch = epoch;
+    if(initial != null) initial.init(camera);
+    this.value = initial;
+  }
+
+  public V get() {
+    return (V) valueUpdater.get(this, camera);
+  }
+
+  public V get(long ts) {
+    return (V) valueUpdater.get(this, ts, camera);
+  }
+
+  public boolean compareAndSet(V oldV, V newV) {
+    return valueUpdater.compareAndSet(this, oldV, newV, camera, (Epoch<? super Versioned>) (Epoch) epoch);
+  }
+}
@@ -0,0 +1,380 @@
+package algorithms.vcas;
+
+/*
+Write-ahead log of the updates of a vCAS tree, used through DurableMap (see
+the withLog() methods of VcasBatchBSTMapGC and VcasBatchChromaticMapGC).
+
+Every successful putIfAbsent or remove appends one record to an in-memory
+buffer, which goes to the current segment file when it fills or when a
+thread waits for its record to be durable:
+
+  int length of the rest, int CRC32 of the rest, byte PUT or REMOVE,
+  the key, and for PUT the value, as written by the Checkpoint codecs
+
+How long an update waits depends on the Sync policy. With ALWAYS, updates
+use group commit: the first waiter writes out the buffer and forces the
+file while the others keep appending, then one of the threads that waited
+during that fsync forces everything they appended with a single one. So
+the number of fsyncs adapts to the update rate instead of being one per
+update.
+
+Segments are named wal-<sequence number>.log in the log directory and a new
+one is started once the current one exceeds segmentBytes. Each segment
+remembers the largest Camera timestamp read after the updates it logs, so
+that once a checkpoint of a snapshot at ts is on disk, truncate(ts) deletes
+the segments that the checkpoint contains. Replaying a record that is also
+in the checkpoint is harmless, because replay() applies records as blind
+writes and records of the same key are logged in the order the updates took
+effect (DurableMap serializes the updates of a key with a lock striped by
+key while they are logged).
+*/
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+public final class WriteAheadLog<K,V> implements AutoCloseable {
+  public enum Sync {
+    ALWAYS,   // an update returns once its record is on disk
+    INTERVAL, // a background thread forces the log every syncMillis, so a crash loses at most that much
+    NONE      // records are written when the buffer fills; when they reach the disk is up to the OS
+  }
+
+  static final byte PUT = 1;
+  static final byte REMOVE = 2;
+  public static final int RECORD_HEADER_SIZE = 9;
+  public static final int BUFFER_SIZE = 1 << 20;
+  public static final long DEFAULT_SYNC_MILLIS = 10;
+  public static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+  public static final long MAX_SEGMENT_BYTES = 1L << 30; // so that replay can map a whole segment
+
+  private static final class Segment {
+    final Path path;
+    long maxTimestamp = Long.MIN_VALUE; // of the updates logged in it
+
+    Segment(Path path) {
+      this.path = path;
+    }
+  }
+
+  private final Path dir;
+  private final Checkpoint.Codec<? super K> keyCodec;
+  private final Checkpoint.Codec<? super V> valueCodec;
+  private final Sync sync;
+  private final long segmentBytes;
+  private final Thread syncer; // for INTERVAL
+
+  // guarded by this
+  private final ArrayDeque<Segment> sealed = new ArrayDeque<Segment>();
+  private final CRC32 crc = new CRC32();
+  private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private Segment current;
+  private FileChannel channel;
+  private long nextSequence;
+  private long appended; // bytes appended since the log was opened
+  private long written;  // of which handed to the channel
+  private long durable;  // of which forced to disk
+  private boolean forcing;
+  private boolean closed;
+  private IOException failure; // of the syncer
+  private volatile boolean stopping; // the syncer is not interrupted, as that would close the channel it forces
+
+  public WriteAheadLog(final Path dir, final Checkpoint.Codec<? super K> keyCodec, final Checkpoint.Codec<? super V> valueCodec, final Sync sync) throws IOException {
+    this(dir, keyCodec, valueCodec, sync, DEFAULT_SYNC_MILLIS, DEFAULT_SEGMENT_BYTES);
+  }
+
+  /**
+    Opens a log in dir, starting a new segment after the existing ones. The
+    existing segments are taken to be contained in any later checkpoint, so
+    they must have been replayed into the tree before it is logged again.
+
+    @param syncMillis    interval between fsyncs with Sync.INTERVAL
+    @param segmentBytes  size after which a new segment is started
+  */
+  public WriteAheadLog(final Path dir, final Checkpoint.Codec<? super K> keyCodec, final Checkpoint.Codec<? super V> valueCodec, final Sync sync, final long syncMillis, final long segmentBytes) throws IOException {
+    if (segmentBytes < 1 || segmentBytes > MAX_SEGMENT_BYTES) throw new IllegalArgumentException("segmentBytes must be in [1, " + MAX_SEGMENT_BYTES + "]");
+    if (sync == Sync.INTERVAL && syncMillis < 1) throw new IllegalArgumentException("syncMillis must be positive");
+    this.dir = dir;
+    this.keyCodec = keyCodec;
+    this.valueCodec = valueCodec;
+    this.sync = sync;
+    this.segmentBytes = segmentBytes;
+    Files.createDirectories(dir);
+    for (Path path : segments(dir)) {
+      sealed.add(new Segment(path));
+      nextSequence = sequence(path) + 1;
+    }
+    openSegment();
+    if (sync == Sync.INTERVAL) {
+      syncer = new Thread(() -> {
+        try {
+          while (!stopping) {
+            Thread.sleep(syncMillis);
+            sync();
+          }
+        } catch (InterruptedException e) {
+          // exit
+        } catch (IOException e) {
+          synchronized (this) {
+            failure = e;
+          }
+        }
+      }, "wal-sync");
+      syncer.setDaemon(true);
+      syncer.start();
+    } else {
+      syncer = null;
+    }
+  }
+
+  public Sync policy() {
+    return sync;
+  }
+
+  public Path directory() {
+    return dir;
+  }
+
+  // number of segment files, including the current one
+  public synchronized int segments() {
+    return sealed.size() + 1;
+  }
+
+  private static ArrayList<Path> segments(final Path dir) throws IOException {
+    ArrayList<Path> paths = new ArrayList<Path>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "wal-*.log")) {
+      for (Path path : stream) paths.add(path);
+    }
+    Collections.sort(paths); // the fixed-width sequence numbers sort by name
+    return paths;
+  }
+
+  private static long sequence(final Path path) {
+    String name = path.getFileName().toString();
+    return Long.parseLong(name.substring("wal-".length(), name.length() - ".log".length()), 16);
+  }
+
+  private void openSegment() throws IOException {
+    current = new Segment(dir.resolve(String.format("wal-%016x.log", nextSequence++)));
+    channel = FileChannel.open(current.path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+  }
+
+  /**
+    Appends the record of an update that took effect at a timestamp of at
+    most ts. Must be called in the order in which the updates of a key took
+    effect.
+
+    @return the log position after the record, to pass to awaitDurable
+  */
+  synchronized long append(final byte op, final K key, final V value, final long ts) throws IOException {
+    if (closed) throw new IllegalStateException("log is closed");
+    if (failure != null) throw new IOException("background sync failed", failure);
+    while (true) {
+      int start = buffer.position();
+      try {
+        if (buffer.remaining() < RECORD_HEADER_SIZE) throw new BufferOverflowException();
+        buffer.position(start + RECORD_HEADER_SIZE);
+        keyCodec.write(key, buffer);
+        if (op == PUT) valueCodec.write(value, buffer);
+        int end = buffer.position();
+        buffer.put(start + 8, op);
+        ByteBuffer body = buffer.duplicate().position(start + 8).limit(end);
+        crc.reset();
+        crc.update(body);
+        buffer.putInt(start, end - start - 8);
+        buffer.putInt(start + 4, (int) crc.getValue());
+        appended += end - start;
+        if (ts > current.maxTimestamp) current.maxTimestamp = ts;
+        return appended;
+      } catch (BufferOverflowException e) { // the record does not fit
+        buffer.position(start);
+        if (start > 0) {
+          writeBuffer();
+        } else {
+          buffer = ByteBuffer.allocateDirect(2 * buffer.capacity());
+        }
+      } catch (RuntimeException e) { // from a codec: drop the partial record
+        buffer.position(start);
+        throw e;
+      }
+    }
+  }
+
+  // hands the buffer to the channel, and starts a new segment if this one is full
+  private void writeBuffer() throws IOException {
+    drain();
+    if (channel.position() >= segmentBytes) rotate();
+  }
+
+  private void drain() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) channel.write(buffer);
+    buffer.clear();
+    written = appended;
+  }
+
+  // seals the current segment and starts the next one
+  private void rotate() throws IOException {
+    awaitForcer(); // records appended meanwhile are counted in this segment, so they must go to it
+    drain();
+    channel.force(false);
+    channel.close();
+    if (written > durable) durable = written;
+    notifyAll();
+    sealed.add(current);
+    openSegment();
+  }
+
+  private void awaitForcer() throws IOException {
+    try {
+      while (forcing) wait();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  // waits until position lsn of the log is on disk, if the policy is ALWAYS
+  void awaitDurable(final long lsn) throws IOException {
+    if (sync == Sync.ALWAYS) force(lsn);
+  }
+
+  // forces everything appended so far to disk
+  public void sync() throws IOException {
+    long lsn;
+    synchronized (this) {
+      if (closed) return;
+      lsn = appended;
+    }
+    force(lsn);
+  }
+
+  /*
+  Group commit: a thread that finds nobody forcing writes out everything
+  appended so far and forces it outside the lock, so that other threads can
+  append meanwhile. Threads that find a force in progress wait for it and,
+  if it did not cover them, one of them forces next for all of them.
+  */
+  private void force(final long lsn) throws IOException {
+    while (true) {
+      FileChannel c;
+      long target;
+      synchronized (this) {
+        awaitForcer();
+        if (durable >= lsn) return;
+        if (written < lsn) writeBuffer();
+        if (durable >= lsn) return; // the segment was rotated, which forced it
+        forcing = true;
+        c = channel;
+        target = written;
+      }
+      boolean forced = false;
+      try {
+        c.force(false);
+        forced = true;
+      } finally {
+        synchronized (this) {
+          forcing = false;
+          if (forced && target > durable) durable = target;
+          notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+    Deletes the segments holding only updates that took effect at or before
+    timestamp ts, after a checkpoint of a snapshot at ts has been written
+    (as DurableMap.checkpoint does). The current segment is sealed first if
+    it qualifies, so the log does not grow without bound between checkpoints.
+
+    @return the number of segments deleted
+  */
+  public synchronized int truncate(final long ts) throws IOException {
+    if (closed) throw new IllegalStateException("log is closed");
+    boolean empty = appended == written && channel.position() == 0;
+    if (!empty && current.maxTimestamp <= ts) rotate();
+    int deleted = 0;
+    while (!sealed.isEmpty() && sealed.peekFirst().maxTimestamp <= ts) {
+      Files.deleteIfExists(sealed.pollFirst().path);
+      deleted++;
+    }
+    return deleted;
+  }
+
+  /**
+    Forces the log to disk and closes it. Updates through a DurableMap of
+    this log fail afterwards.
+  */
+  @Override
+  public void close() throws IOException {
+    if (syncer != null) {
+      stopping = true;
+      try {
+        syncer.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    synchronized (this) {
+      if (closed) return;
+      awaitForcer();
+      drain();
+      channel.force(false);
+      channel.close();
+      closed = true;
+    }
+  }
+
+  /**
+    Applies the log in dir to map, oldest segment first: a PUT record becomes
+    map.put and a REMOVE record map.remove. A record that is torn or fails
+    its checksum ends its segment, as it can only be the last one written
+    before a crash.
+
+    @return the number of records applied
+  */
+  public static <K,V> long replay(final Path dir, final Checkpoint.Codec<K> keyCodec, final Checkpoint.Codec<V> valueCodec, final Map<K,V> map) throws IOException {
+    if (!Files.isDirectory(dir)) return 0;
+    long records = 0;
+    CRC32 crc = new CRC32();
+    for (Path path : segments(dir)) {
+      try (FileChannel c = FileChannel.open(path, StandardOpenOption.READ)) {
+        MappedByteBuffer in = c.map(FileChannel.MapMode.READ_ONLY, 0, c.size());
+        while (in.remaining() >= RECORD_HEADER_SIZE) {
+          int start = in.position();
+          int length = in.getInt();
+          int checksum = in.getInt();
+          if (length < 1 || length > in.remaining()) break;
+          crc.reset();
+          crc.update(in.duplicate().limit(start + 8 + length));
+          if ((int) crc.getValue() != checksum) break;
+          byte op = in.get();
+          K key = keyCodec.read(in);
+          if (op == PUT) {
+            map.put(key, valueCodec.read(in));
+          } else if (op == REMOVE) {
+            map.remove(key);
+          } else {
+            throw new IOException("unknown record type " + op + " in " + path);
+          }
+          in.position(start + 8 + length);
+          records++;
+        }
+      }
+    }
+    return records;
+  }
+}
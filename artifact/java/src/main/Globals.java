@@ -38,6 +38,8 @@ public class Globals {
     public static final int QUERY_TYPE_SUCC = 2;
     public static final int QUERY_TYPE_MULTISEARCH = 3;
     public static final int QUERY_TYPE_MULTISEARCH_NONATOMIC = 4;
+    public static final int QUERY_TYPE_SNAPSHOT = 5;
+    public static final int QUERY_TYPE_RANGESUM = 6;
 
     public static final int GENERATOR_TYPE_DEFAULT = 0;
     public static final int GENERATOR_TYPE_CHAINS = 1;
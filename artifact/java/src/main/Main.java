@@ -27,6 +27,12 @@ import adapters.*;
 import main.support.*;
 
 import algorithms.vcas.Camera;
+import algorithms.vcas.LeafSearch;
+import algorithms.vcas.VcasAtomicReferenceFieldUpdater;
+import algorithms.vcas.VcasBatchBSTMapGC;
+import algorithms.vcas.VcasBatchChromaticMapGC;
+import algorithms.vcas.VcasLongBatchBSTMap;
+import algorithms.vcas.WriteAheadLog;
 import algorithms.kiwi.KiWi;
 
 import java.util.function.Predicate;
@@ -52,6 +58,9 @@ public class Main {
     public static final int NUMBER_OF_PROCESSORS = RAW_NUMBER_OF_PROCESSORS == 8 ? 4 : RAW_NUMBER_OF_PROCESSORS; // override for hyperthreading on i7
     public static final boolean PRINT_FREEMEM = false; // note: just a (rather inaccurate) estimate
     public static boolean print_memory_usage = false;
+    public static String camera_type = "default";
+    public static String epoch_type = "default";
+    public static WriteAheadLog.Sync wal_sync = null; // -wal: updates of the vCAS trees are logged
     private long startFreemem = 0;
 
     public static final ThreadLocal<Long> routeNodesTraversed = new ThreadLocal<Long>();
@@ -342,7 +351,6 @@ public class Main {
         public final void run() {
             routeNodesTraversed.set((long) 0);
             getBaseNodeCalls.set((long) 0);
-            ThreadID.threadID.set(threadID);
             //Camera.rng.set(rng);
             //System.out.println(ThreadID.threadID.get());
             bean = ManagementFactory.getThreadMXBean();
@@ -487,7 +495,6 @@ public class Main {
         @Override
         @SuppressWarnings("empty-statement")
         public final void run() {
-            ThreadID.threadID.set(threadID);
             //Camera.rng.set(rng);
             bean = ManagementFactory.getThreadMXBean();
             if (!bean.isCurrentThreadCpuTimeSupported()) {
@@ -504,6 +511,10 @@ public class Main {
             if (start != null) try { start.await(); } catch (Exception e) { e.printStackTrace(); System.exit(-1); }
 
             int rqSize = (int) switches.get("rqSize");
+            // reused by every successors and findIf query, which then allocate nothing
+            final Element<K,K>[] succBuffer = new Element[rqSize];
+            final Element<K,K> findIfResult = new Element<K,K>();
+            final Predicate<Element<K,K>> findIfPredicate = (Element<K,K> e) -> ((Integer) e.key % (rqSize) == 0);
 
             // everyone waits until main thread sets experiment state to RUNNING
             while (ex.state == ExperimentState.PENDING);
@@ -526,10 +537,10 @@ public class Main {
                         if (((Object[]) (tree.rangeQuery((K) keyInt, (K) ((Integer) (keyInt + rqSize - 1)), 0, null))).length != 0) trueRQ++;
                         else falseRQ++;
                     } else if(switches.get("queryType") == Globals.QUERY_TYPE_FINDIF) {
-                        tree.findIf((K) keyInt, (K) (Integer) ex.maxkey, (Element<K,K> e) -> ((Integer) e.key % (rqSize) == 0));
+                        tree.findIf((K) keyInt, (K) (Integer) ex.maxkey, findIfPredicate, findIfResult);
                         trueRQ++;
                     } else if(switches.get("queryType") == Globals.QUERY_TYPE_SUCC) {
-                        if (((Object[]) (tree.successors((K) keyInt, rqSize))).length != 0) trueRQ++;
+                        if (tree.successors((K) keyInt, succBuffer) != 0) trueRQ++;
                         else falseRQ++;
                     } else if(switches.get("queryType") == Globals.QUERY_TYPE_MULTISEARCH) {
                         K[] keysToQuery = (K[]) new Comparable[rqSize];
@@ -539,6 +550,12 @@ public class Main {
                         trueRQ++;
                         // if (((Object[]) ().length != 0) trueRQ++;
                         // else falseRQ++;
+                    } else if(switches.get("queryType") == Globals.QUERY_TYPE_SNAPSHOT) {
+                        tree.takeSnapshot();
+                        trueRQ++;
+                    } else if(switches.get("queryType") == Globals.QUERY_TYPE_RANGESUM) {
+                        if (tree.rangeSum((K) keyInt, (K) ((Integer) (keyInt + rqSize - 1)), 0, null) != 0) trueRQ++;
+                        else falseRQ++;
                     } else {
                         System.out.println("Invalid queryType");
                     }
@@ -654,7 +671,6 @@ public class Main {
 
         @Override
         public void run() {
-            ThreadID.threadID.set(threadID);
             //System.out.println("ThreadID: " + ThreadID.threadID.get());
             if(tree.getClass().getName().equals("adapters.KiwiAdapter")) {
                 for (int i=0; i<maxkey/(20*nthreads); i++) {
@@ -763,14 +779,14 @@ public class Main {
         if(print_memory_usage)
             System.out.println("\nMemory Usage After Benchmark: " + MemoryStats.getSettledUsedMemory() + " bytes");
         
-        // if(tree instanceof VcasBatchChromaticGCAdapter) {
-        //     NodeStats cur = ((VcasBatchChromaticGCAdapter)tree).tree.countNodes(false);
-        //     NodeStats all = ((VcasBatchChromaticGCAdapter)tree).tree.countNodes(true);
-        //     System.out.println("Internal Nodes: " + cur.internalNodes);
-        //     System.out.println("External Nodes: " + cur.externalNodes);
-        //     System.out.println("Internal Nodes (including version list): " + all.internalNodes);
-        //     System.out.println("External Nodes (including version list: " + all.externalNodes);
-        // }
+        if(print_memory_usage && tree instanceof VcasBatchChromaticGCAdapter) {
+            NodeStats cur = ((VcasBatchChromaticGCAdapter)tree).tree.countNodes(false);
+            NodeStats all = ((VcasBatchChromaticGCAdapter)tree).tree.countNodes(true);
+            System.out.println("Internal Nodes: " + cur.internalNodes);
+            System.out.println("External Nodes: " + cur.externalNodes);
+            System.out.println("Internal Nodes (including version list): " + all.internalNodes);
+            System.out.println("External Nodes (including version list): " + all.externalNodes);
+        }
 
         //System.out.println("Route Nodes Traversed Per getBaseNode(): " + (1.0*totalRouteNodesTraversed.get()/totalGetBaseNodeCalls.get()));
 
@@ -795,7 +811,6 @@ public class Main {
                 //     System.out.println("==================== ERROR: expected_size=" + (ntrueins - ntruedel) + " does not match tree.size()=" + treesize + " =======================");
                 // else
                 //     System.out.println("Size checksum validation PASSED (size=" + treesize + ").");
-                ThreadID.threadID.set(0);
                 long dsKeysum = tree.getKeysum();
                 if (dsKeysum != threadsKeysum) {
                     //throw new RuntimeException("threadsKeysum=" + threadsKeysum + " does not match dsKeysum=" + dsKeysum);
@@ -853,7 +868,13 @@ public class Main {
                 double fidThroughput = (ntrueins+ntruedel+ntruefind+nfalseins+nfalsedel+nfalsefind)/(double)elapsed;
                 double rqThroughput = (ntruerq+nfalserq)/(double)elapsed;
                 System.out.println("find+insert+delete throughput: " + fidThroughput/1000000.0 + " Mops/s");
-                System.out.println("RQ throughput: " + rqThroughput/1000000.0 + " Mops/s");
+                if(switches.get("queryType") == Globals.QUERY_TYPE_SNAPSHOT) {
+                    // every update reads the camera to stamp its versions, so both sides of its contention are shown
+                    double updateThroughput = (ntrueins+ntruedel+nfalseins+nfalsedel)/(double)elapsed;
+                    System.out.println("insert+delete throughput: " + updateThroughput/1000000.0 + " Mops/s");
+                    System.out.println("snapshot throughput: " + rqThroughput/1000000.0 + " Mops/s");
+                } else
+                    System.out.println("RQ throughput: " + rqThroughput/1000000.0 + " Mops/s");
             }
             out.print(ex.nprocs + "," + nops + "," + ex.maxkey + ",");
             out.print(ex.ratio + ",");
@@ -885,6 +906,13 @@ public class Main {
                 mergedEx += "-succ";
             } else if(switches.get("queryType") == Globals.QUERY_TYPE_MULTISEARCH) {
                 mergedEx += "-multisearch";
+            } else if(switches.get("queryType") == Globals.QUERY_TYPE_SNAPSHOT) {
+                mergedEx += "-snapshot";
+            } else if(switches.get("queryType") == Globals.QUERY_TYPE_RANGESUM) {
+                mergedEx += "-rangesum";
+            }
+            if(wal_sync != null) {
+                mergedEx += "-wal" + wal_sync.name().toLowerCase();
             }
             out.print("," + mergedEx);
 
@@ -1134,7 +1162,6 @@ public class Main {
             }
         }
         if(tree.getClass().getName().equals("adapters.KiwiAdapter") && maxkey <= 20000000) {
-            ThreadID.threadID.set(0);
             int actualTreeSize = tree.size();
             System.out.println("Actual tree size: " + actualTreeSize + ", Tree size: " + treeSize);
             treeSize = actualTreeSize;
@@ -1314,7 +1341,12 @@ public class Main {
             // and run the trial
             for (TreeFactory factory : Factories.factories) if (ex.alg.equals(factory.getName())) {
                 for (int trial=0;trial<ntrials;++trial) {
-                    Camera.camera.timestamp = 0;
+                    Camera.set(0);
+                    Camera vcasCamera = camera_type.equals("default") ? Camera.camera : Camera.create(camera_type);
+                    vcasCamera.reset(0);
+                    VcasBatchBSTMapGC.camera = vcasCamera;
+                    VcasBatchChromaticMapGC.camera = vcasCamera;
+                    VcasLongBatchBSTMap.camera = vcasCamera;
                     System.gc();
                     SetInterface<Integer> tree = factory.newTree(ex.param);
                     SizeKeysumPair p = new SizeKeysumPair(0, 0);
@@ -1325,13 +1357,36 @@ public class Main {
                         else
                             p = fillToSteadyState(experimentRng, tree, ex.ratio, ex.maxkey, false);
                     }
+                    File walDir = (wal_sync == null) ? null : startLog((AbstractAdapter) tree); // after the prefill
                     if (!runTrial(out, false, false, factory.getName() + ex.param + "," + trial, p, experimentRng, (AbstractAdapter) tree, ex)) System.exit(-1); // TODO: FIX THE HACKY CAST...
+                    if (walDir != null) stopLog((AbstractAdapter) tree, walDir);
                     progress(stdout, tree, ++nCompleted, trial, factory.getName(), startTime, numberOfRuns, ex);
                 }
             }
         }
     }
 
+    // routes the updates of tree through a write-ahead log in a new temporary directory
+    static File startLog(final AbstractAdapter tree) {
+        try {
+            File dir = java.nio.file.Files.createTempDirectory("vcas-wal").toFile();
+            tree.logUpdates(dir.toPath(), wal_sync);
+            return dir;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void stopLog(final AbstractAdapter tree, final File dir) {
+        try {
+            tree.closeLog();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (File segment : dir.listFiles()) segment.delete();
+        dir.delete();
+    }
+
     void progress(
             DualPrintStream stdout,
             final SetInterface<Integer> tree,
@@ -1377,6 +1432,13 @@ public class Main {
             System.out.println("\t-rq%     to specify what % (0 to 100) of ops should be rangequeries");
             System.out.println("\t-rqsize     to specify the rangequery size");
             System.out.println("\t-rqers     to specify the number of threads performing only rangequeries");
+            System.out.println("\t-snapshot  rangequery threads (-rqers) only acquire snapshots; reports snapshot and insert+delete throughput");
+            System.out.println("\t-rangesum  rangequery threads sum their range instead of returning it (values equal keys, so this is the key sum)");
+            System.out.println("\t-camera-X  camera used by the vCAS trees: default, striped or striped## (## stripes)");
+            System.out.println("\t-epoch-X  reclamation used by the vCAS trees: default, limbo or limbo-bg (background reclaimer)");
+            System.out.println("\t-leafsearch-X  in-leaf search of VcasLongBatchBST: binary, linear or vector (needs --add-modules jdk.incubator.vector)");
+            System.out.println("\t-wal[-X]  updates of VcasBatchBSTGC and VcasChromaticBatchBSTGC go through a write-ahead log in a temporary directory, fsynced always (group commit, the default), every " + WriteAheadLog.DEFAULT_SYNC_MILLIS + "ms (interval) or never (none)");
+            System.out.println("\t-notruncate  vCAS trees keep old versions until the epoch reclaims them (no eager unlinking)");
             System.out.println("\t-keysM    random keys will be uniformly from range [0,M) (default 1000000)");
             System.exit(-1);
         }
@@ -1440,6 +1502,52 @@ public class Main {
                 } else if (args[i].equals("-multisearch")) {
                     switches.put("queryType", (double) Globals.QUERY_TYPE_MULTISEARCH);
                     System.out.println("queryType: MULTISEARCH");
+                } else if (args[i].equals("-snapshot")) {
+                    switches.put("queryType", (double) Globals.QUERY_TYPE_SNAPSHOT);
+                    System.out.println("queryType: SNAPSHOT");
+                } else if (args[i].equals("-rangesum")) {
+                    switches.put("queryType", (double) Globals.QUERY_TYPE_RANGESUM);
+                    System.out.println("queryType: RANGESUM");
+                } else if (args[i].equals("-notruncate")) {
+                    VcasAtomicReferenceFieldUpdater.truncateVersions = false;
+                } else if (args[i].startsWith("-epoch-")) {
+                    epoch_type = args[i].substring("-epoch-".length());
+                    try {
+                        VcasBatchBSTMapGC.epoch = Epoch.create(epoch_type);
+                        VcasBatchChromaticMapGC.epoch = Epoch.create(epoch_type);
+                        VcasLongBatchBSTMap.epoch = Epoch.create(epoch_type);
+                    } catch (Exception ex) {
+                        System.out.println("Unknown epoch \"" + epoch_type + "\" (expected default, limbo or limbo-bg)");
+                        System.exit(-1);
+                    }
+                    System.out.println("epoch: " + epoch_type);
+                } else if (args[i].startsWith("-leafsearch-")) {
+                    String name = args[i].substring("-leafsearch-".length());
+                    try {
+                        VcasLongBatchBSTAdapter.leafSearch = LeafSearch.create(name);
+                    } catch (Exception ex) {
+                        System.out.println("Unknown leaf search \"" + name + "\" (expected binary, linear or vector)");
+                        System.exit(-1);
+                    }
+                    System.out.println("leaf search: " + VcasLongBatchBSTAdapter.leafSearch.getName());
+                } else if (args[i].equals("-wal") || args[i].startsWith("-wal-")) {
+                    String name = args[i].equals("-wal") ? "always" : args[i].substring("-wal-".length());
+                    try {
+                        wal_sync = WriteAheadLog.Sync.valueOf(name.toUpperCase());
+                    } catch (Exception ex) {
+                        System.out.println("Unknown fsync policy \"" + name + "\" (expected always, interval or none)");
+                        System.exit(-1);
+                    }
+                    System.out.println("wal: " + name);
+                } else if (args[i].startsWith("-camera-")) {
+                    camera_type = args[i].substring("-camera-".length());
+                    try {
+                        Camera.create(camera_type);
+                    } catch (Exception ex) {
+                        System.out.println("Unknown camera \"" + camera_type + "\" (expected default, striped or striped##)");
+                        System.exit(-1);
+                    }
+                    System.out.println("camera: " + camera_type);
                 } else if (args[i].matches("-seed[0-9]+")) {
                     try {
                         switches.put("seed", (double) Integer.parseInt(args[i].substring("-seed".length())));
@@ -1549,6 +1657,10 @@ public class Main {
             System.out.println("Run this class with no arguments to see a list of valid algorithms.");
             System.exit(-1);
         }
+        if (wal_sync != null && !alg.equals("VcasBatchBSTGC") && !alg.equals("VcasChromaticBatchBSTGC")) {
+            System.out.println("-wal only applies to VcasBatchBSTGC and VcasChromaticBatchBSTGC, not \"" + alg + "\"");
+            System.exit(-1);
+        }
 
         (new Main(nthreads, ntrials, nseconds, filename,
                 new Ratio(switches.get("ratio-ins") / 100., switches.get("ratio-del") / 100., switches.get("ratio-rq") / 100.),// switches.get("ratio-snap") / 100.),
@@ -15,24 +15,42 @@ public class Epoch<Node extends Reclaimable> {
   public final int[] announce;
   public final int[] prevRetireEpoch;
   public final int[] announceCount;
+  public final int[] announceDepth; // nesting depth, so a thread holding a snapshot can still run queries
   public final ArrayList<Node>[][] retiredNodes;
 
   public volatile int epochNum;
   private static final AtomicIntegerFieldUpdater<Epoch> epochUpdater = AtomicIntegerFieldUpdater.newUpdater(Epoch.class, "epochNum");
 
+  // "default" is this class, "limbo" and "limbo-bg" are LimboEpoch without and
+  // with a background reclaimer thread
+  public static <Node extends Reclaimable> Epoch<Node> create(String name) {
+    if(name.equals("default")) return new Epoch<Node>();
+    if(name.equals("limbo")) return new LimboEpoch<Node>(false);
+    if(name.equals("limbo-bg")) return new LimboEpoch<Node>(true);
+    throw new IllegalArgumentException("unknown epoch: " + name);
+  }
+
   public Epoch(){
+      this(true);
+  }
+
+  // for subclasses that keep retired nodes their own way: without retiredLists,
+  // retiredNodes and prevRetireEpoch are null and retire() must be overridden
+  protected Epoch(boolean retiredLists){
       epochNum = 0;
       announce = new int[MAX_THREADS*PADDING];
-      prevRetireEpoch = new int[MAX_THREADS*PADDING];
+      prevRetireEpoch = retiredLists ? new int[MAX_THREADS*PADDING] : null;
       announceCount = new int[MAX_THREADS*PADDING];
-      retiredNodes = new ArrayList[3][MAX_THREADS*PADDING];
+      announceDepth = new int[MAX_THREADS*PADDING];
+      retiredNodes = retiredLists ? new ArrayList[3][MAX_THREADS*PADDING] : null;
       for(int i = 0; i < MAX_THREADS; i++) {
           announce[i*PADDING] = INACTIVE;
       }
   }
 
   public void announce() {
-      int idx = ThreadID.threadID.get()*PADDING;
+      int idx = ThreadID.get()*PADDING;
+      if(announceDepth[idx]++ > 0) return; // keep the (older) outer announcement
       int curEpoch = epochNum;
       announce[idx] = curEpoch;
       tryAdvanceEpoch(curEpoch);
@@ -53,15 +71,11 @@ public class Epoch<Node extends Reclaimable> {
   }
 
   public void tryAdvanceEpoch(int curEpoch) {
-    int idx = ThreadID.threadID.get()*PADDING;
+    int idx = ThreadID.get()*PADDING;
     int annCount = announceCount[idx];
     if(annCount == ANNOUNCES_BEFORE_COLLECT) {
       announceCount[idx] = 0;
-      for(int i = 0; i < MAX_THREADS; i++) {
-          int ann = announce[i*PADDING];
-          if(ann != INACTIVE && ann != curEpoch) return;
-      }
-      if(epochUpdater.compareAndSet(this, curEpoch, curEpoch+1)) { // garbage collect
+      if(advanceEpoch(curEpoch)) { // garbage collect
           // int prevEpoch = (curEpoch+2)%3;
           // //System.out.println("epoch advanced");
           // for(int i = 0; i < MAX_THREADS*PADDING; i+=PADDING) {
@@ -78,15 +92,26 @@ public class Epoch<Node extends Reclaimable> {
     }
   }
 
+  // advances the epoch past curEpoch if every active thread has announced it
+  protected boolean advanceEpoch(int curEpoch) {
+    int threads = ThreadID.highWater(); // slots above it were never used
+    for(int i = 0; i < threads; i++) {
+        int ann = announce[i*PADDING];
+        if(ann != INACTIVE && ann != curEpoch) return false;
+    }
+    return epochUpdater.compareAndSet(this, curEpoch, curEpoch+1);
+  }
+
   public void unannounce() {
-      int idx = ThreadID.threadID.get()*PADDING;
+      int idx = ThreadID.get()*PADDING;
+      if(--announceDepth[idx] > 0) return;
       announce[idx] = INACTIVE;
       // prevAnnounce[idx] = prevAnnounce[idx] & ~1); // set inactive
-      // Announce.set(ThreadID.threadID.get()*PADDING, prevAnnounce.get());
+      // Announce.set(ThreadID.get()*PADDING, prevAnnounce.get());
   } 
 
   public void retire(Node node) {
-    int idx = ThreadID.threadID.get()*PADDING;
+    int idx = ThreadID.get()*PADDING;
     int curEpoch = epochNum;
 
     int prevEpoch = prevRetireEpoch[idx];
@@ -107,4 +132,8 @@ public class Epoch<Node extends Reclaimable> {
 
     tryAdvanceEpoch(curEpoch);
   }
-}   
+
+  public String getName() {
+    return "default";
+  }
+}
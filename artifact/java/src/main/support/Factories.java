@@ -4,8 +4,11 @@ package main.support;
 import org.deuce.transform.Exclude;
 
 import adapters.*;
+import algorithms.vcas.VcasBatchBSTMapGC;
+import algorithms.vcas.VcasBatchChromaticMapGC;
 import main.support.*;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 public class Factories {
       // central list of factory classes for all supported data structures
@@ -14,6 +17,7 @@ public class Factories {
             new ArrayList<TreeFactory<Integer>>();
     static {
         factories.add(new VcasBatchBSTGCFactory<Integer>());
+        factories.add(new VcasLongBatchBSTFactory<Integer>());
         factories.add(new LockFreeBSTFactory<Integer>());
         factories.add(new LockFreeChromaticFactory<Integer>());
         factories.add(new LockFreeBatchBSTFactory<Integer>());
@@ -25,6 +29,9 @@ public class Factories {
         factories.add(new KiwiFactory<Integer>());
         factories.add(new SnapTreeFactory<Integer>());
         factories.add(new LockFreeKSTRQFactory<Integer>());
+        factories.add(new SkipListMapFactory<Integer>());
+        factories.add(new VcasBatchBSTMapFactory<Integer>());
+        factories.add(new VcasChromaticBatchBSTMapFactory<Integer>());
     }
 
     // factory classes for each supported data structure
@@ -77,6 +84,35 @@ public class Factories {
         public String getName() { return "SnapTree"; }
     }
 
+    @Exclude
+    protected static class SkipListMapFactory<K extends Comparable<? super K>> extends TreeFactory<K> {
+        public SetInterface<K> newTree(final Object param) {
+            return new NavigableMapAdapter<K>(new ConcurrentSkipListMap<K,K>());
+        }
+        public String getName() { return "SkipListMap"; }
+    }
+
+    // the ConcurrentNavigableMap facades of the vCAS trees, to compare with SkipListMap
+    @Exclude
+    protected static class VcasBatchBSTMapFactory<K extends Comparable<? super K>> extends TreeFactory<K> {
+        public SetInterface<K> newTree(final Object param) {
+            VcasBatchBSTMapGC<K,K> tree = param.toString().isEmpty() ? new VcasBatchBSTMapGC<K,K>()
+                                                                     : new VcasBatchBSTMapGC<K,K>(Integer.parseInt(param.toString()));
+            return new NavigableMapAdapter<K>(tree.asNavigableMap());
+        }
+        public String getName() { return "VcasBatchBSTMap"; }
+    }
+
+    @Exclude
+    protected static class VcasChromaticBatchBSTMapFactory<K extends Comparable<? super K>> extends TreeFactory<K> {
+        public SetInterface<K> newTree(final Object param) {
+            VcasBatchChromaticMapGC<K,K> tree = param.toString().isEmpty() ? new VcasBatchChromaticMapGC<K,K>()
+                                                                           : new VcasBatchChromaticMapGC<K,K>(Integer.parseInt(param.toString()));
+            return new NavigableMapAdapter<K>(tree.asNavigableMap());
+        }
+        public String getName() { return "VcasChromaticBatchBSTMap"; }
+    }
+
     @Exclude
     protected static class LockFreeKSTRQFactory<K> extends TreeFactory<K> {
         public SetInterface<K> newTree(final Object param) {
@@ -129,6 +165,17 @@ public class Factories {
         public String getName() { return "VcasBatchBSTGC"; }
     }
 
+    @Exclude
+    protected static class VcasLongBatchBSTFactory<K> extends TreeFactory<K> {
+        Object param;
+        public SetInterface<K> newTree(final Object param) {
+            this.param = param;
+            return param.toString().isEmpty() ? new VcasLongBatchBSTAdapter()
+                                              : new VcasLongBatchBSTAdapter(Integer.parseInt(param.toString()));
+        }
+        public String getName() { return "VcasLongBatchBST"; }
+    }
+
     @Exclude
     protected static class LockFreeBPBSTFactory<K> extends TreeFactory<K> {
         Object param;
@@ -0,0 +1,193 @@
+package main.support;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+An Epoch whose retired nodes are kept in fixed-capacity limbo bags instead of
+growable per-epoch lists.
+
+Each thread fills its own bag; a node retired in epoch e may be reclaimed once
+the epoch reaches e+2, so a bag is stamped with the epoch of its last node and
+becomes reclaimable as a whole. Full bags are sealed and
+ - without a background reclaimer, queued privately by their owner. Updaters
+   still reclaim inline, as with Epoch, but at most RECLAIMS_PER_RETIRE
+   nodes per retire() call rather than a whole epoch's list at once, and
+   they still advance the epoch, scanning the announcements once every
+   ANNOUNCES_BEFORE_COLLECT announce() or retire() calls.
+ - with a background reclaimer, handed off through a shared stack to the
+   reclaimer thread, which is then the only one to advance the epoch (while
+   it holds bags to reclaim) and returns emptied bags. Updaters and readers
+   then never scan the announcements or touch retired nodes.
+Emptied bags are recycled, so retiring allocates nothing in steady state,
+and Epoch's per-epoch retired lists are not allocated at all.
+*/
+public class LimboEpoch<Node extends Reclaimable> extends Epoch<Node> {
+  public static final int BAG_CAPACITY = 256;
+  public static final int RECLAIMS_PER_RETIRE = 4;
+  public static final long RECLAIMER_PARK_NANOS = 100000;
+
+  static final class Bag {
+    final Reclaimable[] nodes = new Reclaimable[BAG_CAPACITY];
+    int size;
+    int epoch; // epoch in which the last node was added
+    Bag next;
+  }
+
+  // per-thread state, indexed like the announcements
+  private final Bag[] current;
+  private final Bag[] sealedHead;
+  private final Bag[] sealedTail;
+  private final Bag[] spare;
+
+  // producers push sealed bags, the reclaimer takes them all at once;
+  // the reclaimer pushes emptied bags, a producer takes them all at once
+  private final AtomicReference<Bag> handoff = new AtomicReference<Bag>();
+  private final AtomicReference<Bag> emptied = new AtomicReference<Bag>();
+
+  private final Thread reclaimer;
+  private volatile boolean running;
+
+  public LimboEpoch(boolean backgroundReclaimer) {
+    super(false);
+    current = new Bag[MAX_THREADS*PADDING];
+    sealedHead = new Bag[MAX_THREADS*PADDING];
+    sealedTail = new Bag[MAX_THREADS*PADDING];
+    spare = new Bag[MAX_THREADS*PADDING];
+    if(backgroundReclaimer) {
+      running = true;
+      reclaimer = new Thread(this::reclaimLoop, "epoch-reclaimer");
+      reclaimer.setDaemon(true);
+      reclaimer.start();
+    } else {
+      reclaimer = null;
+    }
+  }
+
+  @Override
+  public void retire(Node node) {
+    int idx = ThreadID.get()*PADDING;
+    int curEpoch = epochNum;
+
+    Bag bag = current[idx];
+    if(bag == null)
+      bag = current[idx] = newBag(idx);
+    bag.nodes[bag.size++] = node;
+    bag.epoch = curEpoch;
+    if(bag.size == BAG_CAPACITY) {
+      current[idx] = null;
+      seal(idx, bag);
+    }
+
+    if(reclaimer == null) {
+      reclaimSome(idx, curEpoch);
+      tryAdvanceEpoch(curEpoch);
+    }
+  }
+
+  // called by announce() and retire(); the background reclaimer advances the epoch itself
+  @Override
+  public void tryAdvanceEpoch(int curEpoch) {
+    if(reclaimer == null) super.tryAdvanceEpoch(curEpoch);
+  }
+
+  private Bag newBag(int idx) {
+    Bag bag = spare[idx];
+    if(bag == null && reclaimer != null)
+      bag = emptied.getAndSet(null);
+    if(bag == null)
+      return new Bag();
+    spare[idx] = bag.next;
+    bag.next = null;
+    return bag;
+  }
+
+  private void seal(int idx, Bag bag) {
+    if(reclaimer == null) {
+      if(sealedTail[idx] == null) sealedHead[idx] = bag;
+      else sealedTail[idx].next = bag;
+      sealedTail[idx] = bag;
+    } else {
+      push(handoff, bag);
+    }
+  }
+
+  private static void push(AtomicReference<Bag> stack, Bag bag) {
+    Bag head;
+    do {
+      head = stack.get();
+      bag.next = head;
+    } while(!stack.compareAndSet(head, bag));
+  }
+
+  // reclaims a bounded number of nodes from the oldest sealed bag of this thread
+  private void reclaimSome(int idx, int curEpoch) {
+    Bag bag = sealedHead[idx];
+    if(bag == null || bag.epoch > curEpoch-2) return;
+    for(int i = 0; i < RECLAIMS_PER_RETIRE && bag.size > 0; i++) {
+      bag.size--;
+      bag.nodes[bag.size].reclaim();
+      bag.nodes[bag.size] = null;
+    }
+    if(bag.size == 0) {
+      sealedHead[idx] = bag.next;
+      if(bag.next == null) sealedTail[idx] = null;
+      bag.next = spare[idx];
+      spare[idx] = bag;
+    }
+  }
+
+  private void reclaimLoop() {
+    Bag waiting = null; // sealed bags whose epoch is too recent, owned by this thread
+    while(running) {
+      Bag taken = handoff.getAndSet(null);
+      while(taken != null) {
+        Bag next = taken.next;
+        taken.next = waiting;
+        waiting = taken;
+        taken = next;
+      }
+      if(waiting == null) {
+        LockSupport.parkNanos(RECLAIMER_PARK_NANOS);
+        continue;
+      }
+
+      int curEpoch = epochNum;
+      if(advanceEpoch(curEpoch)) curEpoch++;
+      boolean progress = false;
+      Bag keep = null;
+      while(waiting != null) {
+        Bag bag = waiting;
+        waiting = bag.next;
+        if(bag.epoch <= curEpoch-2) {
+          for(int i = 0; i < bag.size; i++) {
+            bag.nodes[i].reclaim();
+            bag.nodes[i] = null;
+          }
+          bag.size = 0;
+          push(emptied, bag);
+          progress = true;
+        } else {
+          bag.next = keep;
+          keep = bag;
+        }
+      }
+      waiting = keep;
+      if(!progress)
+        LockSupport.parkNanos(RECLAIMER_PARK_NANOS);
+    }
+  }
+
+  // stops the background reclaimer; retired nodes it still holds are left to the GC
+  public void shutdown() {
+    if(reclaimer == null) return;
+    running = false;
+    LockSupport.unpark(reclaimer);
+    try { reclaimer.join(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+  }
+
+  @Override
+  public String getName() {
+    return reclaimer == null ? "limbo" : "limbo-bg";
+  }
+}
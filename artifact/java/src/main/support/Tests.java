@@ -22,16 +22,36 @@ package main.support;
 
 import adapters.*;
 import main.support.*;
+import algorithms.vcas.Camera;
+import algorithms.vcas.ChangeStream;
+import algorithms.vcas.Checkpoint;
+import algorithms.vcas.DurableMap;
+import algorithms.vcas.LeafSearch;
+import algorithms.vcas.RangeWatcher;
+import algorithms.vcas.SnapshotCounter;
+import algorithms.vcas.VcasAtomicReferenceFieldUpdater;
+import algorithms.vcas.VcasBatchBSTMapGC;
+import algorithms.vcas.VcasBatchChromaticMapGC;
+import algorithms.vcas.VcasLongBatchBSTMap;
+import algorithms.vcas.Versioned;
+import algorithms.vcas.VersionedReference;
+import algorithms.vcas.WriteAheadLog;
 
 import java.io.*;
 import java.lang.management.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.Objects;
 import java.util.Scanner;
 import java.util.TreeMap;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 
 public class Tests {
@@ -418,6 +438,1269 @@ public class Tests {
         System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
     }
 
+    static void cameraTest(final Camera camera) {
+        camera.reset(0);
+        long ts = camera.snapshot();
+        assert ts == 0;
+        assert camera.read() == 1;
+        assert camera.snapshot() == 1;
+
+        // every thread must see strictly increasing snapshots, and a stamp read
+        // after a snapshot returns must be larger than that snapshot
+        final int nthreads = 8;
+        final boolean[] ok = new boolean[nthreads];
+        Thread[] threads = new Thread[nthreads];
+        for(int i = 0; i < nthreads; i++) {
+            final int tid = i;
+            threads[i] = new Thread(() -> {
+                boolean good = true;
+                long prev = -1;
+                for(int j = 0; j < 10000; j++) {
+                    long s = camera.snapshot();
+                    if(s <= prev) good = false;
+                    if(camera.read() <= s) good = false;
+                    prev = s;
+                }
+                ok[tid] = good;
+            });
+            threads[i].start();
+        }
+        for(int i = 0; i < nthreads; i++)
+            try { threads[i].join(); } catch (InterruptedException e) { assert false; }
+        for(int i = 0; i < nthreads; i++)
+            assert ok[i];
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + " (" + camera.getName() + "): OK");
+    }
+
+    static void retentionSamplingTest() {
+        long[] now = new long[1];
+        Camera camera = new Camera(() -> now[0]); // sampled by the test only
+        camera.retain(0, 1, TimeUnit.HOURS);
+        long before = camera.read();
+        for(int i = 0; i < 1000; i++) camera.truncationBound();
+        camera.refreshOldestActiveSnapshot();
+        assert camera.read() == before; // the update path takes no snapshots
+
+        camera.retain(0, 50, TimeUnit.MILLISECONDS);
+        long start = camera.read();
+        for(int i = 1; i <= 10; i++) {
+            now[0] += TimeUnit.MILLISECONDS.toNanos(10);
+            camera.sample(); // the sample at i*10ms has timestamp start+i-1
+        }
+        assert camera.read() == start + 10;
+        camera.refreshOldestActiveSnapshot();
+        assert camera.oldestActiveSnapshot() == start + 4; // sampled at 50ms, the newest one at least 50ms old
+        assert camera.timestampAgo(30, TimeUnit.MILLISECONDS) == start + 6;
+        assert camera.isRetained(start + 4) && !camera.isRetained(start + 3);
+
+        camera.retain(0, 0, TimeUnit.SECONDS);
+        now[0] += TimeUnit.MILLISECONDS.toNanos(10);
+        camera.sample();
+        assert camera.read() == start + 10; // no window, no sampling
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
+    static void bstSnapshotTest(int batchSize) {
+        VcasBatchBSTMapGC<Integer,Integer> tree = new VcasBatchBSTMapGC<Integer,Integer>(batchSize);
+        for(int i = 1; i <= 20; i++) tree.putIfAbsent(i, i);
+        try (VcasBatchBSTMapGC<Integer,Integer>.Snapshot snap = tree.snapshot()) {
+            for(int i = 1; i <= 20; i += 2) tree.remove(i);
+            tree.putIfAbsent(25, 25);
+            assert snap.get(1).equals(1);
+            assert snap.get(25) == null;
+            assert tree.get(1) == null;
+            assert snap.rangeScan(1, 30).length == 20;
+            assert tree.rangeScan(1, 30).length == 11; // nested announcement inside the snapshot
+            assert snap.successors(19, 5).length == 2;
+            assert snap.findIf(1, 30, (e) -> e.key > 20) == null;
+            assert snap.findIf(1, 30, (e) -> e.key % 2 == 1).key.equals(1);
+            Object[] found = snap.multiSearch(new Integer[] {3, 4, 25});
+            assert found[0].equals(3) && found[1].equals(4) && found[2] == null;
+        }
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
+    static void bstRangeSumTest(int batchSize) {
+        VcasBatchBSTMapGC<Integer,Integer> tree = new VcasBatchBSTMapGC<Integer,Integer>(batchSize);
+        VcasLongBatchBSTMap<Integer> longTree = new VcasLongBatchBSTMap<Integer>(batchSize);
+        java.util.Random rng = new java.util.Random(batchSize);
+        boolean[] present = new boolean[500];
+        for(int i = 0; i < 400; i++) {
+            int k = rng.nextInt(present.length);
+            if(tree.putIfAbsent(k, k) == null) present[k] = true;
+            longTree.putIfAbsent(k, k);
+        }
+        for(int j = 0; j < 100; j++) {
+            int a = rng.nextInt(present.length), b = a + rng.nextInt(present.length - a);
+            long sum = 0;
+            int count = 0;
+            for(int k = a; k <= b; k++) if(present[k]) { sum += k; count++; }
+            assert tree.rangeSum(a, b) == sum && tree.rangeCount(a, b) == count;
+            assert longTree.rangeSum(a, b) == sum && longTree.rangeCount(a, b) == count;
+        }
+        try (VcasBatchBSTMapGC<Integer,Integer>.Snapshot snap = tree.snapshot()) {
+            long sum = tree.rangeSum(0, present.length);
+            int count = tree.rangeCount(0, present.length);
+            for(int k = 0; k < present.length; k += 2) tree.remove(k);
+            assert snap.rangeSum(0, present.length) == sum;
+            assert snap.rangeCount(0, present.length) == count;
+            assert tree.rangeCount(0, present.length) < count;
+        }
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
+    static void longBstSnapshotTest(int batchSize) {
+        VcasLongBatchBSTMap<Integer> tree = new VcasLongBatchBSTMap<Integer>(batchSize);
+        long big = 1L << 40;
+        for(int i = 1; i <= 20; i++) tree.putIfAbsent(big+i, i);
+        try (VcasLongBatchBSTMap<Integer>.Snapshot snap = tree.snapshot()) {
+            for(int i = 1; i <= 20; i += 2) tree.remove(big+i);
+            tree.putIfAbsent(Long.MIN_VALUE, 0);
+            assert snap.get(big+1).equals(1);
+            assert snap.get(Long.MIN_VALUE) == null;
+            assert tree.get(big+1) == null;
+            assert snap.rangeScan(Long.MIN_VALUE, Long.MAX_VALUE).length == 20;
+            assert tree.rangeScan(Long.MIN_VALUE, Long.MAX_VALUE).length == 11;
+            assert snap.successors(big+19, 5).length == 2;
+            assert snap.findIf(big, big+30, (e) -> e.value % 2 == 1).key == big+1;
+        }
+        boolean threw = false;
+        try { tree.putIfAbsent(Long.MAX_VALUE, 0); } catch (IllegalArgumentException e) { threw = true; }
+        assert threw;
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
+    static void leafSearchTest(LeafSearch search) {
+        java.util.Random rng = new java.util.Random(7);
+        for(int size = 0; size <= 2*LeafSearch.LINEAR_MAX+1; size++) {
+            long[] keys = new long[size];
+            long k = Long.MIN_VALUE + rng.nextInt(3);
+            for(int i = 0; i < size; i++) {
+                keys[i] = k;
+                k += 1 + rng.nextInt(3);
+            }
+            for(int j = 0; j < 20; j++) {
+                long key = size == 0 ? rng.nextLong() : keys[rng.nextInt(size)] + rng.nextInt(3) - 1;
+                assert search.lowerBound(keys, key) == LeafSearch.binaryLowerBound(keys, key);
+                int i = search.indexOf(keys, key);
+                assert i == -1 ? Arrays.binarySearch(keys, key) < 0 : keys[i] == key;
+            }
+            assert search.lowerBound(keys, Long.MAX_VALUE) == size;
+        }
+        VcasLongBatchBSTMap<Integer> tree = new VcasLongBatchBSTMap<Integer>(64, search);
+        for(int i = 0; i < 1000; i += 2) tree.putIfAbsent(i, i);
+        for(int i = 0; i < 1000; i++) assert tree.containsKey(i) == (i % 2 == 0);
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + " (" + search.getName() + "): OK");
+    }
+
+    static void chromaticSnapshotTest(int batchSize) {
+        VcasBatchChromaticMapGC<Integer,Integer> tree = new VcasBatchChromaticMapGC<Integer,Integer>(batchSize);
+        for(int i = 1; i <= 20; i++) tree.putIfAbsent(i, i);
+        VcasBatchChromaticMapGC<Integer,Integer>.Snapshot snap = tree.snapshot();
+        for(int i = 1; i <= 20; i += 2) tree.remove(i);
+        tree.putIfAbsent(25, 25);
+        assert snap.get(1).equals(1);
+        assert snap.get(25) == null;
+        assert snap.rangeScan(1, 30).length == 20;
+        assert tree.rangeScan(1, 30).length == 11;
+        assert snap.successors(19, 5).length == 2;
+        assert snap.findIf(1, 30, (e) -> e.key % 2 == 1).key.equals(1);
+        snap.close();
+        boolean threw = false;
+        try { snap.get(1); } catch (IllegalStateException e) { threw = true; }
+        assert threw;
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
+    static void sizeTest(int batchSize) {
+        final VcasBatchBSTMapGC<Integer,Integer> bst = new VcasBatchBSTMapGC<Integer,Integer>(batchSize);
+        final VcasBatchChromaticMapGC<Integer,Integer> chromatic = new VcasBatchChromaticMapGC<Integer,Integer>(batchSize);
+        java.util.Random rng = new java.util.Random(batchSize);
+        int expected = 0;
+        for(int i = 0; i < 2000; i++) {
+            int k = rng.nextInt(300);
+            if(rng.nextBoolean()) {
+                boolean added = bst.putIfAbsent(k, k) == null;
+                assert added == (chromatic.putIfAbsent(k, k) == null);
+                if(added) expected++;
+            } else {
+                boolean removed = bst.remove(k) != null;
+                assert removed == (chromatic.remove(k) != null);
+                if(removed) expected--;
+            }
+            assert bst.size() == expected && chromatic.size() == expected;
+        }
+        assert bst.size() == bst.sequentialSize() && chromatic.size() == chromatic.sequentialSize();
+
+        // updaters insert and remove their own keys while readers compare
+        // the size of a snapshot with the number of keys it contains
+        final int nthreads = 4, keysPerThread = 500;
+        final AtomicBoolean failed = new AtomicBoolean();
+        final CyclicBarrier barrier = new CyclicBarrier(nthreads+1);
+        Thread[] threads = new Thread[nthreads];
+        for(int i = 0; i < nthreads; i++) {
+            final int t = i;
+            threads[i] = new Thread(() -> {
+                try { barrier.await(); } catch (Exception e) { failed.set(true); }
+                int base = 1000 + t*keysPerThread;
+                for(int round = 0; round < 3; round++) {
+                    for(int k = base; k < base+keysPerThread; k++) { bst.putIfAbsent(k, k); chromatic.putIfAbsent(k, k); }
+                    for(int k = base; k < base+keysPerThread; k += 2) { bst.remove(k); chromatic.remove(k); }
+                }
+            });
+            threads[i].start();
+        }
+        try { barrier.await(); } catch (Exception e) { failed.set(true); }
+        for(int i = 0; i < 200; i++) {
+            try (VcasBatchBSTMapGC<Integer,Integer>.Snapshot snap = bst.snapshot()) {
+                if(snap.size() != snap.rangeCount(Integer.MIN_VALUE, Integer.MAX_VALUE-1)) failed.set(true);
+            }
+            try (VcasBatchChromaticMapGC<Integer,Integer>.Snapshot snap = chromatic.snapshot()) {
+                if(snap.size() != snap.rangeScan(Integer.MIN_VALUE, Integer.MAX_VALUE-1).length) failed.set(true);
+            }
+        }
+        for(int i = 0; i < nthreads; i++)
+            try { threads[i].join(); } catch (InterruptedException e) { assert false; }
+        assert !failed.get();
+        expected += nthreads*keysPerThread/2;
+        assert bst.size() == expected && bst.sequentialSize() == expected;
+        assert chromatic.size() == expected && chromatic.sequentialSize() == expected;
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
+    static void streamingScanTest(int batchSize) {
+        VcasBatchBSTMapGC<Integer,Integer> bst = new VcasBatchBSTMapGC<Integer,Integer>(batchSize);
+        VcasBatchChromaticMapGC<Integer,Integer> chromatic = new VcasBatchChromaticMapGC<Integer,Integer>(batchSize);
+        java.util.Random rng = new java.util.Random(batchSize);
+        for(int i = 0; i < 500; i++) {
+            int k = rng.nextInt(1000);
+            bst.putIfAbsent(k, k);
+            chromatic.putIfAbsent(k, k);
+        }
+        for(int j = 0; j < 50; j++) {
+            final int a = rng.nextInt(1000), b = a + rng.nextInt(1000 - a);
+            final Object[] expected = bst.rangeScan(a, b);
+            final int[] seen = new int[1];
+            final int[] last = new int[]{Integer.MIN_VALUE};
+            assert bst.rangeScan(a, b, (k, v) -> {
+                if(k <= last[0] || !v.equals(expected[seen[0]])) seen[0] = -1000;
+                last[0] = k;
+                seen[0]++;
+                return true;
+            });
+            assert seen[0] == expected.length;
+            assert chromatic.rangeScan(a, b).length == expected.length;
+            try (VcasBatchBSTMapGC<Integer,Integer>.Cursor c = bst.cursor(a, b)) {
+                for(int i = 0; i < expected.length; i++) assert c.next() && c.value().equals(expected[i]);
+                assert !c.next() && c.key() == null;
+            }
+            try (VcasBatchChromaticMapGC<Integer,Integer>.Cursor c = chromatic.cursor(a, b)) {
+                for(int i = 0; i < expected.length; i++) assert c.next() && c.value().equals(expected[i]);
+                assert !c.next();
+            }
+            // early termination
+            if(expected.length > 1) {
+                seen[0] = 0;
+                assert !chromatic.rangeScan(a, b, (k, v) -> ++seen[0] < 2);
+                assert seen[0] == 2;
+            }
+        }
+        try (VcasBatchBSTMapGC<Integer,Integer>.Snapshot snap = bst.snapshot()) {
+            int count = snap.rangeCount(0, 999);
+            VcasBatchBSTMapGC<Integer,Integer>.Cursor c = snap.cursor(0, 999);
+            for(int k = 0; k < 1000; k += 3) bst.remove(k);
+            int n = 0;
+            while(c.next()) n++;
+            assert n == count;
+            c.close();
+            boolean threw = false;
+            try { c.next(); } catch (IllegalStateException e) { threw = true; }
+            assert threw;
+        }
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
+    static void parallelScanTest(int batchSize) {
+        VcasBatchBSTMapGC<Integer,Integer> bst = new VcasBatchBSTMapGC<Integer,Integer>(batchSize);
+        VcasBatchChromaticMapGC<Integer,Integer> chromatic = new VcasBatchChromaticMapGC<Integer,Integer>(batchSize);
+        java.util.Random rng = new java.util.Random(batchSize);
+        for(int i = 0; i < 5000; i++) {
+            int k = rng.nextInt(10000);
+            bst.putIfAbsent(k, k);
+            chromatic.putIfAbsent(k, k);
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        for(int j = 0; j < 30; j++) {
+            int a = rng.nextInt(10000), b = a + rng.nextInt(10000 - a);
+            Object[] expected = bst.rangeScan(a, b);
+            assert Arrays.equals(bst.parallelRangeScan(a, b, pool), expected);
+            assert Arrays.equals(bst.parallelRangeScan(a, b), expected);
+            assert Arrays.equals(chromatic.parallelRangeScan(a, b, pool), expected);
+        }
+        try (VcasBatchChromaticMapGC<Integer,Integer>.Snapshot snap = chromatic.snapshot()) {
+            Object[] expected = snap.rangeScan(0, 9999);
+            for(int k = 0; k < 10000; k += 2) chromatic.remove(k);
+            assert Arrays.equals(snap.parallelRangeScan(0, 9999, pool), expected);
+            assert chromatic.parallelRangeScan(0, 9999, pool).length < expected.length;
+        }
+        pool.shutdown();
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
+    static void bulkLoadTest(int batchSize) {
+        java.util.Random rng = new java.util.Random(batchSize);
+        int[] sizes = {0, 1, batchSize, 5*batchSize+3, 3000};
+        for(int n : sizes) {
+            Integer[] keys = new Integer[n];
+            for(int i = 0, k = 0; i < n; i++) keys[i] = k += 1 + rng.nextInt(3);
+            VcasBatchBSTMapGC<Integer,Integer> bst = VcasBatchBSTMapGC.bulkLoad(batchSize, keys, keys);
+            List<Element<Integer,Integer>> elements = new ArrayList<Element<Integer,Integer>>();
+            for(Integer k : keys) elements.add(new Element<Integer,Integer>(k, k));
+            VcasBatchChromaticMapGC<Integer,Integer> chromatic = VcasBatchChromaticMapGC.bulkLoad(batchSize, elements.iterator());
+            assert bst.size() == n && chromatic.size() == n && chromatic.sequentialSize() == n;
+            assert Arrays.equals(bst.rangeScan(Integer.MIN_VALUE, Integer.MAX_VALUE-1), keys);
+            assert Arrays.equals(chromatic.rangeScan(Integer.MIN_VALUE, Integer.MAX_VALUE-1), keys);
+
+            // the loaded trees behave like trees built by putIfAbsent
+            TreeMap<Integer,Integer> expected = new TreeMap<Integer,Integer>();
+            for(Integer k : keys) expected.put(k, k);
+            for(int i = 0; i < 2000; i++) {
+                int k = rng.nextInt(3*n+10);
+                if(rng.nextBoolean()) {
+                    boolean added = !expected.containsKey(k);
+                    if(added) expected.put(k, k);
+                    assert (bst.putIfAbsent(k, k) == null) == added && (chromatic.putIfAbsent(k, k) == null) == added;
+                } else {
+                    boolean removed = expected.remove(k) != null;
+                    assert (bst.remove(k) != null) == removed && (chromatic.remove(k) != null) == removed;
+                }
+            }
+            Object[] contents = expected.keySet().toArray();
+            assert Arrays.equals(bst.rangeScan(Integer.MIN_VALUE, Integer.MAX_VALUE-1), contents);
+            assert Arrays.equals(chromatic.rangeScan(Integer.MIN_VALUE, Integer.MAX_VALUE-1), contents);
+            assert bst.size() == contents.length && chromatic.size() == contents.length;
+        }
+        boolean threw = false;
+        try { VcasBatchBSTMapGC.bulkLoad(batchSize, new Integer[]{1, 3, 3}, new Integer[]{1, 3, 3}); } catch (IllegalArgumentException e) { threw = true; }
+        assert threw;
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
+    static void batchUpdateTest(int batchSize) {
+        final VcasBatchBSTMapGC<Integer,Integer> tree = new VcasBatchBSTMapGC<Integer,Integer>(batchSize);
+        java.util.Random rng = new java.util.Random(batchSize);
+        TreeMap<Integer,Integer> expected = new TreeMap<Integer,Integer>();
+        for(int round = 0; round < 200; round++) {
+            int n = rng.nextInt(60);
+            Integer[] keys = new Integer[n], values = new Integer[n];
+            int base = rng.nextInt(2000);
+            for(int i = 0; i < n; i++) {
+                keys[i] = base + rng.nextInt(100);
+                values[i] = round;
+            }
+            if(rng.nextBoolean()) Arrays.sort(keys);
+            if(rng.nextInt(3) > 0) {
+                int added = 0;
+                for(int i = 0; i < n; i++)
+                    if(!expected.containsKey(keys[i])) { expected.put(keys[i], values[i]); added++; }
+                assert tree.putAll(keys, values) == added;
+            } else {
+                int removed = 0;
+                for(int i = 0; i < n; i++)
+                    if(expected.remove(keys[i]) != null) removed++;
+                assert tree.removeAll(keys) == removed;
+            }
+        }
+        assert Arrays.equals(tree.rangeScan(Integer.MIN_VALUE, Integer.MAX_VALUE-1), expected.values().toArray());
+        assert tree.size() == expected.size() && tree.sequentialSize() == expected.size();
+        tree.removeAll(expected.keySet().toArray(new Integer[0]));
+        assert tree.size() == 0 && tree.rangeScan(Integer.MIN_VALUE, Integer.MAX_VALUE-1).length == 0;
+
+        // concurrent batches on interleaved keys
+        final int nthreads = 4, keysPerThread = 1000;
+        Thread[] threads = new Thread[nthreads];
+        for(int i = 0; i < nthreads; i++) {
+            final int t = i;
+            threads[i] = new Thread(() -> {
+                Integer[] keys = new Integer[keysPerThread];
+                for(int k = 0; k < keysPerThread; k++) keys[k] = k*nthreads + t;
+                for(int round = 0; round < 3; round++) {
+                    for(int from = 0; from < keysPerThread; from += 50)
+                        tree.putAll(Arrays.copyOfRange(keys, from, from+50), Arrays.copyOfRange(keys, from, from+50));
+                    Integer[] odd = new Integer[keysPerThread/2];
+                    for(int k = 0; k < odd.length; k++) odd[k] = keys[2*k+1];
+                    tree.removeAll(odd);
+                }
+            });
+            threads[i].start();
+        }
+        for(int i = 0; i < nthreads; i++)
+            try { threads[i].join(); } catch (InterruptedException e) { assert false; }
+        assert tree.size() == nthreads*keysPerThread/2 && tree.sequentialSize() == nthreads*keysPerThread/2;
+        for(int k = 0; k < nthreads*keysPerThread; k++)
+            assert (tree.get(k) != null) == ((k/nthreads) % 2 == 0);
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
+    static void updateFamilyTest(int batchSize) {
+        final VcasBatchBSTMapGC<Integer,Integer> tree = new VcasBatchBSTMapGC<Integer,Integer>(batchSize);
+        java.util.Random rng = new java.util.Random(batchSize);
+        TreeMap<Integer,Integer> expected = new TreeMap<Integer,Integer>();
+        for(int i = 0; i < 3000; i++) {
+            Integer k = rng.nextInt(200), v = rng.nextInt(4);
+            switch(rng.nextInt(7)) {
+                case 0: assert java.util.Objects.equals(tree.put(k, v), expected.put(k, v)); break;
+                case 1: assert java.util.Objects.equals(tree.replace(k, v), expected.replace(k, v)); break;
+                case 2: assert tree.replace(k, v, v+1) == expected.replace(k, v, v+1); break;
+                case 3: assert java.util.Objects.equals(tree.compute(k, (key, old) -> old == null ? v : (old > 2 ? null : old+1)),
+                                                        expected.compute(k, (key, old) -> old == null ? v : (old > 2 ? null : old+1))); break;
+                case 4: assert tree.merge(k, v, Integer::sum).equals(expected.merge(k, v, Integer::sum)); break;
+                case 5: assert tree.computeIfAbsent(k, (key) -> v).equals(expected.computeIfAbsent(k, (key) -> v)); break;
+                default: assert java.util.Objects.equals(tree.remove(k), expected.remove(k)); break;
+            }
+        }
+        assert Arrays.equals(tree.rangeScan(Integer.MIN_VALUE, Integer.MAX_VALUE-1), expected.values().toArray());
+        assert tree.size() == expected.size();
+
+        // concurrent counters: no increment is lost and a key never disappears from a snapshot
+        final int nthreads = 4, nkeys = 50, increments = 2000;
+        for(int k = 1000; k < 1000+nkeys; k++) tree.put(k, 0);
+        final AtomicBoolean failed = new AtomicBoolean();
+        Thread[] threads = new Thread[nthreads];
+        for(int i = 0; i < nthreads; i++) {
+            final int t = i;
+            threads[i] = new Thread(() -> {
+                java.util.Random r = new java.util.Random(t);
+                for(int j = 0; j < increments; j++) {
+                    tree.merge(1000 + r.nextInt(nkeys), 1, Integer::sum);
+                    if(j % 100 == 0)
+                        try (VcasBatchBSTMapGC<Integer,Integer>.Snapshot snap = tree.snapshot()) {
+                            if(snap.rangeCount(1000, 1000+nkeys-1) != nkeys) failed.set(true);
+                        }
+                }
+            });
+            threads[i].start();
+        }
+        for(int i = 0; i < nthreads; i++)
+            try { threads[i].join(); } catch (InterruptedException e) { assert false; }
+        assert !failed.get();
+        assert tree.rangeSum(1000, 1000+nkeys-1) == nthreads*increments;
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
+    static void sharedDescentMultiSearchTest(int batchSize) {
+        VcasBatchBSTMapGC<Integer,Integer> bst = new VcasBatchBSTMapGC<Integer,Integer>(batchSize);
+        VcasBatchChromaticMapGC<Integer,Integer> chromatic = new VcasBatchChromaticMapGC<Integer,Integer>(batchSize);
+        java.util.Random rng = new java.util.Random(batchSize);
+        for(int i = 0; i < 2000; i++) {
+            int k = rng.nextInt(5000);
+            bst.putIfAbsent(k, -k);
+            chromatic.putIfAbsent(k, -k);
+        }
+        for(int j = 0; j < 20; j++) {
+            Integer[] keys = new Integer[rng.nextInt(500)];
+            for(int i = 0; i < keys.length; i++) keys[i] = rng.nextInt(5500) - 250;  // with duplicates and keys outside the tree
+            if(j % 2 == 0) Arrays.sort(keys);
+            Object[] expected = new Object[keys.length];
+            for(int i = 0; i < keys.length; i++) expected[i] = bst.get(keys[i]);
+            assert Arrays.equals(bst.multiSearch(keys), expected);
+            assert Arrays.equals(chromatic.multiSearch(keys), expected);
+        }
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
+    static void predecessorsTest(int batchSize) {
+        VcasBatchBSTMapGC<Integer,Integer> bst = new VcasBatchBSTMapGC<Integer,Integer>(batchSize);
+        VcasBatchChromaticMapGC<Integer,Integer> chromatic = new VcasBatchChromaticMapGC<Integer,Integer>(batchSize);
+        TreeMap<Integer,Integer> expected = new TreeMap<Integer,Integer>();
+        java.util.Random rng = new java.util.Random(batchSize);
+        assert bst.predecessors(0, 5).length == 0;
+        assert chromatic.predecessors(0, 5).length == 0;
+        for(int i = 0; i < 2000; i++) {
+            int k = rng.nextInt(5000);
+            bst.putIfAbsent(k, -k);
+            chromatic.putIfAbsent(k, -k);
+            expected.put(k, -k);
+        }
+        for(int j = 0; j < 200; j++) {
+            int key = rng.nextInt(5500) - 250;
+            int num = 1 + rng.nextInt(100);
+            Element<Integer,Integer>[] fromBst = bst.predecessors(key, num);
+            Element<Integer,Integer>[] fromChromatic = chromatic.predecessors(key, num);
+            int n = 0;
+            for(Entry<Integer,Integer> e : expected.headMap(key, true).descendingMap().entrySet()) {
+                if(n == num) break;
+                assert fromBst[n].key.equals(e.getKey()) && fromBst[n].value.equals(e.getValue());
+                assert fromChromatic[n].key.equals(e.getKey()) && fromChromatic[n].value.equals(e.getValue());
+                n++;
+            }
+            assert fromBst.length == n && fromChromatic.length == n;
+        }
+        try(VcasBatchBSTMapGC<Integer,Integer>.Snapshot s = bst.snapshot()) {
+            int last = expected.lastKey();
+            bst.remove(last);
+            assert s.predecessors(last, 1)[0].key.intValue() == last;
+            assert bst.predecessors(last, 1)[0].key.intValue() < last;
+        }
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
+    // compares the navigation queries and the contents of two maps
+    static void checkNavigable(NavigableMap<Integer,Integer> actual, NavigableMap<Integer,Integer> expected, java.util.Random rng) {
+        assert new ArrayList<Entry<Integer,Integer>>(actual.entrySet()).equals(new ArrayList<Entry<Integer,Integer>>(expected.entrySet()));
+        assert actual.size() == expected.size() && actual.isEmpty() == expected.isEmpty();
+        assert actual.equals(expected) && expected.equals(actual);
+        assert Objects.equals(actual.firstEntry(), expected.firstEntry()) && Objects.equals(actual.lastEntry(), expected.lastEntry());
+        for(int i = 0; i < 20; i++) {
+            int key = rng.nextInt(1200) - 100;
+            assert Objects.equals(actual.get(key), expected.get(key));
+            assert Objects.equals(actual.floorEntry(key), expected.floorEntry(key));
+            assert Objects.equals(actual.ceilingEntry(key), expected.ceilingEntry(key));
+            assert Objects.equals(actual.lowerKey(key), expected.lowerKey(key));
+            assert Objects.equals(actual.higherKey(key), expected.higherKey(key));
+        }
+    }
+
+    static void navigableMapTest(int batchSize) {
+        List<ConcurrentNavigableMap<Integer,Integer>> maps = new ArrayList<ConcurrentNavigableMap<Integer,Integer>>();
+        maps.add(new VcasBatchBSTMapGC<Integer,Integer>(batchSize).asNavigableMap());
+        maps.add(new VcasBatchChromaticMapGC<Integer,Integer>(batchSize).asNavigableMap());
+        for(ConcurrentNavigableMap<Integer,Integer> map : maps) {
+            ConcurrentSkipListMap<Integer,Integer> expected = new ConcurrentSkipListMap<Integer,Integer>();
+            java.util.Random rng = new java.util.Random(batchSize);
+            assert map.isEmpty() && map.firstEntry() == null && map.pollFirstEntry() == null;
+            for(int i = 0; i < 3000; i++) {
+                int key = rng.nextInt(1000);
+                switch(rng.nextInt(5)) {
+                    case 0: assert Objects.equals(map.put(key, i), expected.put(key, i)); break;
+                    case 1: assert Objects.equals(map.putIfAbsent(key, i), expected.putIfAbsent(key, i)); break;
+                    case 2: assert Objects.equals(map.remove(key), expected.remove(key)); break;
+                    case 3: assert Objects.equals(map.merge(key, 1, Integer::sum), expected.merge(key, 1, Integer::sum)); break;
+                    default: assert map.remove(key, i-1) == expected.remove(key, i-1); break;
+                }
+            }
+            checkNavigable(map, expected, rng);
+            checkNavigable(map.descendingMap(), expected.descendingMap(), rng);
+            for(int i = 0; i < 20; i++) {
+                int a = rng.nextInt(1000), b = a + rng.nextInt(300);
+                boolean ai = rng.nextBoolean(), bi = rng.nextBoolean();
+                checkNavigable(map.subMap(a, ai, b, bi), expected.subMap(a, ai, b, bi), rng);
+                checkNavigable(map.headMap(b, bi).descendingMap(), expected.headMap(b, bi).descendingMap(), rng);
+                checkNavigable(map.descendingMap().headMap(a, ai).tailMap(b, bi), expected.descendingMap().headMap(a, ai).tailMap(b, bi), rng);
+                assert new ArrayList<Integer>(map.tailMap(a, ai).descendingKeySet()).equals(new ArrayList<Integer>(expected.tailMap(a, ai).descendingKeySet()));
+            }
+
+            // views reject keys out of their range, and iterators see the map at one snapshot
+            try {
+                map.subMap(100, 200).put(200, 0);
+                assert false;
+            } catch(IllegalArgumentException e) {}
+            Iterator<Entry<Integer,Integer>> it = map.entrySet().iterator();
+            ArrayList<Entry<Integer,Integer>> before = new ArrayList<Entry<Integer,Integer>>(expected.entrySet());
+            map.clear();
+            assert map.isEmpty() && map.size() == 0;
+            ArrayList<Entry<Integer,Integer>> seen = new ArrayList<Entry<Integer,Integer>>();
+            while(it.hasNext()) seen.add(it.next());
+            assert seen.equals(before);
+
+            map.put(1, 1);
+            map.put(2, 2);
+            map.put(3, 3);
+            assert map.pollFirstEntry().getKey() == 1 && map.pollLastEntry().getKey() == 3;
+            assert map.firstKey() == 2 && map.lastKey() == 2 && map.size() == 1;
+        }
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
+    static void bufferedQueriesTest(int batchSize) {
+        VcasBatchBSTMapGC<Integer,Integer> bst = new VcasBatchBSTMapGC<Integer,Integer>(batchSize);
+        VcasBatchChromaticMapGC<Integer,Integer> chromatic = new VcasBatchChromaticMapGC<Integer,Integer>(batchSize);
+        VcasLongBatchBSTMap<Integer> longBst = new VcasLongBatchBSTMap<Integer>(batchSize);
+        java.util.Random rng = new java.util.Random(batchSize);
+        for(int i = 0; i < 2000; i++) {
+            int k = rng.nextInt(5000);
+            bst.putIfAbsent(k, -k);
+            chromatic.putIfAbsent(k, -k);
+            longBst.putIfAbsent(k, -k);
+        }
+        Element<Integer,Integer>[] buffer = new Element[50];
+        Element<Long,Integer>[] longBuffer = new Element[50];
+        Integer[] keys = new Integer[50];
+        Integer[] values = new Integer[50];
+        long[] longKeys = new long[50];
+        Element<Integer,Integer> result = new Element<Integer,Integer>();
+        Element<Long,Integer> longResult = new Element<Long,Integer>();
+        for(int j = 0; j < 50; j++) {
+            int key = rng.nextInt(5100);
+            Element<Integer,Integer>[] expected = bst.successors(key, 50);
+            Element<Integer,Integer> first = buffer[0];
+            assert bst.successors(key, buffer) == expected.length;
+            assert first == null || expected.length == 0 || buffer[0] == first;  // the Elements are reused
+            for(int i = 0; i < expected.length; i++)
+                assert buffer[i].key.equals(expected[i].key) && buffer[i].value.equals(expected[i].value);
+            assert chromatic.successors(key, keys, values) == expected.length;
+            for(int i = 0; i < expected.length; i++)
+                assert keys[i].equals(expected[i].key) && values[i].equals(expected[i].value);
+            assert bst.successors(key, keys, null) == expected.length;
+            assert longBst.successors(key, longKeys, values) == expected.length;
+            for(int i = 0; i < expected.length; i++)
+                assert longKeys[i] == expected[i].key && values[i].equals(expected[i].value);
+            try(VcasLongBatchBSTMap<Integer>.Snapshot snap = longBst.snapshot()) {
+                assert snap.successors(key, longBuffer) == expected.length;
+                for(int i = 0; i < expected.length; i++)
+                    assert longBuffer[i].key == expected[i].key.longValue();
+            }
+            assert longBst.successors(key, longBuffer) == expected.length;
+            for(int i = 0; i < expected.length; i++)
+                assert longBuffer[i].key == expected[i].key.longValue() && longBuffer[i].value.equals(expected[i].value);
+
+            int mod = 1 + rng.nextInt(20);
+            Predicate<Element<Integer,Integer>> p = (e) -> e.key % mod == 0;
+            Element<Integer,Integer> found = chromatic.findIf(key, key + 200, p);
+            assert bst.findIf(key, key + 200, p, result) == (found != null);
+            assert found == null || (result.key.equals(found.key) && result.value.equals(found.value));
+            assert chromatic.findIf(key, key + 200, p, result) == (found != null);
+            assert found == null || result.key.equals(found.key);
+            assert longBst.findIf(key, key + 200, (e) -> e.key % mod == 0, longResult) == (found != null);
+            assert found == null || (longResult.key == found.key.longValue() && longResult.value.equals(found.value));
+        }
+        assert bst.successors(null, buffer) == 0 && bst.successors(null, keys, values) == 0;
+        assert chromatic.successors(null, buffer) == 0 && chromatic.successors(null, keys, null) == 0;
+        try(VcasBatchBSTMapGC<Integer,Integer>.Snapshot snap = bst.snapshot()) {
+            assert snap.successors(null, buffer) == 0 && snap.successors(null, keys, values) == 0;
+        }
+        try(VcasBatchChromaticMapGC<Integer,Integer>.Snapshot snap = chromatic.snapshot()) {
+            assert snap.successors(null, buffer) == 0 && snap.successors(null, keys, values) == 0;
+        }
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
+    static void aggregateScanTest(int batchSize) {
+        VcasBatchBSTMapGC<Integer,Integer> bst = new VcasBatchBSTMapGC<Integer,Integer>(batchSize);
+        VcasBatchChromaticMapGC<Integer,Integer> chromatic = new VcasBatchChromaticMapGC<Integer,Integer>(batchSize);
+        TreeMap<Integer,Integer> expected = new TreeMap<Integer,Integer>();
+        java.util.Random rng = new java.util.Random(batchSize);
+        for(int i = 0; i < 3000; i++) {
+            int k = rng.nextInt(5000);
+            int v = rng.nextInt(1000) - 500;
+            bst.putIfAbsent(k, v);
+            chromatic.putIfAbsent(k, v);
+            expected.putIfAbsent(k, v);
+        }
+        for(int j = 0; j < 50; j++) {
+            int lo = rng.nextInt(5200) - 100, hi = lo + rng.nextInt(2000);
+            int mod = 1 + rng.nextInt(5);
+            Predicate<Element<Integer,Integer>> filter = (j % 4 == 0) ? null : (e) -> e.key % mod == 0;
+            long count = 0, sum = 0;
+            long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+            ArrayList<Integer> keys = new ArrayList<Integer>();
+            for(Entry<Integer,Integer> e : expected.subMap(lo, true, hi, true).entrySet()) {
+                if(filter != null && e.getKey() % mod != 0) continue;
+                count++;
+                sum += e.getValue();
+                min = Math.min(min, e.getValue());
+                max = Math.max(max, e.getValue());
+                keys.add(e.getKey());
+            }
+            assert bst.count(lo, hi, filter) == count && chromatic.count(lo, hi, filter) == count;
+            assert bst.sum(lo, hi, filter, Integer::longValue) == sum && chromatic.sum(lo, hi, filter, Integer::longValue) == sum;
+            assert count == 0 ? !bst.min(lo, hi, filter, Integer::longValue).isPresent() : bst.min(lo, hi, filter, Integer::longValue).getAsLong() == min;
+            assert count == 0 ? !chromatic.max(lo, hi, filter, Integer::longValue).isPresent() : chromatic.max(lo, hi, filter, Integer::longValue).getAsLong() == max;
+            ArrayList<Integer> reduced = bst.reduce(lo, hi, filter, new ArrayList<Integer>(), (list, e) -> { list.add(e.key); return list; });
+            assert reduced.equals(keys);
+            assert chromatic.reduce(lo, hi, filter, 0L, (acc, e) -> acc + e.key) == keys.stream().mapToLong(Integer::longValue).sum();
+        }
+        try(VcasBatchChromaticMapGC<Integer,Integer>.Snapshot snap = chromatic.snapshot()) {
+            long before = snap.count(0, 5000, null);
+            chromatic.remove(expected.firstKey());
+            assert snap.count(0, 5000, null) == before && snap.sum(0, 5000, null, Integer::longValue) == bst.sum(0, 5000, null, Integer::longValue);
+            assert chromatic.count(0, 5000, null) == before - 1;
+        }
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
+    static void checkpointTest(int batchSize) {
+        VcasBatchBSTMapGC<Integer,String> bst = new VcasBatchBSTMapGC<Integer,String>(batchSize);
+        TreeMap<Integer,String> expected = new TreeMap<Integer,String>();
+        java.util.Random rng = new java.util.Random(batchSize);
+        for(int i = 0; i < 5000; i++) {
+            int k = rng.nextInt(20000);
+            String v = "v" + rng.nextInt(1000);
+            bst.putIfAbsent(k, v);
+            expected.putIfAbsent(k, v);
+        }
+        java.nio.file.Path file = null;
+        try {
+            file = java.nio.file.Files.createTempFile("vcas", ".ckpt");
+            // updates after the snapshot are not in the checkpoint
+            try(VcasBatchBSTMapGC<Integer,String>.Snapshot snap = bst.snapshot()) {
+                for(int i = 0; i < 1000; i++) {
+                    bst.remove(rng.nextInt(20000));
+                    bst.putIfAbsent(rng.nextInt(20000), "new");
+                }
+                assert snap.checkpoint(file, Checkpoint.INTEGER, Checkpoint.STRING) == expected.size();
+            }
+            VcasBatchBSTMapGC<Integer,String> restored = VcasBatchBSTMapGC.restore(batchSize, file, Checkpoint.INTEGER, Checkpoint.STRING);
+            VcasBatchChromaticMapGC<Integer,String> chromatic = VcasBatchChromaticMapGC.restore(batchSize, file, Checkpoint.INTEGER, Checkpoint.STRING);
+            assert restored.size() == expected.size() && restored.sequentialSize() == expected.size();
+            assert chromatic.size() == expected.size() && chromatic.sequentialSize() == expected.size();
+            for(int k = -1; k <= 20000; k++) {
+                assert Objects.equals(restored.get(k), expected.get(k));
+                assert Objects.equals(chromatic.get(k), expected.get(k));
+            }
+
+            // a checkpoint taken while another thread updates is a consistent snapshot
+            AtomicBoolean done = new AtomicBoolean();
+            Thread updater = new Thread(() -> {
+                java.util.Random r = new java.util.Random();
+                while(!done.get()) {
+                    int k = r.nextInt(20000);
+                    if(chromatic.remove(k) == null) chromatic.putIfAbsent(k, "w");
+                }
+            });
+            updater.start();
+            long written = chromatic.checkpoint(file, Checkpoint.INTEGER, Checkpoint.STRING);
+            done.set(true);
+            updater.join();
+            VcasBatchBSTMapGC<Integer,String> copy = VcasBatchBSTMapGC.restore(batchSize, file, Checkpoint.INTEGER, Checkpoint.STRING);
+            assert copy.size() == written && copy.sequentialSize() == written;
+
+            VcasBatchBSTMapGC<Integer,String> empty = new VcasBatchBSTMapGC<Integer,String>(batchSize);
+            assert empty.checkpoint(file, Checkpoint.INTEGER, Checkpoint.STRING) == 0;
+            assert VcasBatchBSTMapGC.restore(batchSize, file, Checkpoint.INTEGER, Checkpoint.STRING).size() == 0;
+
+            // a truncated file is rejected rather than loaded in part
+            bst.checkpoint(file, Checkpoint.INTEGER, Checkpoint.STRING);
+            try(java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(file, java.nio.file.StandardOpenOption.WRITE)) {
+                channel.truncate(channel.size() - 3);
+            }
+            boolean rejected = false;
+            try {
+                VcasBatchBSTMapGC.restore(batchSize, file, Checkpoint.INTEGER, Checkpoint.STRING);
+            } catch(IOException e) {
+                rejected = true;
+            }
+            assert rejected;
+            java.nio.file.Files.delete(file);
+        } catch(IOException | InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
+    static void durableMapTest(int batchSize) {
+        try {
+            java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("vcas-wal");
+            java.nio.file.Path checkpoint = dir.resolve("tree.ckpt");
+            for(WriteAheadLog.Sync sync : WriteAheadLog.Sync.values()) {
+                VcasBatchChromaticMapGC<Integer,Integer> tree = new VcasBatchChromaticMapGC<Integer,Integer>(batchSize);
+                WriteAheadLog<Integer,Integer> log = new WriteAheadLog<Integer,Integer>(dir, Checkpoint.INTEGER, Checkpoint.INTEGER, sync, 1, 4096);
+                DurableMap<Integer,Integer> map = tree.withLog(log);
+                Thread[] threads = new Thread[4];
+                for(int t = 0; t < threads.length; t++) {
+                    final int seed = t;
+                    threads[t] = new Thread(() -> {
+                        java.util.Random rng = new java.util.Random(seed);
+                        for(int i = 0; i < 3000; i++) {
+                            int k = rng.nextInt(2000);
+                            if(rng.nextBoolean()) map.putIfAbsent(k, k + seed);
+                            else map.remove(k);
+                        }
+                    });
+                    threads[t].start();
+                }
+                for(Thread thread : threads) thread.join();
+                assert sync == WriteAheadLog.Sync.NONE || log.segments() > 1; // NONE has not filled its buffer yet
+                // the checkpoint covers every segment so far
+                long written = map.checkpoint(checkpoint, Checkpoint.INTEGER, Checkpoint.INTEGER);
+                assert written == tree.size();
+                assert log.segments() == 1;
+                java.util.Random rng = new java.util.Random(batchSize);
+                for(int i = 0; i < 2000; i++) {
+                    int k = rng.nextInt(2000);
+                    if(map.remove(k) == null) map.putIfAbsent(k, -k);
+                }
+                map.close();
+
+                // a torn record at the end of a segment is dropped
+                try(java.nio.channels.FileChannel c = java.nio.channels.FileChannel.open(dir.resolve("wal-ffffffffffffffff.log"), java.nio.file.StandardOpenOption.CREATE_NEW, java.nio.file.StandardOpenOption.WRITE)) {
+                    c.write(java.nio.ByteBuffer.wrap(new byte[] {0, 0, 0, 9, 1, 2, 3, 4, 1}));
+                }
+                VcasBatchBSTMapGC<Integer,Integer> recovered = VcasBatchBSTMapGC.restore(batchSize, checkpoint, Checkpoint.INTEGER, Checkpoint.INTEGER);
+                WriteAheadLog.replay(dir, Checkpoint.INTEGER, Checkpoint.INTEGER, recovered.asNavigableMap());
+                assert recovered.size() == tree.size();
+                for(int k = 0; k < 2000; k++)
+                    assert Objects.equals(recovered.get(k), tree.get(k));
+                try(java.nio.file.DirectoryStream<java.nio.file.Path> files = java.nio.file.Files.newDirectoryStream(dir)) {
+                    for(java.nio.file.Path file : files) java.nio.file.Files.delete(file);
+                }
+            }
+
+            // a codec that rejects its input fails the append without corrupting the log
+            Checkpoint.Codec<Integer> positive = new Checkpoint.Codec<Integer>() {
+                public void write(Integer value, java.nio.ByteBuffer out) {
+                    if(value < 0) throw new IllegalArgumentException("negative");
+                    out.putInt(value);
+                }
+                public Integer read(java.nio.ByteBuffer in) { return in.getInt(); }
+            };
+            DurableMap<Integer,Integer> map = new VcasBatchBSTMapGC<Integer,Integer>(batchSize).withLog(new WriteAheadLog<Integer,Integer>(dir, Checkpoint.INTEGER, positive, WriteAheadLog.Sync.ALWAYS));
+            map.putIfAbsent(1, 1);
+            boolean rejected = false;
+            try {
+                map.putIfAbsent(2, -2);
+            } catch(IllegalArgumentException e) {
+                rejected = true;
+            }
+            assert rejected;
+            map.putIfAbsent(3, 3);
+            map.close();
+            TreeMap<Integer,Integer> replayed = new TreeMap<Integer,Integer>();
+            WriteAheadLog.replay(dir, Checkpoint.INTEGER, positive, replayed);
+            assert replayed.size() == 2 && replayed.get(1) == 1 && replayed.get(3) == 3;
+            try(java.nio.file.DirectoryStream<java.nio.file.Path> files = java.nio.file.Files.newDirectoryStream(dir)) {
+                for(java.nio.file.Path file : files) java.nio.file.Files.delete(file);
+            }
+            java.nio.file.Files.delete(dir);
+        } catch(IOException | InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
+    static void timeTravelTest(int batchSize) {
+        VcasBatchBSTMapGC<Integer,Integer> bst = new VcasBatchBSTMapGC<Integer,Integer>(batchSize);
+        VcasBatchChromaticMapGC<Integer,Integer> chromatic = new VcasBatchChromaticMapGC<Integer,Integer>(batchSize);
+        for(int i = 0; i < 2000; i++) {
+            bst.putIfAbsent(i, i);
+            chromatic.putIfAbsent(i, i);
+        }
+        long t0;
+        try(VcasBatchBSTMapGC<Integer,Integer>.Snapshot snap = bst.snapshot()) {
+            t0 = snap.timestamp();
+        }
+        boolean rejected = false;
+        try {
+            bst.getAt(0, t0); // nothing is retained yet
+        } catch(IllegalArgumentException e) {
+            rejected = true;
+        }
+        assert rejected;
+
+        Camera camera = VcasBatchBSTMapGC.camera;
+        assert camera == VcasBatchChromaticMapGC.camera;
+        camera.retain(0, 1, TimeUnit.HOURS);
+        try {
+            long t1;
+            Object[] scan;
+            try(VcasBatchBSTMapGC<Integer,Integer>.Snapshot snap = bst.snapshot()) {
+                t1 = snap.timestamp();
+                scan = snap.rangeScan(100, 900);
+            }
+            Object[] chromaticScan = chromatic.rangeScan(100, 900);
+            java.util.Random rng = new java.util.Random(batchSize);
+            for(int round = 1; round <= 20; round++) {
+                for(int i = 0; i < 2000; i++) {
+                    int k = rng.nextInt(2000);
+                    bst.remove(k);
+                    bst.putIfAbsent(k, -round);
+                    chromatic.remove(k);
+                    chromatic.putIfAbsent(k, -round);
+                }
+                camera.snapshot();
+                camera.refreshOldestActiveSnapshot();
+            }
+            assert !Arrays.equals(bst.rangeScan(100, 900), scan);
+            assert Arrays.equals(bst.rangeScanAt(100, 900, t1), scan);
+            assert Arrays.equals(chromatic.rangeScanAt(100, 900, t1), chromaticScan);
+            for(int k = 0; k < 2000; k += 7) {
+                assert bst.getAt(k, t1).intValue() == k;
+                assert chromatic.getAt(k, t1).intValue() == k;
+            }
+            Element<Integer,Integer>[] bstSuccessors = bst.successorsAt(1500, 10, t1);
+            Element<Integer,Integer>[] chromaticSuccessors = chromatic.successorsAt(1500, 10, t1);
+            assert bstSuccessors.length == 10 && chromaticSuccessors.length == 10;
+            for(int i = 0; i < 10; i++) {
+                assert bstSuccessors[i].key == 1500+i && bstSuccessors[i].value == 1500+i;
+                assert chromaticSuccessors[i].key == 1500+i && chromaticSuccessors[i].value == 1500+i;
+            }
+            // no sample is a minute old yet, so a minute ago maps to the start of the window
+            assert camera.timestampAgo(1, TimeUnit.MINUTES) <= t1;
+            rejected = false;
+            try {
+                chromatic.getAt(0, camera.read() + 10);
+            } catch(IllegalArgumentException e) {
+                rejected = true;
+            }
+            assert rejected;
+        } finally {
+            camera.retain(0, 0, TimeUnit.SECONDS);
+        }
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
+    static void changeStreamTest(int batchSize) {
+        VcasBatchBSTMapGC<Integer,Integer> bst = new VcasBatchBSTMapGC<Integer,Integer>(batchSize);
+        VcasBatchChromaticMapGC<Integer,Integer> chromatic = new VcasBatchChromaticMapGC<Integer,Integer>(batchSize);
+        java.util.Random rng = new java.util.Random(batchSize);
+        for(int i = 0; i < 3000; i++) {
+            int k = rng.nextInt(5000);
+            bst.putIfAbsent(k, k);
+            chromatic.putIfAbsent(k, k);
+        }
+        Camera camera = VcasBatchBSTMapGC.camera;
+        TreeMap<Integer,Integer> bstCopy = new TreeMap<Integer,Integer>();
+        TreeMap<Integer,Integer> chromaticCopy = new TreeMap<Integer,Integer>();
+        try(ChangeStream<Integer,Integer> bstStream = bst.changes(1000, 3000);
+            ChangeStream<Integer,Integer> chromaticStream = chromatic.changes(1000, 3000)) {
+            assert camera.retainsHistory();
+            bst.rangeScan(1000, 3000, (k, v) -> { bstCopy.put(k, v); return true; });
+            chromatic.rangeScan(1000, 3000, (k, v) -> { chromaticCopy.put(k, v); return true; });
+            for(int round = 1; round <= 10; round++) {
+                for(int i = 0; i < 300; i++) {
+                    int k = rng.nextInt(5000);
+                    if(rng.nextBoolean()) {
+                        bst.put(k, round); // inserts or replaces
+                        chromatic.put(k, round);
+                    } else {
+                        bst.remove(k);
+                        chromatic.remove(k);
+                    }
+                }
+                long position = bstStream.position();
+                assert !bstStream.poll((k, oldValue, newValue) -> false);
+                assert bstStream.position() == position;
+                assert bstStream.poll((k, oldValue, newValue) -> {
+                    assert k >= 1000 && k <= 3000 && !Objects.equals(oldValue, newValue);
+                    assert Objects.equals(bstCopy.get(k), oldValue);
+                    if(newValue == null) bstCopy.remove(k); else bstCopy.put(k, newValue);
+                    return true;
+                });
+                assert bstStream.position() > position;
+                assert chromaticStream.poll((k, oldValue, newValue) -> {
+                    assert Objects.equals(chromaticCopy.get(k), oldValue);
+                    if(newValue == null) chromaticCopy.remove(k); else chromaticCopy.put(k, newValue);
+                    return true;
+                });
+                TreeMap<Integer,Integer> expected = new TreeMap<Integer,Integer>();
+                bst.rangeScan(1000, 3000, (k, v) -> { expected.put(k, v); return true; });
+                assert bstCopy.equals(expected);
+                expected.clear();
+                chromatic.rangeScan(1000, 3000, (k, v) -> { expected.put(k, v); return true; });
+                assert chromaticCopy.equals(expected);
+            }
+        }
+        assert !camera.retainsHistory(); // closing unpins
+
+        // the diff between two pinned timestamps turns one into the other
+        TreeMap<Integer,Integer> before = new TreeMap<Integer,Integer>();
+        long t1 = camera.pin();
+        bst.rangeScan(0, 4999, (k, v) -> { before.put(k, v); return true; });
+        for(int i = 0; i < 100; i++) {
+            int k = rng.nextInt(5000);
+            if(bst.remove(k) == null) bst.putIfAbsent(k, -k);
+        }
+        long t2 = camera.pin();
+        int[] changes = new int[1];
+        assert bst.diff(0, 4999, t1, t2, (k, oldValue, newValue) -> {
+            changes[0]++;
+            assert Objects.equals(before.get(k), oldValue);
+            if(newValue == null) before.remove(k); else before.put(k, newValue);
+            return true;
+        });
+        assert changes[0] > 0 && changes[0] <= 100;
+        for(int k = 0; k < 5000; k++) assert Objects.equals(before.get(k), bst.get(k));
+        int[] visited = new int[1];
+        assert !bst.diff(0, 4999, t1, t2, (k, oldValue, newValue) -> ++visited[0] < 3) && visited[0] == 3;
+        assert bst.diff(0, 4999, t2, t2, (k, oldValue, newValue) -> false);
+        camera.unpin(t1);
+        camera.unpin(t2);
+        assert !camera.retainsHistory();
+
+        // a diff or poll that throws ends its snapshots and releases its pins, so versions are still reclaimed
+        camera.snapshot();
+        camera.refreshOldestActiveSnapshot();
+        long t3 = camera.pin();
+        boolean rejected = false;
+        try {
+            bst.diff(0, 4999, t1, t3, (k, oldValue, newValue) -> true); // t1 is no longer retained
+        } catch(IllegalArgumentException e) {
+            rejected = true;
+        }
+        assert rejected;
+        chromatic.put(0, -1);
+        long t4 = camera.pin();
+        rejected = false;
+        try {
+            chromatic.diff(0, 4999, t3, t4, (k, oldValue, newValue) -> { throw new UnsupportedOperationException(); });
+        } catch(UnsupportedOperationException e) {
+            rejected = true;
+        }
+        assert rejected;
+        camera.unpin(t3);
+        camera.unpin(t4);
+        try(ChangeStream<Integer,Integer> stream = bst.changes(0, 4999)) {
+            bst.put(0, -1);
+            long position = stream.position();
+            rejected = false;
+            try {
+                stream.poll((k, oldValue, newValue) -> { throw new UnsupportedOperationException(); });
+            } catch(UnsupportedOperationException e) {
+                rejected = true;
+            }
+            assert rejected && stream.position() == position;
+            assert stream.poll((k, oldValue, newValue) -> k == 0); // reported again
+        }
+        assert !camera.retainsHistory();
+        int idx = ThreadID.get()*Epoch.PADDING;
+        assert VcasBatchBSTMapGC.epoch.announce[idx] == Epoch.INACTIVE && VcasBatchChromaticMapGC.epoch.announce[idx] == Epoch.INACTIVE;
+        camera.snapshot();
+        camera.refreshOldestActiveSnapshot();
+        assert camera.oldestActiveSnapshot() > t4;
+        int epochNum = VcasBatchBSTMapGC.epoch.epochNum;
+        for(int i = 0; i < 2*Epoch.ANNOUNCES_BEFORE_COLLECT; i++) bst.rangeScan(0, 10, (k, v) -> true);
+        assert VcasBatchBSTMapGC.epoch.epochNum > epochNum;
+
+        // the epoch reclaims versions retired under a pin without cutting off what the pin reads
+        VcasAtomicReferenceFieldUpdater.truncateVersions = false;
+        try {
+            bst.put(0, 100);
+            long pinned = camera.pin();
+            epochNum = VcasBatchBSTMapGC.epoch.epochNum;
+            for(int i = 1; i <= 5; i++) {
+                bst.put(0, 100 + i);
+                for(int j = 0; j < 2*Epoch.ANNOUNCES_BEFORE_COLLECT; j++) bst.rangeScan(0, 10, (k, v) -> true);
+            }
+            assert VcasBatchBSTMapGC.epoch.epochNum >= epochNum + 3;
+            assert bst.getAt(0, pinned) == 100 && bst.get(0) == 105;
+            camera.unpin(pinned);
+        } finally {
+            VcasAtomicReferenceFieldUpdater.truncateVersions = true;
+        }
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
+    static void rangeWatcherTest(int batchSize) {
+        VcasBatchBSTMapGC<Integer,Integer> bst = new VcasBatchBSTMapGC<Integer,Integer>(batchSize);
+        VcasBatchChromaticMapGC<Integer,Integer> chromatic = new VcasBatchChromaticMapGC<Integer,Integer>(batchSize);
+        for(int i = 0; i < 2000; i++) {
+            bst.putIfAbsent(i, i);
+            chromatic.putIfAbsent(i, i);
+        }
+        Camera camera = VcasBatchBSTMapGC.camera;
+        TreeMap<Integer,Integer> copy = new TreeMap<Integer,Integer>();
+        List<Integer> chromaticKeys = new CopyOnWriteArrayList<Integer>();
+        AtomicInteger batches = new AtomicInteger();
+        try(RangeWatcher watcher = new RangeWatcher(1, TimeUnit.HOURS)) { // polled by hand below
+            RangeWatcher.Subscription<Integer,Integer> s = bst.watch(500, 1500, watcher, batch -> {
+                batches.incrementAndGet();
+                for(RangeWatcher.Change<Integer,Integer> c : batch) {
+                    assert c.key >= 500 && c.key <= 1500;
+                    if(c.newValue == null) copy.remove(c.key); else copy.put(c.key, c.newValue);
+                }
+            });
+            bst.rangeScan(500, 1500, (k, v) -> { copy.put(k, v); return true; });
+            chromatic.watch(0, 99, watcher, batch -> {
+                for(RangeWatcher.Change<Integer,Integer> c : batch) chromaticKeys.add(c.key);
+            });
+            RangeWatcher.Subscription<Integer,Integer> failing = chromatic.watch(0, 1999, watcher, batch -> {
+                throw new IllegalArgumentException("listener failed");
+            });
+            RangeWatcher.Subscription<Integer,Integer> broken = ((VcasBatchBSTMapGC) bst).watch("a", "z", watcher, batch -> {}); // its diff cannot compare keys
+            assert watcher.subscriptions() == 4;
+            watcher.poll();
+            assert batches.get() == 0; // no changes, no batch
+
+            java.util.Random rng = new java.util.Random(batchSize);
+            for(int round = 1; round <= 10; round++) {
+                for(int i = 0; i < 200; i++) {
+                    int k = rng.nextInt(2000);
+                    if(bst.remove(k) == null) bst.putIfAbsent(k, -round);
+                }
+                chromatic.put(1000 + round, round); // outside [0, 99]
+                watcher.poll();
+                TreeMap<Integer,Integer> expected = new TreeMap<Integer,Integer>();
+                bst.rangeScan(500, 1500, (k, v) -> { expected.put(k, v); return true; });
+                assert copy.equals(expected);
+            }
+            assert batches.get() == 10;
+            assert chromaticKeys.isEmpty();
+            assert failing.failure() instanceof IllegalArgumentException && broken.failure() instanceof ClassCastException;
+            assert watcher.subscriptions() == 2;
+
+            chromatic.remove(7);
+            chromatic.put(8, -8);
+            watcher.poll();
+            assert chromaticKeys.equals(Arrays.asList(7, 8));
+            s.close();
+            assert watcher.subscriptions() == 1;
+        }
+        assert !camera.retainsHistory(); // closing the watcher closes its subscriptions
+
+        // a closed watcher takes no subscriptions, nor keeps their ranges pinned
+        RangeWatcher closed = new RangeWatcher(1, TimeUnit.HOURS);
+        closed.close();
+        try {
+            bst.watch(0, 1999, closed, batch -> {});
+            assert false;
+        } catch (IllegalStateException e) {}
+        assert closed.subscriptions() == 0 && !camera.retainsHistory();
+
+        // the watcher's own thread notifies
+        CountDownLatch notified = new CountDownLatch(2);
+        try(RangeWatcher watcher = new RangeWatcher(1, TimeUnit.MILLISECONDS)) {
+            ((VcasBatchBSTMapGC) bst).watch("a", "z", watcher, batch -> {}); // fails without stopping the thread
+            bst.watch(0, 1999, watcher, batch -> notified.countDown());
+            bst.put(0, 42);
+            try {
+                for(int i = 0; i < 10000 && notified.getCount() == 2; i++) Thread.sleep(1);
+                bst.put(0, 43);
+                assert notified.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) { assert false; }
+        }
+        assert !camera.retainsHistory();
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
+    static final class Box extends Versioned {
+        final int value;
+        Box(int value) { this.value = value; }
+    }
+
+    static void versionedReferenceTest() {
+        Camera camera = new Camera();
+        VersionedReference<Box> ref = new VersionedReference<Box>(new Box(1), camera, new Epoch<Box>());
+        long t1 = camera.snapshot();
+        Box b1 = ref.get();
+        assert ref.compareAndSet(b1, new Box(2));
+        assert !ref.compareAndSet(b1, new Box(3));
+        long t2 = camera.snapshot();
+        assert ref.compareAndSet(ref.get(), new Box(4));
+        assert ref.get(t1).value == 1;
+        assert ref.get(t2).value == 2;
+        assert ref.get().value == 4;
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
+    static void versionTruncationTest() {
+        Camera camera = new Camera();
+        VersionedReference<Box> ref = new VersionedReference<Box>(new Box(0), camera, new Epoch<Box>());
+        long t = camera.beginSnapshot();
+        for(int i = 1; i <= 100; i++) {
+            assert ref.compareAndSet(ref.get(), new Box(i));
+            camera.snapshot();
+        }
+        camera.refreshOldestActiveSnapshot();
+        assert camera.oldestActiveSnapshot() <= t;
+        assert ref.compareAndSet(ref.get(), new Box(101));
+        assert ref.get(t).value == 0; // still announced, so it must not be unlinked
+        camera.endSnapshot();
+
+        // without active snapshots, installing a version unlinks all older ones
+        camera.refreshOldestActiveSnapshot();
+        assert ref.compareAndSet(ref.get(), new Box(102));
+        int versions = 0;
+        for(Versioned v = ref.get(); v != null; v = v.nextVersion()) versions++;
+        assert versions <= 2;
+        assert ref.get().value == 102;
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
+    static void snapshotCounterTest() {
+        Camera camera = new Camera();
+        SnapshotCounter counter = new SnapshotCounter(camera, 10);
+        VersionedReference<Box> ref = new VersionedReference<Box>(new Box(0), camera, new Epoch<Box>());
+        Box b = new Box(1);
+        counter.add(b, 1);
+        long t1 = camera.snapshot();
+        assert !b.isInstalled() && counter.get(t1) == 10; // not installed yet, so skipped
+        assert ref.compareAndSet(ref.get(), b);
+        long t2 = camera.snapshot();
+        assert b.isInstalled() && b.ts > t1;
+        assert counter.get(t1) == 10 && counter.get(t2) == 11;
+        counter.add(new Box(2), 1);
+        counter.abort();
+        assert counter.get(camera.snapshot()) == 11;
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
+    static final class Counted extends Reclaimable {
+        final AtomicInteger reclaimed;
+        Counted(AtomicInteger reclaimed) { this.reclaimed = reclaimed; }
+        public void reclaim() { reclaimed.incrementAndGet(); }
+    }
+
+    static void limboEpochTest(boolean background) {
+        AtomicInteger reclaimed = new AtomicInteger();
+        LimboEpoch<Counted> epoch = new LimboEpoch<Counted>(background);
+        int n = 8*LimboEpoch.BAG_CAPACITY;
+
+        // nothing retired while a thread stays announced may be reclaimed
+        epoch.announce();
+        for(int i = 0; i < n; i++) epoch.retire(new Counted(reclaimed));
+        try { Thread.sleep(20); } catch (InterruptedException e) { assert false; }
+        assert reclaimed.get() == 0;
+        epoch.unannounce();
+
+        for(int round = 0; round < 100 && reclaimed.get() == 0; round++) {
+            for(int i = 0; i < n; i++) epoch.retire(new Counted(reclaimed));
+            if(background) try { Thread.sleep(10); } catch (InterruptedException e) { assert false; }
+        }
+        assert reclaimed.get() > 0;
+        epoch.shutdown();
+
+        // no per-epoch lists, and only the reclaimer advances the epoch when there is one
+        assert epoch.retiredNodes == null;
+        int epochNum = epoch.epochNum;
+        for(int i = 0; i < 2*Epoch.ANNOUNCES_BEFORE_COLLECT; i++) {
+            epoch.announce();
+            epoch.unannounce();
+        }
+        assert background ? epoch.epochNum == epochNum : epoch.epochNum > epochNum;
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + " (" + epoch.getName() + "): OK");
+    }
+
+    static void threadIDTest() {
+        // more threads than the old fixed limit, all live at the same time
+        final int nthreads = 200;
+        final VcasBatchBSTMapGC<Integer,Integer> tree = new VcasBatchBSTMapGC<Integer,Integer>(16);
+        final int[] ids = new int[nthreads];
+        final CyclicBarrier barrier = new CyclicBarrier(nthreads);
+        Thread[] threads = new Thread[nthreads];
+        for(int i = 0; i < nthreads; i++) {
+            final int t = i;
+            threads[i] = new Thread(() -> {
+                ids[t] = ThreadID.get();
+                try { barrier.await(); } catch (Exception e) { ids[t] = -1; }
+                tree.putIfAbsent(t, t);
+                tree.rangeScan(0, nthreads);
+            });
+            threads[i].start();
+        }
+        for(int i = 0; i < nthreads; i++)
+            try { threads[i].join(); } catch (InterruptedException e) { assert false; }
+        boolean[] seen = new boolean[ThreadID.MAX_THREADS];
+        for(int i = 0; i < nthreads; i++) {
+            assert ids[i] >= 0 && !seen[ids[i]];
+            seen[ids[i]] = true;
+        }
+        assert tree.rangeScan(0, nthreads).length == nthreads;
+
+        // ids of exited threads are recycled
+        int highWater = ThreadID.highWater();
+        for(int i = 0; i < 50; i++) {
+            Thread t = new Thread(() -> tree.get(0));
+            t.start();
+            try { t.join(); } catch (InterruptedException e) { assert false; }
+        }
+        assert ThreadID.highWater() == highWater;
+
+        int id = ThreadID.get();
+        ThreadID.release();
+        assert ThreadID.get() <= id;
+        System.out.println(new Object(){}.getClass().getEnclosingMethod().getName() + ": OK");
+    }
+
     private static void runTests(AbstractAdapter<Integer> tree) {
         InsertDeleteOneKey(tree);
         InsertDeleteTwoKeys(tree);
@@ -440,7 +1723,6 @@ public class Tests {
 
     public static void runTests() {
         int[] treeParam = {2, 16, 64};
-        ThreadID.threadID.set(0);
 
         // Run tests
         for (TreeFactory<Integer> tree : Factories.factories) {
@@ -456,7 +1738,7 @@ public class Tests {
                     AbstractAdapter<Integer> treeAdapter = (AbstractAdapter<Integer>) tree.newTree((Object) treeParam[i]);
                     runTests(treeAdapter);   
 
-                    if(tree.getName() == "VcasChromaticBatchBSTGC" || tree.getName() == "ChromaticBatchBST") {
+                    if(tree.getName() == "VcasChromaticBatchBSTGC" || tree.getName() == "ChromaticBatchBST" || tree.getName() == "VcasBatchBSTGC") {
                         //System.out.println("[*] Testing " + tree.getName() + " ...");
                         treeAdapter = (AbstractAdapter<Integer>) tree.newTree((Object) treeParam[i]);
                         runComplexQueryTests(treeAdapter);
@@ -471,5 +1753,51 @@ public class Tests {
                 System.out.println();
             }          
         }        
+
+        System.out.println("[*] Testing vCAS snapshots ...");
+        versionedReferenceTest();
+        versionTruncationTest();
+        snapshotCounterTest();
+        limboEpochTest(false);
+        limboEpochTest(true);
+        for(int i = 0; i < treeParam.length; i++) {
+            bstSnapshotTest(treeParam[i]);
+            longBstSnapshotTest(treeParam[i]);
+            bstRangeSumTest(treeParam[i]);
+            chromaticSnapshotTest(treeParam[i]);
+            sizeTest(treeParam[i]);
+            streamingScanTest(treeParam[i]);
+            parallelScanTest(treeParam[i]);
+            bulkLoadTest(treeParam[i]);
+            batchUpdateTest(treeParam[i]);
+            updateFamilyTest(treeParam[i]);
+            sharedDescentMultiSearchTest(treeParam[i]);
+            predecessorsTest(treeParam[i]);
+            navigableMapTest(treeParam[i]);
+            bufferedQueriesTest(treeParam[i]);
+            aggregateScanTest(treeParam[i]);
+            checkpointTest(treeParam[i]);
+            durableMapTest(treeParam[i]);
+            timeTravelTest(treeParam[i]);
+            changeStreamTest(treeParam[i]);
+            rangeWatcherTest(treeParam[i]);
+        }
+        System.out.println();
+
+        System.out.println("[*] Testing leaf searches ...");
+        leafSearchTest(LeafSearch.BINARY);
+        leafSearchTest(LeafSearch.LINEAR);
+        leafSearchTest(LeafSearch.create("vector")); // linear if the Vector API is unavailable
+        System.out.println();
+
+        System.out.println("[*] Testing thread ids ...");
+        threadIDTest();
+        System.out.println();
+
+        System.out.println("[*] Testing cameras ...");
+        cameraTest(new Camera());
+        cameraTest(Camera.create("striped"));
+        cameraTest(Camera.create("striped3"));
+        retentionSamplingTest();
     }
 }
@@ -1,6 +1,66 @@
 package main.support;
 
+/*
+Registry of compact thread ids, used to index the per-thread slots of Epoch
+and Camera. A thread leases the lowest free id the first time it calls get()
+and keeps it until it calls release() or exits; ids of threads that exited are
+recycled by later leases. Slots are therefore only ever occupied below
+highWater(), which is what scans over all threads should use as their bound.
+
+A thread must not exit (or release its id) in the middle of an operation on
+a structure that uses its id. At most MAX_THREADS threads can hold an id at
+the same time; the limit can be raised with -Dvcas.maxThreads=N.
+*/
 public class ThreadID {
-  public static final ThreadLocal<Integer> threadID = new ThreadLocal<Integer>();
-  public static final int MAX_THREADS = 141;
-}
\ No newline at end of file
+  public static final int MAX_THREADS = Integer.getInteger("vcas.maxThreads", 512);
+
+  private static final class Lease {
+    final int id;
+    final Thread owner;
+    Lease(int id, Thread owner) {
+      this.id = id;
+      this.owner = owner;
+    }
+  }
+
+  private static final ThreadLocal<Lease> lease = new ThreadLocal<Lease>();
+  private static final Lease[] leases = new Lease[MAX_THREADS]; // guarded by the class lock
+  private static volatile int highWater = 0;
+
+  public static int get() {
+    Lease l = lease.get();
+    if(l == null) {
+      l = acquire();
+      lease.set(l);
+    }
+    return l.id;
+  }
+
+  // one more than the largest id ever leased
+  public static int highWater() {
+    return highWater;
+  }
+
+  // gives up the current thread's id; it leases a new one on its next get()
+  public static void release() {
+    Lease l = lease.get();
+    if(l == null) return;
+    lease.remove();
+    synchronized(ThreadID.class) {
+      if(leases[l.id] == l) leases[l.id] = null;
+    }
+  }
+
+  private static synchronized Lease acquire() {
+    Thread self = Thread.currentThread();
+    int id = 0;
+    while(id < highWater && leases[id] != null && leases[id].owner.isAlive())
+      id++;
+    if(id == MAX_THREADS)
+      throw new IllegalStateException("more than " + MAX_THREADS + " threads hold a ThreadID (raise -Dvcas.maxThreads)");
+    Lease l = new Lease(id, self);
+    leases[id] = l;
+    if(id == highWater) highWater = id+1;
+    return l;
+  }
+}